@@ -0,0 +1,220 @@
+package org.hsbc.homework.benchmark;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.hsbc.homework.entity.TokenPair;
+import org.hsbc.homework.service.AuthClient;
+import org.hsbc.homework.service.AuthService;
+import org.hsbc.homework.service.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * throughput of every AuthService operation,run with -t to contend on them,e.g.
+ * java -jar target/benchmarks.jar AuthServiceBenchmark -t 8 -p userCount=100000
+ *
+ * @author BruceSu
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AuthServiceBenchmark {
+
+    @Param({"1000", "100000"})
+    public int userCount;
+    @Param({"1", "8"})
+    public int rolesPerUser;
+    /**
+     * around the default token_resize_trigger of 1024
+     */
+    @Param({"512", "1024", "2048"})
+    public int tokenCount;
+    @Param({"uuid", "signed", "offheap"})
+    public String tokenMode;
+    /**
+     * compare with -p metricsEnabled=false,true to see the instrumentation overhead
+     */
+    @Param({"false"})
+    public boolean metricsEnabled;
+    @Param({"256"})
+    public int decisionCacheSize;
+
+    AuthService service;
+    /**
+     * a near-cache client of the service,big enough for all the tokens
+     */
+    AuthClient client;
+    String[] tokens;
+    /**
+     * index=role index,a resource only that role may read
+     */
+    String[] resources;
+    private final AtomicInteger threadIds = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Properties overrides = Fixtures.tokenMode(this.tokenMode);
+        overrides.setProperty("metrics_enabled", String.valueOf(this.metricsEnabled));
+        overrides.setProperty("decision_cache_size", String.valueOf(this.decisionCacheSize));
+        overrides.setProperty("refresh_token_expire_seconds", "604800");
+        this.service = Fixtures.populate(overrides, this.userCount, this.rolesPerUser);
+        this.tokens = Fixtures.issueTokens(this.service, this.userCount, this.tokenCount);
+        this.client = new AuthClient(this.service, this.tokenCount);
+        this.resources = new String[Fixtures.ROLE_COUNT];
+        for (int i = 0; i < Fixtures.ROLE_COUNT; i++) {
+            this.service.addPermissionToRole(Fixtures.roleName(i), "read", "account:" + i + ":*");
+            this.resources[i] = "account:" + i + ":balance";
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.service.shutdown();
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        int threadId;
+        int sequence;
+
+        @Setup(Level.Trial)
+        public void setup(AuthServiceBenchmark benchmark) {
+            this.threadId = benchmark.threadIds.incrementAndGet();
+        }
+
+        String token(AuthServiceBenchmark benchmark) {
+            return benchmark.tokens[ThreadLocalRandom.current().nextInt(benchmark.tokens.length)];
+        }
+
+        String userName(AuthServiceBenchmark benchmark) {
+            return Fixtures.userName(ThreadLocalRandom.current().nextInt(benchmark.userCount));
+        }
+
+        String roleName() {
+            return Fixtures.roleName(ThreadLocalRandom.current().nextInt(Fixtures.ROLE_COUNT));
+        }
+    }
+
+    /**
+     * a token issued right before every invalidate call
+     */
+    @State(Scope.Thread)
+    public static class IssuedToken {
+
+        String token;
+
+        @Setup(Level.Invocation)
+        public void setup(AuthServiceBenchmark benchmark, ThreadState state) {
+            this.token = benchmark.service.authenticate(state.userName(benchmark), Fixtures.PWD).getRetObj();
+        }
+    }
+
+    /**
+     * the refresh token of the thread's user,rotated by every refresh call
+     */
+    @State(Scope.Thread)
+    public static class RefreshToken {
+
+        String token;
+
+        @Setup(Level.Trial)
+        public void setup(AuthServiceBenchmark benchmark, ThreadState state) {
+            this.token = benchmark.service.authenticateWithRefresh(state.userName(benchmark), Fixtures.PWD)
+                .getRetObj().getRefreshToken();
+        }
+    }
+
+    /**
+     * a role granted to rolesPerUser users right before every deleteRole call
+     */
+    @State(Scope.Thread)
+    public static class GrantedRole {
+
+        String roleName;
+
+        @Setup(Level.Invocation)
+        public void setup(AuthServiceBenchmark benchmark, ThreadState state) {
+            this.roleName = "victim-" + state.threadId + "-" + state.sequence++;
+            benchmark.service.createRole(this.roleName);
+            for (int i = 0; i < benchmark.rolesPerUser; i++) {
+                benchmark.service.addRoleToUser(state.userName(benchmark), this.roleName);
+            }
+        }
+    }
+
+    @Benchmark
+    public Result<Boolean> checkRole(ThreadState state) {
+        return this.service.checkRole(state.token(this), state.roleName());
+    }
+
+    /**
+     * compare with -p decisionCacheSize=0 to see the cost of the trie walks
+     */
+    @Benchmark
+    public Result<Boolean> checkRoleNearCache(ThreadState state) {
+        return this.client.checkRole(state.token(this), state.roleName());
+    }
+
+    @Benchmark
+    public Result<Boolean> checkPermission(ThreadState state) {
+        return this.service.checkPermission(state.token(this), "read",
+            this.resources[ThreadLocalRandom.current().nextInt(this.resources.length)]);
+    }
+
+    @Benchmark
+    public Object getAllRoles(ThreadState state) {
+        return this.service.getAllRoles(state.token(this));
+    }
+
+    /**
+     * the logins scale with the threads since the hashing is outside of the locks,compare -t 1,2,4,8
+     */
+    @Benchmark
+    public Result<String> authenticate(ThreadState state) {
+        return this.service.authenticate(state.userName(this), Fixtures.PWD);
+    }
+
+    @Benchmark
+    public Result<TokenPair> refresh(RefreshToken refresh) {
+        Result<TokenPair> ret = this.service.refresh(refresh.token);
+        refresh.token = ret.getRetObj().getRefreshToken();
+        return ret;
+    }
+
+    @Benchmark
+    public void invalidate(IssuedToken issued) {
+        this.service.invalidate(issued.token);
+    }
+
+    @Benchmark
+    public int createUser(ThreadState state) {
+        return this.service.createUser("new-" + state.threadId + "-" + state.sequence++, Fixtures.PWD);
+    }
+
+    @Benchmark
+    public int addRoleToUser(ThreadState state) {
+        return this.service.addRoleToUser(state.userName(this), state.roleName());
+    }
+
+    @Benchmark
+    public int deleteRole(GrantedRole role) {
+        return this.service.deleteRole(role.roleName);
+    }
+}
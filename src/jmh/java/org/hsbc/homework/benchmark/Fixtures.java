@@ -0,0 +1,68 @@
+package org.hsbc.homework.benchmark;
+
+import java.util.Properties;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.service.AuthService;
+
+/**
+ * builds the populated services shared by the benchmarks
+ *
+ * @author BruceSu
+ */
+final class Fixtures {
+
+    static final String PWD = "benchPwd";
+    static final int ROLE_COUNT = 32;
+
+    private Fixtures() {
+    }
+
+    static String userName(int i) {
+        return "user" + i;
+    }
+
+    static String roleName(int i) {
+        return "role" + i;
+    }
+
+    /**
+     * @param overrides auth.properties values of the service
+     * @param userCount
+     * @param rolesPerUser
+     * @return a standalone service with {@link #ROLE_COUNT} roles and the users,user i is granted the roles
+     * i..i+rolesPerUser-1 modulo the role count
+     */
+    static AuthService populate(Properties overrides, int userCount, int rolesPerUser) {
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        for (int i = 0; i < ROLE_COUNT; i++) {
+            service.createRole(roleName(i));
+        }
+        for (int i = 0; i < userCount; i++) {
+            service.createUser(userName(i), PWD);
+            for (int k = 0; k < rolesPerUser; k++) {
+                service.addRoleToUser(userName(i), roleName((i + k) % ROLE_COUNT));
+            }
+        }
+        return service;
+    }
+
+    /**
+     * @param service
+     * @param userCount
+     * @param tokenCount
+     * @return live tokens of the users in round robin
+     */
+    static String[] issueTokens(AuthService service, int userCount, int tokenCount) {
+        String[] tokens = new String[tokenCount];
+        for (int i = 0; i < tokenCount; i++) {
+            tokens[i] = service.authenticate(userName(i % userCount), PWD).getRetObj();
+        }
+        return tokens;
+    }
+
+    static Properties tokenMode(String tokenMode) {
+        Properties overrides = new Properties();
+        overrides.setProperty("token_mode", tokenMode);
+        return overrides;
+    }
+}
@@ -0,0 +1,94 @@
+package org.hsbc.homework.benchmark;
+
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.hsbc.homework.service.AuthService;
+import org.hsbc.homework.service.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * the latency of the legitimate logins while a credential stuffing attack guesses the passwords of a few users,
+ * with the pbkdf2 hashes and with and without the per-user login throttle.
+ * an attacker pauses attackPauseMicros after every attempt as a client waiting on the network would,so a refused
+ * attempt leaves the cpu to the other threads.the legitimate logins are spread over legitUserCount users so they
+ * stay under their limit,compare the stuffing:stuffingLegitLogin sample times,change the thread counts with -tg,
+ * e.g. -tg 15,1
+ *
+ * @author BruceSu
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class LoginThrottleBenchmark {
+
+    private static final String ATTACKED = "attacked";
+
+    @Param({"off", "on"})
+    public String throttle;
+    @Param({"200"})
+    public int legitUserCount;
+    @Param({"10"})
+    public int attackedUserCount;
+    @Param({"1000"})
+    public int attackPauseMicros;
+
+    AuthService service;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Properties overrides = new Properties();
+        overrides.setProperty("password_hasher", "pbkdf2");
+        if ("on".equals(this.throttle)) {
+            overrides.setProperty("login_user_rate_per_minute", "10");
+            overrides.setProperty("login_user_burst", "5");
+        }
+        this.service = Fixtures.populate(overrides, this.legitUserCount, 1);
+        for (int i = 0; i < this.attackedUserCount; i++) {
+            this.service.createUser(ATTACKED + i, Fixtures.PWD);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.service.shutdown();
+    }
+
+    @Benchmark
+    @Group("stuffing")
+    @GroupThreads(7)
+    public Result<String> stuffingAttack() {
+        Result<String> ret = this.service.authenticate(
+            ATTACKED + ThreadLocalRandom.current().nextInt(this.attackedUserCount), "guess");
+        LockSupport.parkNanos(this.attackPauseMicros * 1000L);
+        return ret;
+    }
+
+    @Benchmark
+    @Group("stuffing")
+    @GroupThreads(1)
+    public Result<String> stuffingLegitLogin() {
+        Result<String> ret = this.service.authenticate(
+            Fixtures.userName(ThreadLocalRandom.current().nextInt(this.legitUserCount)), Fixtures.PWD);
+        this.service.invalidate(ret.getRetObj());
+        return ret;
+    }
+}
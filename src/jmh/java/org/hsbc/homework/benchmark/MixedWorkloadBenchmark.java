@@ -0,0 +1,101 @@
+package org.hsbc.homework.benchmark;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.hsbc.homework.service.AuthService;
+import org.hsbc.homework.service.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * readers and writers running against the same service,the default mixes are 7:1 and 4:4,change the thread
+ * counts with -tg,e.g. java -jar target/benchmarks.jar MixedWorkloadBenchmark.readMostly -tg 30,2
+ *
+ * @author BruceSu
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Group)
+public class MixedWorkloadBenchmark {
+
+    @Param({"1000", "100000"})
+    public int userCount;
+    @Param({"4"})
+    public int rolesPerUser;
+    @Param({"1024"})
+    public int tokenCount;
+    @Param({"uuid", "signed"})
+    public String tokenMode;
+
+    AuthService service;
+    String[] tokens;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        this.service = Fixtures.populate(Fixtures.tokenMode(this.tokenMode), this.userCount, this.rolesPerUser);
+        this.tokens = Fixtures.issueTokens(this.service, this.userCount, this.tokenCount);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.service.shutdown();
+    }
+
+    private String token() {
+        return this.tokens[ThreadLocalRandom.current().nextInt(this.tokens.length)];
+    }
+
+    private String userName() {
+        return Fixtures.userName(ThreadLocalRandom.current().nextInt(this.userCount));
+    }
+
+    private String roleName() {
+        return Fixtures.roleName(ThreadLocalRandom.current().nextInt(Fixtures.ROLE_COUNT));
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(7)
+    public Result<Boolean> readMostlyCheckRole() {
+        return this.service.checkRole(token(), roleName());
+    }
+
+    @Benchmark
+    @Group("readMostly")
+    @GroupThreads(1)
+    public int readMostlyAddRoleToUser() {
+        return this.service.addRoleToUser(userName(), roleName());
+    }
+
+    @Benchmark
+    @Group("loginStorm")
+    @GroupThreads(4)
+    public Result<Boolean> loginStormCheckRole() {
+        return this.service.checkRole(token(), roleName());
+    }
+
+    @Benchmark
+    @Group("loginStorm")
+    @GroupThreads(4)
+    public Result<String> loginStormAuthenticate() {
+        Result<String> ret = this.service.authenticate(userName(), Fixtures.PWD);
+        this.service.invalidate(ret.getRetObj());
+        return ret;
+    }
+}
@@ -0,0 +1,108 @@
+package org.hsbc.homework.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.service.AuthService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * the time to rebuild a populated service from its snapshot,from its journal and from the createUser and
+ * addRoleToUser calls,e.g.
+ * java -jar target/benchmarks.jar StartupBenchmark -p userCount=1000000
+ *
+ * @author BruceSu
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int userCount;
+    @Param({"4"})
+    public int rolesPerUser;
+
+    private Path dir;
+    private Properties snapshot;
+    private Properties journal;
+    private Properties calls;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        this.dir = Files.createTempDirectory("auth-startup");
+        Path journalPath = this.dir.resolve("auth.journal");
+        this.calls = new Properties();
+        this.calls.setProperty("metrics_enabled", "false");
+        this.calls.setProperty("snapshot_interval_seconds", "0");
+        this.journal = (Properties) this.calls.clone();
+        this.journal.setProperty("journal_path", journalPath.toString());
+        this.journal.setProperty("journal_durability", "async");
+        Fixtures.populate(this.journal, this.userCount, this.rolesPerUser).shutdown();
+
+        //the snapshot compacts the journal it's taken with,so take it with a copy
+        Path copy = this.dir.resolve("copy.journal");
+        Files.copy(journalPath, copy, StandardCopyOption.REPLACE_EXISTING);
+        this.snapshot = (Properties) this.calls.clone();
+        this.snapshot.setProperty("snapshot_path", this.dir.resolve("auth.snapshot").toString());
+        Properties snapshotWriter = (Properties) this.snapshot.clone();
+        snapshotWriter.setProperty("journal_path", copy.toString());
+        AuthService service = new AuthService(AuthProperties.withOverrides(snapshotWriter));
+        if (service.writeSnapshot() != AuthService.SUCCESS) {
+            throw new IllegalStateException("snapshot failed");
+        }
+        service.shutdown();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> paths = Files.walk(this.dir)) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public AuthService loadSnapshot() {
+        return this.start(this.snapshot);
+    }
+
+    @Benchmark
+    public AuthService replayJournal() {
+        return this.start(this.journal);
+    }
+
+    @Benchmark
+    public AuthService createUsers() {
+        AuthService service = Fixtures.populate(this.calls, this.userCount, this.rolesPerUser);
+        service.shutdown();
+        return service;
+    }
+
+    private AuthService start(Properties overrides) {
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        service.shutdown();
+        return service;
+    }
+}
@@ -0,0 +1,50 @@
+package org.hsbc.homework.benchmark;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.hsbc.homework.service.TokenGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * token generation with the per-thread generators against the shared SecureRandom of UUID.randomUUID,change the
+ * thread count with -t,e.g.
+ * java -jar target/benchmarks.jar TokenGeneratorBenchmark -t 32
+ *
+ * @author BruceSu
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+@State(Scope.Benchmark)
+public class TokenGeneratorBenchmark {
+
+    private final TokenGenerator generator = new TokenGenerator("");
+    private final TokenGenerator prefixed = new TokenGenerator("s7_");
+
+    @Benchmark
+    public String uuid() {
+        return UUID.randomUUID().toString();
+    }
+
+    @Benchmark
+    public String generator() {
+        return this.generator.next();
+    }
+
+    @Benchmark
+    public String prefixedGenerator() {
+        return this.prefixed.next();
+    }
+}
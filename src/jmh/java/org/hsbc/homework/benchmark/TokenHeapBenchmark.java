@@ -0,0 +1,91 @@
+package org.hsbc.homework.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.hsbc.homework.service.AuthService;
+import org.hsbc.homework.service.Result;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * the heap cost of millions of live tokens,run with the gc profiler to see the allocations and the collections,e.g.
+ * java -jar target/benchmarks.jar TokenHeapBenchmark -prof gc
+ * <p>
+ * the retained heap per live token is printed by the setup
+ *
+ * @author BruceSu
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class TokenHeapBenchmark {
+
+    private static final int USER_COUNT = 1000;
+    private static final int SAMPLE = 4096;
+
+    @Param({"1000000", "4000000"})
+    public int tokenCount;
+    @Param({"uuid", "offheap"})
+    public String tokenMode;
+
+    AuthService service;
+    String roleName = Fixtures.roleName(0);
+    /**
+     * a sample of the live tokens,the others are only referenced by the store
+     */
+    String[] tokens;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Properties overrides = Fixtures.tokenMode(this.tokenMode);
+        overrides.setProperty("metrics_enabled", "false");
+        this.service = Fixtures.populate(overrides, USER_COUNT, 1);
+        this.tokens = Fixtures.issueTokens(this.service, USER_COUNT, SAMPLE);
+        long before = usedHeap();
+        for (int i = SAMPLE; i < this.tokenCount; i++) {
+            this.service.authenticate(Fixtures.userName(i % USER_COUNT), Fixtures.PWD);
+        }
+        long after = usedHeap();
+        System.out.printf("%n%s tokens=%d retained heap=%dMB, %d bytes/token%n", this.tokenMode, this.tokenCount,
+            (after - before) >> 20, (after - before) / (this.tokenCount - SAMPLE));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.service.shutdown();
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Benchmark
+    public Result<Boolean> checkRole() {
+        return this.service.checkRole(this.tokens[ThreadLocalRandom.current().nextInt(SAMPLE)], this.roleName);
+    }
+
+    @Benchmark
+    public Result<String> authenticate() {
+        return this.service.authenticate(Fixtures.userName(ThreadLocalRandom.current().nextInt(USER_COUNT)),
+            Fixtures.PWD);
+    }
+}
@@ -0,0 +1,363 @@
+package org.hsbc.homework.cluster;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.journal.JournalRecord;
+import org.hsbc.homework.service.AuthService;
+import org.hsbc.homework.service.MutationListener;
+import org.hsbc.homework.service.Result;
+
+/**
+ * one node of a cluster,every node keeps all the users,roles and tokens.
+ * a user is owned by a node chosen by the hash of its name,so is a role,a change is made on the owner and then
+ * replicated to the other nodes,so the checks are answered by any node without a remote call.
+ * the replicas are eventually consistent,an event is applied only after the events it may depend on
+ *
+ * @author BruceSu
+ */
+public class ClusterAuthService {
+
+    private static final Logger log = LogManager.getLogManager().getLogger("global");
+
+    private final int nodeId;
+    private final int nodeCount;
+    private final AuthService local;
+    private final ReplicationTransport transport;
+
+    /**
+     * index=node, value=count of the events of that node applied here,or sent if it's this node
+     */
+    private final AtomicLongArray delivered;
+    /**
+     * index=node, value=the received events of that node waiting for their dependencies,in sending order
+     */
+    private final List<ArrayDeque<ReplicationEvent>> buffers;
+    private final Object sendLock = new Object();
+
+    private final AtomicLong applied = new AtomicLong();
+    private final AtomicLong buffered = new AtomicLong();
+    private volatile long lastLagNanos;
+    private final AtomicLong maxLagNanos = new AtomicLong();
+
+    /**
+     * create a node and join it to the transport
+     *
+     * @param nodeId from 0 to nodeCount - 1
+     * @param nodeCount
+     * @param properties the config of the local service,token_prefix and token_hmac_secret must be the same on all
+     * nodes
+     * @param transport
+     */
+    public ClusterAuthService(int nodeId, int nodeCount, AuthProperties properties, ReplicationTransport transport) {
+        if (nodeCount <= 0 || nodeId < 0 || nodeId >= nodeCount) {
+            throw new IllegalArgumentException(String.format("nodeId=%d, nodeCount=%d", nodeId, nodeCount));
+        }
+        this.nodeId = nodeId;
+        this.nodeCount = nodeCount;
+        this.transport = transport;
+        this.delivered = new AtomicLongArray(nodeCount);
+        this.buffers = new ArrayList<>(nodeCount);
+        for (int i = 0; i < nodeCount; i++) {
+            this.buffers.add(new ArrayDeque<>());
+        }
+        this.local = new AuthService(properties, new Replicator());
+        this.local.getMetrics().registerGauge("replicationSent", () -> this.delivered.get(this.nodeId));
+        this.local.getMetrics().registerGauge("replicationApplied", this.applied::get);
+        this.local.getMetrics().registerGauge("replicationPending",
+            () -> this.buffered.get() + this.transport.pending(this.nodeId));
+        this.local.getMetrics().registerGauge("replicationLagMaxNanos", this.maxLagNanos::get);
+        transport.join(this);
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the service holding the replica of this node
+     */
+    public AuthService getLocal() {
+        return local;
+    }
+
+    /**
+     * @param name a user or role name
+     * @return the node that owns it
+     */
+    public int ownerOf(String name) {
+        return name == null ? this.nodeId : Math.floorMod(name.hashCode(), this.nodeCount);
+    }
+
+    public int createUser(String userName, String originalPwd) {
+        return this.call(this.ownerOf(userName),
+            new ClusterRequest(ClusterRequest.Type.CREATE_USER, userName, null, originalPwd)).getStatus();
+    }
+
+    public int deleteUser(String userName) {
+        return this.call(this.ownerOf(userName),
+            new ClusterRequest(ClusterRequest.Type.DELETE_USER, userName, null, null)).getStatus();
+    }
+
+    public int createRole(String roleName) {
+        return this.call(this.ownerOf(roleName),
+            new ClusterRequest(ClusterRequest.Type.CREATE_ROLE, null, roleName, null)).getStatus();
+    }
+
+    public int deleteRole(String roleName) {
+        return this.call(this.ownerOf(roleName),
+            new ClusterRequest(ClusterRequest.Type.DELETE_ROLE, null, roleName, null)).getStatus();
+    }
+
+    /**
+     * the grant is made by the owner of the user,it fails if the role isn't replicated there yet
+     *
+     * @param userName
+     * @param roleName
+     * @return 0 or an error code.
+     */
+    public int addRoleToUser(String userName, String roleName) {
+        return this.call(this.ownerOf(userName),
+            new ClusterRequest(ClusterRequest.Type.ADD_ROLE_TO_USER, userName, roleName, null)).getStatus();
+    }
+
+    /**
+     * the hierarchy is changed by node 0 only,so two nodes can't add the edges of a cycle at the same time
+     *
+     * @param roleName
+     * @param parentName
+     * @return 0 or an error code.
+     */
+    public int addRoleParent(String roleName, String parentName) {
+        return this.call(0, new ClusterRequest(ClusterRequest.Type.ADD_ROLE_PARENT, null, roleName, null, parentName))
+            .getStatus();
+    }
+
+    public int addPermissionToRole(String roleName, String action, String resource) {
+        return this.call(this.ownerOf(roleName), ClusterRequest.permission(roleName, action, resource)).getStatus();
+    }
+
+    /**
+     * the token is issued by the owner of the user,other nodes accept it once it's replicated
+     *
+     * @param userName
+     * @param pwd
+     * @return an object contains an int code,its value is 0 while success,otherwise an error code
+     */
+    public Result<String> authenticate(String userName, String pwd) {
+        return this.call(this.ownerOf(userName),
+            new ClusterRequest(ClusterRequest.Type.AUTHENTICATE, userName, null, pwd));
+    }
+
+    public void invalidate(String token) {
+        this.local.invalidate(token);
+    }
+
+    /**
+     * with max_sessions_per_user every node indexes the tokens it issued or adopted and the revokes are replicated one
+     * by one,without it the cutoff of the user's sessions is replicated
+     *
+     * @param userName
+     * @return 0 or an error code.
+     */
+    public int invalidateAllForUser(String userName) {
+        return this.local.invalidateAllForUser(userName);
+    }
+
+    public Result<Boolean> checkRole(String token, String roleName) {
+        return this.local.checkRole(token, roleName);
+    }
+
+    public Result<Map<String, Boolean>> checkRoles(String token, Collection<String> roleNames) {
+        return this.local.checkRoles(token, roleNames);
+    }
+
+    public Result<Set<String>> getAllRoles(String token) {
+        return this.local.getAllRoles(token);
+    }
+
+    public Result<Boolean> checkPermission(String token, String action, String resource) {
+        return this.local.checkPermission(token, action, resource);
+    }
+
+    public Result<Set<String>> getUsersInRole(String roleName) {
+        return this.local.getUsersInRole(roleName);
+    }
+
+    public Result<Integer> countUsersInRole(String roleName) {
+        return this.local.countUsersInRole(roleName);
+    }
+
+    private Result<String> call(int owner, ClusterRequest request) {
+        if (owner == this.nodeId) {
+            return this.handle(request);
+        }
+        return this.transport.forward(owner, request);
+    }
+
+    /**
+     * run a call forwarded by another node
+     *
+     * @param request
+     * @return an object contains an int code,and the token of an authenticate
+     */
+    public Result<String> handle(ClusterRequest request) {
+        switch (request.getType()) {
+            case CREATE_USER:
+                return result(this.local.createUser(request.getUserName(), request.getPwd()));
+            case DELETE_USER:
+                return result(this.local.deleteUser(request.getUserName()));
+            case CREATE_ROLE:
+                return result(this.local.createRole(request.getRoleName()));
+            case DELETE_ROLE:
+                return result(this.local.deleteRole(request.getRoleName()));
+            case ADD_ROLE_TO_USER:
+                return result(this.local.addRoleToUser(request.getUserName(), request.getRoleName()));
+            case ADD_ROLE_PARENT:
+                return result(this.local.addRoleParent(request.getRoleName(), request.getParentName()));
+            case ADD_PERMISSION_TO_ROLE:
+                return result(this.local.addPermissionToRole(request.getRoleName(), request.getAction(),
+                    request.getResource()));
+            case AUTHENTICATE:
+                return this.local.authenticate(request.getUserName(), request.getPwd());
+            default:
+                return Result.fail(AuthService.PARAMS_ERROR);
+        }
+    }
+
+    private static Result<String> result(int code) {
+        return code == AuthService.SUCCESS ? Result.success() : Result.fail(code);
+    }
+
+    /**
+     * receive an event of another node,it's applied once every event it depends on is applied
+     *
+     * @param event
+     */
+    public synchronized void receive(ReplicationEvent event) {
+        this.buffers.get(event.getSource()).addLast(event);
+        this.buffered.incrementAndGet();
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (int src = 0; src < this.nodeCount; src++) {
+                ReplicationEvent head = this.buffers.get(src).peekFirst();
+                if (head != null && this.deliverable(head)) {
+                    this.buffers.get(src).pollFirst();
+                    this.buffered.decrementAndGet();
+                    this.deliver(head);
+                    progress = true;
+                }
+            }
+        }
+    }
+
+    private boolean deliverable(ReplicationEvent event) {
+        int src = event.getSource();
+        if (event.getSequence() != this.delivered.get(src) + 1) {
+            return false;
+        }
+        long[] deps = event.getDeps();
+        for (int i = 0; i < this.nodeCount; i++) {
+            if (i != src && this.delivered.get(i) < deps[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void deliver(ReplicationEvent event) {
+        //counted first,so a local change made meanwhile depends on it rather than missing it
+        this.delivered.incrementAndGet(event.getSource());
+        try {
+            switch (event.getKind()) {
+                case MUTATION:
+                    this.local.applyReplicated(event.getRecord());
+                    break;
+                case TOKEN_ISSUED:
+                    this.local.adoptToken(event.getToken(), event.getUserName(), event.getCreateTime());
+                    break;
+                case TOKEN_REVOKED:
+                    this.local.revokeReplicated(event.getToken());
+                    break;
+                case SESSIONS_REVOKED:
+                    this.local.revokeSessionsReplicated(event.getUserName(), event.getCreateTime());
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("source=%d, sequence=%d", event.getSource(), event.getSequence()),
+                e);
+        }
+        this.applied.incrementAndGet();
+        long lag = System.nanoTime() - event.getSentNanos();
+        this.lastLagNanos = lag;
+        this.maxLagNanos.accumulateAndGet(lag, Math::max);
+    }
+
+    private void send(ReplicationEvent.Kind kind, JournalRecord record, String token, String userName,
+        long createTime) {
+        //the sequence and the sending order must agree
+        synchronized (this.sendLock) {
+            long[] deps = new long[this.nodeCount];
+            for (int i = 0; i < this.nodeCount; i++) {
+                deps[i] = this.delivered.get(i);
+            }
+            long sequence = this.delivered.incrementAndGet(this.nodeId);
+            this.transport.replicate(this.nodeId,
+                new ReplicationEvent(kind, this.nodeId, sequence, deps, record, token, userName, createTime));
+        }
+    }
+
+    public ReplicationStats getReplicationStats() {
+        return new ReplicationStats(this.delivered.get(this.nodeId), this.applied.get(), this.buffered.get(),
+            this.transport.pending(this.nodeId), this.lastLagNanos, this.maxLagNanos.get());
+    }
+
+    /**
+     * stop the local service,the transport is shared so it's left open
+     */
+    public void shutdown() {
+        this.local.shutdown();
+    }
+
+    /**
+     * sends the local changes,it's called inside the critical sections of the local service
+     */
+    private class Replicator implements MutationListener {
+
+        @Override
+        public void onMutation(JournalRecord record) {
+            send(ReplicationEvent.Kind.MUTATION, record, null, null, 0);
+        }
+
+        @Override
+        public void onTokenIssued(String token, String userName, long createTime) {
+            send(ReplicationEvent.Kind.TOKEN_ISSUED, null, token, userName, createTime);
+        }
+
+        @Override
+        public void onTokenRevoked(String token) {
+            send(ReplicationEvent.Kind.TOKEN_REVOKED, null, token, null, 0);
+        }
+
+        @Override
+        public void onSessionsRevoked(String userName, long cutoff) {
+            send(ReplicationEvent.Kind.SESSIONS_REVOKED, null, null, userName, cutoff);
+        }
+    }
+}
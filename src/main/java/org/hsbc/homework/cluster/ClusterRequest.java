@@ -0,0 +1,79 @@
+package org.hsbc.homework.cluster;
+
+/**
+ * a call forwarded to the node that owns the user or role
+ *
+ * @author BruceSu
+ */
+public class ClusterRequest {
+
+    public enum Type {
+        CREATE_USER,
+        DELETE_USER,
+        CREATE_ROLE,
+        DELETE_ROLE,
+        ADD_ROLE_TO_USER,
+        ADD_ROLE_PARENT,
+        ADD_PERMISSION_TO_ROLE,
+        AUTHENTICATE
+    }
+
+    private final Type type;
+    private final String userName;
+    private final String roleName;
+    private final String pwd;
+    private final String parentName;
+    private final String action;
+    private final String resource;
+
+    public ClusterRequest(Type type, String userName, String roleName, String pwd) {
+        this(type, userName, roleName, pwd, null);
+    }
+
+    public ClusterRequest(Type type, String userName, String roleName, String pwd, String parentName) {
+        this(type, userName, roleName, pwd, parentName, null, null);
+    }
+
+    private ClusterRequest(Type type, String userName, String roleName, String pwd, String parentName, String action,
+        String resource) {
+        this.type = type;
+        this.userName = userName;
+        this.roleName = roleName;
+        this.pwd = pwd;
+        this.parentName = parentName;
+        this.action = action;
+        this.resource = resource;
+    }
+
+    public static ClusterRequest permission(String roleName, String action, String resource) {
+        return new ClusterRequest(Type.ADD_PERMISSION_TO_ROLE, null, roleName, null, null, action, resource);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public String getRoleName() {
+        return roleName;
+    }
+
+    public String getPwd() {
+        return pwd;
+    }
+
+    public String getParentName() {
+        return parentName;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+}
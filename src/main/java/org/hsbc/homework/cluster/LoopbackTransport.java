@@ -0,0 +1,104 @@
+package org.hsbc.homework.cluster;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.hsbc.homework.service.AuthService;
+import org.hsbc.homework.service.Result;
+
+/**
+ * connect the nodes of one process,each node receives its events on its own thread
+ *
+ * @author BruceSu
+ */
+public class LoopbackTransport implements ReplicationTransport {
+
+    private final Map<Integer, ClusterAuthService> nodes = new ConcurrentHashMap<>();
+    private final Map<Integer, ExecutorService> receivers = new ConcurrentHashMap<>();
+    private final Map<Integer, AtomicLong> pending = new ConcurrentHashMap<>();
+
+    @Override
+    public void join(ClusterAuthService node) {
+        int nodeId = node.getNodeId();
+        this.pending.put(nodeId, new AtomicLong());
+        this.receivers.put(nodeId, Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "auth-replication-" + nodeId);
+            t.setDaemon(true);
+            return t;
+        }));
+        this.nodes.put(nodeId, node);
+    }
+
+    @Override
+    public void replicate(int fromNode, ReplicationEvent event) {
+        for (Map.Entry<Integer, ClusterAuthService> entry : this.nodes.entrySet()) {
+            if (entry.getKey() == fromNode) {
+                continue;
+            }
+            AtomicLong counter = this.pending.get(entry.getKey());
+            ClusterAuthService node = entry.getValue();
+            counter.incrementAndGet();
+            this.receivers.get(entry.getKey()).execute(() -> {
+                try {
+                    node.receive(event);
+                } finally {
+                    counter.decrementAndGet();
+                }
+            });
+        }
+    }
+
+    @Override
+    public Result<String> forward(int toNode, ClusterRequest request) {
+        ClusterAuthService node = this.nodes.get(toNode);
+        if (node == null) {
+            return Result.fail(AuthService.INNER_ERROR);
+        }
+        return node.handle(request);
+    }
+
+    @Override
+    public long pending(int nodeId) {
+        AtomicLong counter = this.pending.get(nodeId);
+        return counter == null ? 0 : counter.get();
+    }
+
+    /**
+     * wait until every sent event is received and applied
+     *
+     * @param timeout
+     * @param unit
+     * @return false if it timed out
+     * @throws InterruptedException
+     */
+    public boolean awaitQuiescence(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (true) {
+            boolean quiet = true;
+            for (ClusterAuthService node : this.nodes.values()) {
+                if (this.pending(node.getNodeId()) > 0 || node.getReplicationStats().getBuffered() > 0) {
+                    quiet = false;
+                    break;
+                }
+            }
+            if (quiet) {
+                return true;
+            }
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (ExecutorService receiver : this.receivers.values()) {
+            receiver.shutdown();
+        }
+        this.nodes.clear();
+    }
+}
@@ -0,0 +1,89 @@
+package org.hsbc.homework.cluster;
+
+import org.hsbc.homework.journal.JournalRecord;
+
+/**
+ * a change sent from one node to the others
+ *
+ * @author BruceSu
+ */
+public class ReplicationEvent {
+
+    public enum Kind {
+        MUTATION,
+        TOKEN_ISSUED,
+        TOKEN_REVOKED,
+        /**
+         * the userName and the cutoff in the createTime
+         */
+        SESSIONS_REVOKED
+    }
+
+    private final Kind kind;
+    private final int source;
+    /**
+     * starts from 1,every event of the source node has the next one
+     */
+    private final long sequence;
+    /**
+     * index=node, value=count of the events of that node the source had received when it sent this one
+     */
+    private final long[] deps;
+    /**
+     * System.nanoTime() of the source,only comparable within one process
+     */
+    private final long sentNanos;
+    private final JournalRecord record;
+    private final String token;
+    private final String userName;
+    private final long createTime;
+
+    ReplicationEvent(Kind kind, int source, long sequence, long[] deps, JournalRecord record, String token,
+        String userName, long createTime) {
+        this.kind = kind;
+        this.source = source;
+        this.sequence = sequence;
+        this.deps = deps;
+        this.sentNanos = System.nanoTime();
+        this.record = record;
+        this.token = token;
+        this.userName = userName;
+        this.createTime = createTime;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public int getSource() {
+        return source;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long[] getDeps() {
+        return deps;
+    }
+
+    public long getSentNanos() {
+        return sentNanos;
+    }
+
+    public JournalRecord getRecord() {
+        return record;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public long getCreateTime() {
+        return createTime;
+    }
+}
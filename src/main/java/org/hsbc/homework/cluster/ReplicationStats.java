@@ -0,0 +1,61 @@
+package org.hsbc.homework.cluster;
+
+/**
+ * a point-in-time view of the replication of a node
+ *
+ * @author BruceSu
+ */
+public class ReplicationStats {
+
+    private final long sent;
+    private final long applied;
+    /**
+     * received but waiting for an earlier event
+     */
+    private final long buffered;
+    /**
+     * sent to this node but not received yet,as reported by the transport
+     */
+    private final long pending;
+    private final long lastLagNanos;
+    private final long maxLagNanos;
+
+    ReplicationStats(long sent, long applied, long buffered, long pending, long lastLagNanos, long maxLagNanos) {
+        this.sent = sent;
+        this.applied = applied;
+        this.buffered = buffered;
+        this.pending = pending;
+        this.lastLagNanos = lastLagNanos;
+        this.maxLagNanos = maxLagNanos;
+    }
+
+    public long getSent() {
+        return sent;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    public long getBuffered() {
+        return buffered;
+    }
+
+    public long getPending() {
+        return pending;
+    }
+
+    public long getLastLagNanos() {
+        return lastLagNanos;
+    }
+
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("sent=%d, applied=%d, buffered=%d, pending=%d, lastLagNanos=%d, maxLagNanos=%d", sent,
+            applied, buffered, pending, lastLagNanos, maxLagNanos);
+    }
+}
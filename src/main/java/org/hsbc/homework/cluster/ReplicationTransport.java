@@ -0,0 +1,44 @@
+package org.hsbc.homework.cluster;
+
+import org.hsbc.homework.service.Result;
+
+/**
+ * moves the events and the forwarded calls between the nodes
+ *
+ * @author BruceSu
+ */
+public interface ReplicationTransport {
+
+    /**
+     * register a node,it must be called before anything is sent to the node
+     *
+     * @param node
+     */
+    void join(ClusterAuthService node);
+
+    /**
+     * send an event to every other node without waiting,the events from one node must arrive at each node in the
+     * order they're sent
+     *
+     * @param fromNode
+     * @param event
+     */
+    void replicate(int fromNode, ReplicationEvent event);
+
+    /**
+     * call the given node and wait for its result
+     *
+     * @param toNode
+     * @param request
+     * @return the result of {@link ClusterAuthService#handle(ClusterRequest)},or INNER_ERROR if it's unreachable
+     */
+    Result<String> forward(int toNode, ClusterRequest request);
+
+    /**
+     * @param nodeId
+     * @return the count of the events sent to the node but not received yet
+     */
+    long pending(int nodeId);
+
+    void close();
+}
@@ -1,6 +1,7 @@
 package org.hsbc.homework.config;
 
 import java.io.IOException;
+import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
@@ -13,43 +14,285 @@ import java.util.logging.Logger;
  */
 public class AuthProperties {
 
+    /**
+     * the token is a random 128 bit value kept in the token map
+     */
+    public static final String TOKEN_MODE_UUID = "uuid";
+    /**
+     * the token is self-contained and signed with HMAC,only revoked tokens are kept in memory
+     */
+    public static final String TOKEN_MODE_SIGNED = "signed";
+    /**
+     * the token is a random 128 bit value kept off heap
+     */
+    public static final String TOKEN_MODE_OFFHEAP = "offheap";
+    /**
+     * a virtual thread per call,falls back to the pool on a jdk without virtual threads
+     */
+    public static final String ASYNC_EXECUTOR_VIRTUAL = "virtual";
+    /**
+     * a fixed pool of async_threads threads
+     */
+    public static final String ASYNC_EXECUTOR_POOL = "pool";
+
     private static Logger log = LogManager.getLogManager().getLogger("global");
-    private static AuthProperties instance = new AuthProperties();
+    private static AuthProperties instance = new AuthProperties(new Properties());
 
     /**
      * token expire time after authenticate
      */
     private int tokenExpireSeconds;
     /**
-     * the token container threshold size value,while the size greater than this value,it will clear the expired tokens
+     * the token container threshold size value,while the size greater than this value,it will request a sweep of the
+     * expired tokens ahead of the schedule
      */
     private int tokenResizeTrigger;
+    /**
+     * interval of the background expired token sweep,also the width of the expiry time buckets
+     */
+    private long tokenSweepIntervalMillis;
+    /**
+     * {@link #TOKEN_MODE_UUID},{@link #TOKEN_MODE_SIGNED} or {@link #TOKEN_MODE_OFFHEAP}
+     */
+    private String tokenMode;
+    /**
+     * base64 HMAC key of the signed tokens,a random key is generated while empty
+     */
+    private String tokenHmacSecret;
+    /**
+     * put before the random tokens,e.g. a shard or key id
+     */
+    private String tokenPrefix;
+    /**
+     * stripe count of the per-user locks,rounded up to a power of two
+     */
+    private int lockStripes;
+    /**
+     * legacy: md5 based hashing, pbkdf2: PBKDF2 with HMAC-SHA256
+     */
+    private String passwordHasher;
+    /**
+     * the cost of the pbkdf2 hashes
+     */
+    private int pbkdf2Iterations;
+    /**
+     * record the operation latencies,lock waits and result codes
+     */
+    private boolean metricsEnabled;
+    /**
+     * time one in this many calls,1 times every call
+     */
+    private int metricsLatencySampling;
+    /**
+     * register the metrics as an MXBean with this name,not registered while empty
+     */
+    private String metricsJmxName;
+    /**
+     * write-ahead journal of the users,roles and grants,replayed on start,no journal while empty
+     */
+    private String journalPath;
+    /**
+     * per_op, batched or async,see {@link org.hsbc.homework.journal.Durability}.under per_op a change whose sync fails
+     * answers INNER_ERROR,it's visible anyway
+     */
+    private String journalDurability;
+    /**
+     * force interval of the batched and async journal
+     */
+    private long journalBatchMillis;
+    /**
+     * snapshot of the users,roles and grants,loaded on start before the journal,no snapshot while empty
+     */
+    private String snapshotPath;
+    /**
+     * interval of the periodic snapshot,0 only snapshots on request
+     */
+    private long snapshotIntervalSeconds;
+    /**
+     * the permission decisions cached per user,0 disables the cache
+     */
+    private int decisionCacheSize;
+    /**
+     * the users whose decisions are cached,an arbitrary one is dropped to make room for another
+     */
+    private int decisionCacheUsers;
+    /**
+     * a check moves the expiry of a uuid or offheap token to token_expire_seconds from now
+     */
+    private boolean tokenSlidingExpiry;
+    /**
+     * the lifetime of the refresh tokens,0 disables them and is the default
+     */
+    private int refreshTokenExpireSeconds;
+    /**
+     * the most live access tokens of a user,a login over it revokes the oldest one,0 for no limit.
+     * a limit keeps every live token string in a heap index,the signed and offheap modes lose their point
+     */
+    private int maxSessionsPerUser;
+    /**
+     * interval of the sweep of the expired tokens out of the per-user session index
+     */
+    private long sessionSweepIntervalMillis;
+    /**
+     * the login attempts a user gets per minute,0 for no limit
+     */
+    private int loginUserRatePerMinute;
+    /**
+     * the login attempts a user gets at once
+     */
+    private int loginUserBurst;
+    /**
+     * the login attempts all the users get per second,0 for no limit
+     */
+    private int loginGlobalRatePerSecond;
+    /**
+     * the login attempts all the users get at once
+     */
+    private int loginGlobalBurst;
+    /**
+     * the per-user login buckets kept,the idle ones are dropped over it
+     */
+    private int loginThrottleMaxUsers;
+    /**
+     * the executor of the AsyncAuthService calls,{@link #ASYNC_EXECUTOR_VIRTUAL} or {@link #ASYNC_EXECUTOR_POOL}
+     */
+    private String asyncExecutor;
+    /**
+     * thread count of the pool executor of the AsyncAuthService calls
+     */
+    private int asyncThreads;
+    /**
+     * thread count of the AsyncAuthService pool that hashes the passwords
+     */
+    private int asyncHashThreads;
+    /**
+     * the password hashing calls waiting for the hash pool,a call over this is rejected
+     */
+    private int asyncHashQueue;
+    /**
+     * the interface the AuthHttpServer listens on,loopback unless it's set
+     */
+    private String httpHost;
+    /**
+     * the port of the AuthHttpServer
+     */
+    private int httpPort;
+    /**
+     * thread count of the AuthHttpServer request pool
+     */
+    private int httpThreads;
+    /**
+     * the X-Admin-Token header of the http calls that change the users and the roles,empty refuses them all
+     */
+    private String httpAdminToken;
+    /**
+     * the changes kept for the readers of the change stream,0 disables the stream
+     */
+    private int changeStreamSize;
+    /**
+     * the tokens whose checkRole answers an AuthClient keeps,0 disables its cache
+     */
+    private int nearCacheSize;
 
-    private AuthProperties() {
+    private AuthProperties(Properties overrides) {
         try {
-            load();
+            load(overrides);
         } catch (IOException e) {
             log.log(Level.SEVERE, "AuthProperties load error.", e);
         }
     }
 
-    private void load() throws IOException {
+    private void load(Properties overrides) throws IOException {
         ResourceBundle bundle = ResourceBundle.getBundle("auth");
 
         this.tokenExpireSeconds = Integer.parseInt(
-            this.getBundleStringOrDefault(bundle, "token_expire_seconds", "7200"));
+            this.getBundleStringOrDefault(bundle, overrides, "token_expire_seconds", "7200"));
         this.tokenResizeTrigger = Integer.parseInt(
-            this.getBundleStringOrDefault(bundle, "token_resize_trigger", "1024"));
+            this.getBundleStringOrDefault(bundle, overrides, "token_resize_trigger", "1024"));
+        this.tokenSweepIntervalMillis = Long.parseLong(
+            this.getBundleStringOrDefault(bundle, overrides, "token_sweep_interval_millis", "1000"));
+        this.tokenMode = this.getBundleStringOrDefault(bundle, overrides, "token_mode", TOKEN_MODE_UUID);
+        this.tokenHmacSecret = this.getBundleStringOrDefault(bundle, overrides, "token_hmac_secret", "");
+        this.tokenPrefix = this.getBundleStringOrDefault(bundle, overrides, "token_prefix", "");
+        this.lockStripes = Integer.parseInt(this.getBundleStringOrDefault(bundle, overrides, "lock_stripes", "64"));
+        this.passwordHasher = this.getBundleStringOrDefault(bundle, overrides, "password_hasher", "legacy");
+        this.pbkdf2Iterations = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "pbkdf2_iterations", "10000"));
+        this.metricsEnabled = Boolean.parseBoolean(
+            this.getBundleStringOrDefault(bundle, overrides, "metrics_enabled", "false"));
+        this.metricsLatencySampling = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "metrics_latency_sampling", "16"));
+        this.metricsJmxName = this.getBundleStringOrDefault(bundle, overrides, "metrics_jmx_name", "");
+        this.journalPath = this.getBundleStringOrDefault(bundle, overrides, "journal_path", "");
+        this.journalDurability = this.getBundleStringOrDefault(bundle, overrides, "journal_durability", "per_op");
+        this.journalBatchMillis = Long.parseLong(
+            this.getBundleStringOrDefault(bundle, overrides, "journal_batch_millis", "5"));
+        this.snapshotPath = this.getBundleStringOrDefault(bundle, overrides, "snapshot_path", "");
+        this.snapshotIntervalSeconds = Long.parseLong(
+            this.getBundleStringOrDefault(bundle, overrides, "snapshot_interval_seconds", "0"));
+        this.decisionCacheSize = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "decision_cache_size", "256"));
+        this.decisionCacheUsers = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "decision_cache_users", "10000"));
+        this.tokenSlidingExpiry = Boolean.parseBoolean(
+            this.getBundleStringOrDefault(bundle, overrides, "token_sliding_expiry", "false"));
+        this.refreshTokenExpireSeconds = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "refresh_token_expire_seconds", "0"));
+        this.maxSessionsPerUser = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "max_sessions_per_user", "0"));
+        this.sessionSweepIntervalMillis = Long.parseLong(
+            this.getBundleStringOrDefault(bundle, overrides, "session_sweep_interval_millis", "60000"));
+        this.loginUserRatePerMinute = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "login_user_rate_per_minute", "0"));
+        this.loginUserBurst = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "login_user_burst", "10"));
+        this.loginGlobalRatePerSecond = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "login_global_rate_per_second", "0"));
+        this.loginGlobalBurst = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "login_global_burst", "100"));
+        this.loginThrottleMaxUsers = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "login_throttle_max_users", "100000"));
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.asyncExecutor = this.getBundleStringOrDefault(bundle, overrides, "async_executor", ASYNC_EXECUTOR_VIRTUAL);
+        this.asyncThreads = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "async_threads", String.valueOf(cores * 2)));
+        this.asyncHashThreads = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "async_hash_threads", String.valueOf(cores)));
+        this.asyncHashQueue = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "async_hash_queue", "1024"));
+        this.httpHost = this.getBundleStringOrDefault(bundle, overrides, "http_host", "127.0.0.1");
+        this.httpPort = Integer.parseInt(this.getBundleStringOrDefault(bundle, overrides, "http_port", "8080"));
+        this.httpThreads = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "http_threads", String.valueOf(cores * 2)));
+        this.httpAdminToken = this.getBundleStringOrDefault(bundle, overrides, "http_admin_token", "");
+        this.changeStreamSize = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "change_stream_size", "4096"));
+        this.nearCacheSize = Integer.parseInt(
+            this.getBundleStringOrDefault(bundle, overrides, "near_cache_size", "4096"));
     }
 
-    private String getBundleStringOrDefault(ResourceBundle bundle, String key, String defaultVal) {
-        return bundle.containsKey(key) ? bundle.getString(key) : defaultVal;
+    private String getBundleStringOrDefault(ResourceBundle bundle, Properties overrides, String key,
+        String defaultVal) {
+        if (overrides.containsKey(key)) {
+            return overrides.getProperty(key).trim();
+        }
+        return bundle.containsKey(key) ? bundle.getString(key).trim() : defaultVal;
     }
 
     public static AuthProperties getInstance() {
         return instance;
     }
 
+    /**
+     * create a config that reads auth.properties but takes the given values first,for the standalone service instances
+     *
+     * @param overrides key=property name in auth.properties
+     * @return a new config
+     */
+    public static AuthProperties withOverrides(Properties overrides) {
+        return new AuthProperties(overrides);
+    }
+
     public int getTokenExpireSeconds() {
         return tokenExpireSeconds;
     }
@@ -57,4 +300,148 @@ public class AuthProperties {
     public int getTokenResizeTrigger() {
         return tokenResizeTrigger;
     }
+
+    public long getTokenSweepIntervalMillis() {
+        return tokenSweepIntervalMillis;
+    }
+
+    public String getTokenMode() {
+        return tokenMode;
+    }
+
+    public String getTokenHmacSecret() {
+        return tokenHmacSecret;
+    }
+
+    public String getTokenPrefix() {
+        return tokenPrefix;
+    }
+
+    public int getLockStripes() {
+        return lockStripes;
+    }
+
+    public String getPasswordHasher() {
+        return passwordHasher;
+    }
+
+    public int getPbkdf2Iterations() {
+        return pbkdf2Iterations;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public int getMetricsLatencySampling() {
+        return metricsLatencySampling;
+    }
+
+    public String getMetricsJmxName() {
+        return metricsJmxName;
+    }
+
+    public String getJournalPath() {
+        return journalPath;
+    }
+
+    public String getJournalDurability() {
+        return journalDurability;
+    }
+
+    public long getJournalBatchMillis() {
+        return journalBatchMillis;
+    }
+
+    public String getSnapshotPath() {
+        return snapshotPath;
+    }
+
+    public long getSnapshotIntervalSeconds() {
+        return snapshotIntervalSeconds;
+    }
+
+    public int getDecisionCacheSize() {
+        return decisionCacheSize;
+    }
+
+    public int getDecisionCacheUsers() {
+        return decisionCacheUsers;
+    }
+
+    public boolean isTokenSlidingExpiry() {
+        return tokenSlidingExpiry;
+    }
+
+    public int getRefreshTokenExpireSeconds() {
+        return refreshTokenExpireSeconds;
+    }
+
+    public int getMaxSessionsPerUser() {
+        return maxSessionsPerUser;
+    }
+
+    public long getSessionSweepIntervalMillis() {
+        return sessionSweepIntervalMillis;
+    }
+
+    public int getLoginUserRatePerMinute() {
+        return loginUserRatePerMinute;
+    }
+
+    public int getLoginUserBurst() {
+        return loginUserBurst;
+    }
+
+    public int getLoginGlobalRatePerSecond() {
+        return loginGlobalRatePerSecond;
+    }
+
+    public int getLoginGlobalBurst() {
+        return loginGlobalBurst;
+    }
+
+    public int getLoginThrottleMaxUsers() {
+        return loginThrottleMaxUsers;
+    }
+
+    public String getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    public int getAsyncThreads() {
+        return asyncThreads;
+    }
+
+    public int getAsyncHashThreads() {
+        return asyncHashThreads;
+    }
+
+    public int getAsyncHashQueue() {
+        return asyncHashQueue;
+    }
+
+    public String getHttpHost() {
+        return httpHost;
+    }
+
+    public int getHttpPort() {
+        return httpPort;
+    }
+
+    public int getHttpThreads() {
+        return httpThreads;
+    }
+
+    public String getHttpAdminToken() {
+        return httpAdminToken;
+    }
+
+    public int getChangeStreamSize() {
+        return changeStreamSize;
+    }
+
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
 }
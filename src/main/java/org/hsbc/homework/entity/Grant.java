@@ -0,0 +1,55 @@
+package org.hsbc.homework.entity;
+
+import java.util.Objects;
+
+/**
+ * a role granted to a user
+ *
+ * @author BruceSu
+ */
+public class Grant {
+
+    private String userName;
+    private String roleName;
+
+    public Grant() {
+    }
+
+    public Grant(String userName, String roleName) {
+        this.userName = userName;
+        this.roleName = roleName;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public void setUserName(String userName) {
+        this.userName = userName;
+    }
+
+    public String getRoleName() {
+        return roleName;
+    }
+
+    public void setRoleName(String roleName) {
+        this.roleName = roleName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Grant)) {
+            return false;
+        }
+        Grant grant = (Grant) o;
+        return Objects.equals(userName, grant.userName) && Objects.equals(roleName, grant.roleName);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(userName, roleName);
+    }
+}
@@ -0,0 +1,88 @@
+package org.hsbc.homework.entity;
+
+import java.util.Objects;
+
+/**
+ * an action allowed on the resources matched by a pattern
+ * <p>
+ * a resource is a list of segments separated by ':',e.g. "account:42:history".in a pattern a "*" segment matches any
+ * one segment,and a trailing "*" matches one or more segments,so "account:*" matches "account:42" and
+ * "account:42:history" but not "account".the action "*" allows every action
+ *
+ * @author BruceSu
+ */
+public class Permission {
+
+    public static final String ANY = "*";
+
+    private final String action;
+    private final String resource;
+
+    public Permission(String action, String resource) {
+        this.action = action;
+        this.resource = resource;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    /**
+     * @return the resource pattern
+     */
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * @return true if the action has no whitespace and the pattern has no empty segment
+     */
+    public boolean isValid() {
+        if (action == null || action.isEmpty() || resource == null || resource.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < action.length(); i++) {
+            if (Character.isWhitespace(action.charAt(i))) {
+                return false;
+            }
+        }
+        return !resource.startsWith(":") && !resource.endsWith(":") && !resource.contains("::");
+    }
+
+    /**
+     * @param value as {@link #toString()} returns
+     * @return the permission,or null if it isn't one
+     */
+    public static Permission parse(String value) {
+        int space = value == null ? -1 : value.indexOf(' ');
+        if (space < 0) {
+            return null;
+        }
+        return new Permission(value.substring(0, space), value.substring(space + 1));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Permission)) {
+            return false;
+        }
+        Permission permission = (Permission) o;
+        return Objects.equals(action, permission.action) && Objects.equals(resource, permission.resource);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(action, resource);
+    }
+
+    /**
+     * @return the action and the pattern separated by a space
+     */
+    @Override
+    public String toString() {
+        return action + " " + resource;
+    }
+}
@@ -1,5 +1,8 @@
 package org.hsbc.homework.entity;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Role entity
  *
@@ -8,6 +11,14 @@ package org.hsbc.homework.entity;
 public class Role {
 
     private String roleName;
+    /**
+     * dense id assigned by the service on creation,it's the bit index of the role in the user grants
+     */
+    private int id;
+    /**
+     * an immutable list,replaced as a whole by the service
+     */
+    private volatile List<Permission> permissions = Collections.emptyList();
 
     public String getRoleName() {
         return roleName;
@@ -16,4 +27,20 @@ public class Role {
     public void setRoleName(String roleName) {
         this.roleName = roleName;
     }
+
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    public List<Permission> getPermissions() {
+        return permissions;
+    }
+
+    public void setPermissions(List<Permission> permissions) {
+        this.permissions = permissions;
+    }
 }
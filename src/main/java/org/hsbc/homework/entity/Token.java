@@ -1,13 +1,22 @@
 package org.hsbc.homework.entity;
 
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
 /**
  * @author BruceSu
  */
 public class Token {
 
+    private static final AtomicLongFieldUpdater<Token> EXPIRE_TIME =
+        AtomicLongFieldUpdater.newUpdater(Token.class, "expireTime");
+
     private String token;
     private String userName;
     private long createTime;
+    /**
+     * moved forward by the sliding expiry while the token is shared
+     */
+    private volatile long expireTime;
 
     public String getToken() {
         return token;
@@ -32,4 +41,22 @@ public class Token {
     public void setCreateTime(long createTime) {
         this.createTime = createTime;
     }
+
+    public long getExpireTime() {
+        return expireTime;
+    }
+
+    public void setExpireTime(long expireTime) {
+        this.expireTime = expireTime;
+    }
+
+    /**
+     * move the expiry forward with an ordered write and no lock,a concurrent extension may win over this one,they are
+     * all about now plus the ttl
+     *
+     * @param expireTime
+     */
+    public void extendExpireTime(long expireTime) {
+        EXPIRE_TIME.lazySet(this, expireTime);
+    }
 }
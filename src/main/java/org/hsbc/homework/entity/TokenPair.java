@@ -0,0 +1,36 @@
+package org.hsbc.homework.entity;
+
+/**
+ * an access token and the refresh token that reissues it
+ *
+ * @author BruceSu
+ */
+public class TokenPair {
+
+    private String accessToken;
+    private String refreshToken;
+
+    public TokenPair() {
+    }
+
+    public TokenPair(String accessToken, String refreshToken) {
+        this.accessToken = accessToken;
+        this.refreshToken = refreshToken;
+    }
+
+    public String getAccessToken() {
+        return accessToken;
+    }
+
+    public void setAccessToken(String accessToken) {
+        this.accessToken = accessToken;
+    }
+
+    public String getRefreshToken() {
+        return refreshToken;
+    }
+
+    public void setRefreshToken(String refreshToken) {
+        this.refreshToken = refreshToken;
+    }
+}
@@ -8,7 +8,10 @@ package org.hsbc.homework.entity;
 public class User {
 
     private String userName;
-    private String pwd;
+    /**
+     * raw password hash,the first byte is the version of the hashing scheme
+     */
+    private byte[] pwdHash;
 
     public String getUserName() {
         return userName;
@@ -18,11 +21,11 @@ public class User {
         this.userName = userName;
     }
 
-    public String getPwd() {
-        return pwd;
+    public byte[] getPwdHash() {
+        return pwdHash;
     }
 
-    public void setPwd(String pwd) {
-        this.pwd = pwd;
+    public void setPwdHash(byte[] pwdHash) {
+        this.pwdHash = pwdHash;
     }
 }
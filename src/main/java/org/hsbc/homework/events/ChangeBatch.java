@@ -0,0 +1,43 @@
+package org.hsbc.homework.events;
+
+import java.util.List;
+
+/**
+ * the events read from a ChangeStream
+ *
+ * @author BruceSu
+ */
+public class ChangeBatch {
+
+    private final List<ChangeEvent> events;
+    private final long nextSequence;
+    private final boolean resyncNeeded;
+
+    public ChangeBatch(List<ChangeEvent> events, long nextSequence, boolean resyncNeeded) {
+        this.events = events;
+        this.nextSequence = nextSequence;
+        this.resyncNeeded = resyncNeeded;
+    }
+
+    /**
+     * @return the events in sequence order,empty while resyncNeeded
+     */
+    public List<ChangeEvent> getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the sequence to read from next time
+     */
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @return true if events were overwritten before they were read,everything derived from the service must be
+     * dropped and reloaded,then read on from nextSequence
+     */
+    public boolean isResyncNeeded() {
+        return resyncNeeded;
+    }
+}
@@ -0,0 +1,95 @@
+package org.hsbc.homework.events;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * one published change,the unused fields are null
+ *
+ * @author BruceSu
+ */
+public class ChangeEvent {
+
+    private final long sequence;
+    private final ChangeType type;
+    private final String userName;
+    private final String roleName;
+    /**
+     * the parent role name,the permission or the token hash,by the type
+     */
+    private final String value;
+
+    public ChangeEvent(long sequence, ChangeType type, String userName, String roleName, String value) {
+        this.sequence = sequence;
+        this.type = type;
+        this.userName = userName;
+        this.roleName = roleName;
+        this.value = value;
+    }
+
+    /**
+     * @return from 0,one more than the event before
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public ChangeType getType() {
+        return type;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public String getRoleName() {
+        return roleName;
+    }
+
+    /**
+     * @return the parent role name of an ADD_ROLE_PARENT event
+     */
+    public String getParentName() {
+        return value;
+    }
+
+    /**
+     * @return the permission of an ADD_PERMISSION event
+     */
+    public String getPermission() {
+        return value;
+    }
+
+    /**
+     * @return the {@link #hashToken(String)} of the token of a REVOKE_TOKEN event,null when all the access tokens of
+     * the user are revoked
+     */
+    public String getTokenHash() {
+        return value;
+    }
+
+    /**
+     * the stream is read by other parties,so a revoked token is published as its hash,a holder of the token compares
+     * the hashes
+     *
+     * @param token
+     * @return base64url of the SHA-256 of the token
+     */
+    public static String hashToken(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            //every jvm has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sequence + " " + type + " " + (userName != null ? userName : "-") + " "
+            + (roleName != null ? roleName : "-") + (value != null ? " " + value : "");
+    }
+}
@@ -0,0 +1,107 @@
+package org.hsbc.homework.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * the ordered stream of the changes of an AuthService,e.g. to drop the cached roles of a user.
+ * the last capacity events are kept in a ring,a publish claims the next sequence and stores the event in its slot
+ * without any lock or wait,so it's safe in the writer's critical section.
+ * the readers keep their own sequence and never hold up the writers,a reader that falls more than capacity events
+ * behind is told to resync instead
+ *
+ * @author BruceSu
+ */
+public class ChangeStream {
+
+    private final int mask;
+    private final AtomicReferenceArray<ChangeEvent> slots;
+    /**
+     * the sequence of the next event
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of 2
+     */
+    public ChangeStream(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * @param type
+     * @param userName
+     * @param roleName
+     * @param value the parent role name,the permission or the token hash,by the type
+     * @return the sequence of the event
+     */
+    public long publish(ChangeType type, String userName, String roleName, String value) {
+        long sequence = this.head.getAndIncrement();
+        ChangeEvent event = new ChangeEvent(sequence, type, userName, roleName, value);
+        int index = (int) (sequence & this.mask);
+        while (true) {
+            ChangeEvent current = this.slots.get(index);
+            //a whole lap of newer events got here first,this one is already overwritten
+            if (current != null && current.getSequence() > sequence) {
+                return sequence;
+            }
+            if (this.slots.compareAndSet(index, current, event)) {
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * @return the sequence of the next event,read from it to get only the changes from now on
+     */
+    public long getHeadSequence() {
+        return this.head.get();
+    }
+
+    public int getCapacity() {
+        return this.mask + 1;
+    }
+
+    /**
+     * read the events from the given sequence on,it stops before an event that's claimed but not stored yet
+     *
+     * @param from the nextSequence of the last batch,or {@link #getHeadSequence()} to start
+     * @param max the most events returned
+     * @return the events,or the resync signal if some of them are overwritten or the sequence isn't of this stream
+     */
+    public ChangeBatch read(long from, int max) {
+        long head = this.head.get();
+        if (from < 0 || from > head || head - from > this.mask + 1) {
+            return resync(head);
+        }
+        List<ChangeEvent> events = new ArrayList<>((int) Math.min(max, head - from));
+        long sequence = from;
+        while (sequence < head && events.size() < max) {
+            ChangeEvent event = this.slots.get((int) (sequence & this.mask));
+            if (event == null || event.getSequence() < sequence) {
+                break;
+            }
+            if (event.getSequence() > sequence) {
+                return resync(this.head.get());
+            }
+            events.add(event);
+            sequence++;
+        }
+        return new ChangeBatch(events, sequence, false);
+    }
+
+    private static ChangeBatch resync(long head) {
+        return new ChangeBatch(Collections.emptyList(), head, true);
+    }
+}
@@ -0,0 +1,42 @@
+package org.hsbc.homework.events;
+
+/**
+ * the changes published to the ChangeStream
+ *
+ * @author BruceSu
+ */
+public enum ChangeType {
+    /**
+     * userName
+     */
+    CREATE_USER,
+    /**
+     * userName,the user's tokens are no longer valid
+     */
+    DELETE_USER,
+    /**
+     * roleName
+     */
+    CREATE_ROLE,
+    /**
+     * roleName,the role is gone from every user and from its parents
+     */
+    DELETE_ROLE,
+    /**
+     * userName,roleName
+     */
+    ADD_ROLE_TO_USER,
+    /**
+     * roleName,parentName
+     */
+    ADD_ROLE_PARENT,
+    /**
+     * roleName,permission
+     */
+    ADD_PERMISSION,
+    /**
+     * the token hash,see {@link ChangeEvent#hashToken(String)},or the userName alone when all the access tokens of
+     * the user are revoked at once
+     */
+    REVOKE_TOKEN
+}
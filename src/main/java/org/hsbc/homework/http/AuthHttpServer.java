@@ -0,0 +1,294 @@
+package org.hsbc.homework.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.entity.TokenPair;
+import org.hsbc.homework.service.AuthService;
+import org.hsbc.homework.service.Result;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * the http api of an AuthService on the jdk's http server.
+ * every operation is a POST to /{operation name} with a flat json object of its parameters,e.g.
+ * POST /checkRole {"token":"...","roleName":"admin"},the answer is {"status":0,"retObj":true},
+ * the status is the return code of the service and the http status is 200 unless the request itself is wrong.
+ * the calls that change or list the users and the roles are admin calls,they need the admin token in the
+ * X-Admin-Token header and get a 403 without it.
+ * the connections are kept alive,the requests run on the given executor.
+ * an application embedding the server should start the jvm with -Dsun.net.httpserver.nodelay=true,it's jvm-wide so
+ * only {@link #main(String[])} sets it,see {@link #enableNoDelay()}
+ *
+ * @author BruceSu
+ */
+public class AuthHttpServer {
+
+    private static final Logger log = LogManager.getLogManager().getLogger("global");
+
+    /**
+     * the request bodies are a few names and a password,a bigger one is refused
+     */
+    private static final int MAX_BODY = 64 * 1024;
+
+    private final AuthService service;
+    private final HttpServer server;
+    /**
+     * the executor created here,shut down with the server
+     */
+    private final ExecutorService owned;
+    /**
+     * the admin token,null refuses all the admin calls
+     */
+    private final byte[] adminToken;
+    /**
+     * keyed on the full path
+     */
+    private final Map<String, Function<Map<String, String>, Object>> routes = new HashMap<>();
+    private final Set<String> adminPaths = new HashSet<>();
+
+    /**
+     * listen on http_host:http_port with a pool of http_threads threads,the admin calls need http_admin_token
+     *
+     * @param service
+     * @param properties
+     * @throws IOException if the port can't be bound
+     */
+    public AuthHttpServer(AuthService service, AuthProperties properties) throws IOException {
+        this(service, new InetSocketAddress(properties.getHttpHost(), properties.getHttpPort()),
+            Executors.newFixedThreadPool(properties.getHttpThreads(), httpThreads()), properties.getHttpAdminToken(),
+            true);
+    }
+
+    /**
+     * @param service
+     * @param address port 0 picks a free port,see {@link #getPort()}
+     * @param executor runs the requests,it isn't shut down by the server
+     * @param adminToken of the admin calls,null or empty refuses them
+     * @throws IOException if the port can't be bound
+     */
+    public AuthHttpServer(AuthService service, InetSocketAddress address, Executor executor, String adminToken)
+        throws IOException {
+        this(service, address, executor, adminToken, false);
+    }
+
+    private AuthHttpServer(AuthService service, InetSocketAddress address, Executor executor, String adminToken,
+        boolean owned) throws IOException {
+        this.service = service;
+        this.owned = owned ? (ExecutorService) executor : null;
+        this.adminToken = adminToken == null || adminToken.isEmpty() ? null
+            : adminToken.getBytes(StandardCharsets.UTF_8);
+        this.server = HttpServer.create(address, 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", this::handle);
+
+        this.admin("createUser", p -> service.createUser(p.get("userName"), p.get("pwd")));
+        this.admin("deleteUser", p -> service.deleteUser(p.get("userName")));
+        this.admin("createRole", p -> service.createRole(p.get("roleName")));
+        this.admin("deleteRole", p -> service.deleteRole(p.get("roleName")));
+        this.admin("addRoleToUser", p -> service.addRoleToUser(p.get("userName"), p.get("roleName")));
+        this.admin("addRoleParent", p -> service.addRoleParent(p.get("roleName"), p.get("parentName")));
+        this.admin("addPermissionToRole",
+            p -> service.addPermissionToRole(p.get("roleName"), p.get("action"), p.get("resource")));
+        this.admin("invalidateAllForUser", p -> service.invalidateAllForUser(p.get("userName")));
+        this.admin("getUsersInRole", p -> service.getUsersInRole(p.get("roleName")));
+        this.admin("countUsersInRole", p -> service.countUsersInRole(p.get("roleName")));
+        this.route("authenticate", p -> service.authenticate(p.get("userName"), p.get("pwd")));
+        this.route("authenticateWithRefresh",
+            p -> service.authenticateWithRefresh(p.get("userName"), p.get("pwd")));
+        this.route("refresh", p -> service.refresh(p.get("refreshToken")));
+        this.route("invalidate", p -> {
+            service.invalidate(p.get("token"));
+            return AuthService.SUCCESS;
+        });
+        this.route("checkRole", p -> service.checkRole(p.get("token"), p.get("roleName")));
+        this.route("checkPermission",
+            p -> service.checkPermission(p.get("token"), p.get("action"), p.get("resource")));
+        this.route("getAllRoles", p -> service.getAllRoles(p.get("token")));
+    }
+
+    private void route(String operation, Function<Map<String, String>, Object> route) {
+        this.routes.put("/" + operation, route);
+    }
+
+    private void admin(String operation, Function<Map<String, String>, Object> route) {
+        this.route(operation, route);
+        this.adminPaths.add("/" + operation);
+    }
+
+    /**
+     * compared in constant time,so the answer time tells nothing of the token
+     */
+    private boolean isAdmin(HttpExchange exchange) {
+        String token = exchange.getRequestHeaders().getFirst("X-Admin-Token");
+        return this.adminToken != null && token != null
+            && MessageDigest.isEqual(this.adminToken, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ThreadFactory httpThreads() {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, "auth-http-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * stop accepting,the exchanges in flight get up to the given delay to finish
+     *
+     * @param delaySeconds
+     */
+    public void stop(int delaySeconds) {
+        this.server.stop(delaySeconds);
+        if (this.owned != null) {
+            this.owned.shutdown();
+        }
+    }
+
+    /**
+     * @return the bound port
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    public AuthService getService() {
+        return service;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getPath();
+            Function<Map<String, String>, Object> route = this.routes.get(path);
+            byte[] body = readBody(exchange.getRequestBody());
+            if (route == null) {
+                this.respond(exchange, 404, AuthService.PARAMS_ERROR, null);
+            } else if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                this.respond(exchange, 405, AuthService.PARAMS_ERROR, null);
+            } else if (this.adminPaths.contains(path) && !this.isAdmin(exchange)) {
+                this.respond(exchange, 403, AuthService.PARAMS_ERROR, null);
+            } else if (body == null) {
+                this.respond(exchange, 413, AuthService.PARAMS_ERROR, null);
+            } else {
+                Map<String, String> params;
+                try {
+                    params = body.length == 0 ? new HashMap<>()
+                        : Json.parseObject(new String(body, StandardCharsets.UTF_8));
+                } catch (IllegalArgumentException e) {
+                    this.respond(exchange, 400, AuthService.PARAMS_ERROR, null);
+                    return;
+                }
+                Object ret = route.apply(params);
+                if (ret instanceof Result) {
+                    Result<?> result = (Result<?>) ret;
+                    this.respond(exchange, 200, result.getStatus(), toJsonValue(result.getRetObj()));
+                } else {
+                    this.respond(exchange, 200, (Integer) ret, null);
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("uri=%s", exchange.getRequestURI()), e);
+            this.respond(exchange, 500, AuthService.INNER_ERROR, null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static Object toJsonValue(Object retObj) {
+        if (retObj instanceof TokenPair) {
+            TokenPair pair = (TokenPair) retObj;
+            Map<String, String> ret = new LinkedHashMap<>();
+            ret.put("accessToken", pair.getAccessToken());
+            ret.put("refreshToken", pair.getRefreshToken());
+            return ret;
+        }
+        return retObj;
+    }
+
+    /**
+     * read the whole body,so the connection can take the next request
+     *
+     * @return null if it's longer than MAX_BODY
+     */
+    private static byte[] readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        boolean tooLong = false;
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if (out.size() + n > MAX_BODY) {
+                tooLong = true;
+            } else {
+                out.write(buffer, 0, n);
+            }
+        }
+        return tooLong ? null : out.toByteArray();
+    }
+
+    private void respond(HttpExchange exchange, int httpStatus, int status, Object retObj) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("{\"status\":").append(status);
+        if (retObj != null) {
+            sb.append(",\"retObj\":");
+            Json.write(sb, retObj);
+        }
+        sb.append('}');
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        //a fixed length keeps the connection alive
+        exchange.sendResponseHeaders(httpStatus, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * turn nagle off on the connections of the jdk http servers created after this call,unless it's set already.
+     * the headers and the body of a response are two writes,with nagle on the body waits for the delayed ack of the
+     * headers,about 40ms on every keep-alive request
+     */
+    static void enableNoDelay() {
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    /**
+     * serve the singleton AuthService on http_port until the process is killed
+     *
+     * @param args none
+     * @throws IOException if the port can't be bound
+     */
+    public static void main(String[] args) throws IOException {
+        enableNoDelay();
+        AuthHttpServer server = new AuthHttpServer(AuthService.getInstance(), AuthProperties.getInstance());
+        server.start();
+        log.info(String.format("auth http server listening on %s:%d", AuthProperties.getInstance().getHttpHost(),
+            server.getPort()));
+    }
+}
@@ -0,0 +1,199 @@
+package org.hsbc.homework.http;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * the little json the http api needs,a flat object of the request parameters in and the result out
+ *
+ * @author BruceSu
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * parse a flat object,the string,number,boolean and null values are all kept as strings
+     *
+     * @param text
+     * @return key=name, value=the value,null for a json null
+     * @throws IllegalArgumentException if it isn't a flat json object
+     */
+    static Map<String, String> parseObject(String text) {
+        Map<String, String> ret = new HashMap<>();
+        int[] pos = {skipSpaces(text, 0)};
+        expect(text, pos, '{');
+        if (peek(text, pos) == '}') {
+            pos[0]++;
+        } else {
+            while (true) {
+                String key = parseString(text, pos);
+                expect(text, pos, ':');
+                ret.put(key, parseValue(text, pos));
+                char c = peek(text, pos);
+                pos[0]++;
+                if (c == '}') {
+                    break;
+                }
+                if (c != ',') {
+                    throw new IllegalArgumentException("expect , or } at " + (pos[0] - 1));
+                }
+            }
+        }
+        if (skipSpaces(text, pos[0]) != text.length()) {
+            throw new IllegalArgumentException("trailing chars at " + pos[0]);
+        }
+        return ret;
+    }
+
+    private static String parseValue(String text, int[] pos) {
+        char c = peek(text, pos);
+        if (c == '"') {
+            return parseString(text, pos);
+        }
+        int start = pos[0];
+        while (pos[0] < text.length() && ",} \t\r\n".indexOf(text.charAt(pos[0])) < 0) {
+            pos[0]++;
+        }
+        String literal = text.substring(start, pos[0]);
+        if ("null".equals(literal)) {
+            return null;
+        }
+        if (literal.isEmpty() || !("true".equals(literal) || "false".equals(literal)
+            || literal.matches("-?[0-9]+(\\.[0-9]+)?([eE][+-]?[0-9]+)?"))) {
+            throw new IllegalArgumentException("bad value at " + start);
+        }
+        return literal;
+    }
+
+    private static String parseString(String text, int[] pos) {
+        expect(text, pos, '"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (pos[0] >= text.length()) {
+                throw new IllegalArgumentException("unterminated string");
+            }
+            char c = text.charAt(pos[0]++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos[0] >= text.length()) {
+                throw new IllegalArgumentException("unterminated string");
+            }
+            char e = text.charAt(pos[0]++);
+            switch (e) {
+                case 'b':
+                    sb.append('\b');
+                    break;
+                case 'f':
+                    sb.append('\f');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    if (pos[0] + 4 > text.length()) {
+                        throw new IllegalArgumentException("bad escape at " + pos[0]);
+                    }
+                    try {
+                        sb.append((char) Integer.parseInt(text.substring(pos[0], pos[0] + 4), 16));
+                    } catch (NumberFormatException ex) {
+                        throw new IllegalArgumentException("bad escape at " + pos[0]);
+                    }
+                    pos[0] += 4;
+                    break;
+                default:
+                    sb.append(e);
+            }
+        }
+    }
+
+    private static void expect(String text, int[] pos, char c) {
+        if (peek(text, pos) != c) {
+            throw new IllegalArgumentException("expect " + c + " at " + pos[0]);
+        }
+        pos[0]++;
+    }
+
+    /**
+     * skip the spaces and return the next char,0 at the end
+     */
+    private static char peek(String text, int[] pos) {
+        pos[0] = skipSpaces(text, pos[0]);
+        return pos[0] < text.length() ? text.charAt(pos[0]) : 0;
+    }
+
+    private static int skipSpaces(String text, int pos) {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * write a value,the beans are written by the caller as maps
+     *
+     * @param sb
+     * @param value null,a string,number,boolean,collection or map
+     */
+    static void write(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof Collection) {
+            sb.append('[');
+            boolean first = true;
+            for (Object item : (Collection<?>) value) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                write(sb, item);
+            }
+            sb.append(']');
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                writeString(sb, String.valueOf(entry.getKey()));
+                sb.append(':');
+                write(sb, entry.getValue());
+            }
+            sb.append('}');
+        } else {
+            writeString(sb, value.toString());
+        }
+    }
+
+    private static void writeString(StringBuilder sb, String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,214 @@
+package org.hsbc.homework.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.metrics.LatencyHistogram;
+import org.hsbc.homework.service.AuthService;
+
+/**
+ * a load generator of the http api,it prints the throughput and the p50/p99/p999 latencies of one operation.
+ * without --url it starts a local AuthHttpServer on a free port.
+ * <pre>
+ * java -cp target/classes org.hsbc.homework.http.LoadGenerator --op checkRole --threads 16 --seconds 10
+ * </pre>
+ * options:--url of a running server,--admin-token of that server for the seeding,
+ * --op checkRole|getAllRoles|authenticate|mixed,--threads,--seconds,--warmup seconds,--users seeded before the run
+ *
+ * @author BruceSu
+ */
+public class LoadGenerator {
+
+    private static final String PWD = "load-pwd";
+    private static final String ROLE = "load-role";
+
+    private final String url;
+    private final String adminToken;
+    private final String op;
+    private final String[] userNames;
+    private final String[] tokens;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final LongAdder ops = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    LoadGenerator(String url, String adminToken, String op, int users) {
+        this.url = url.endsWith("/") ? url : url + "/";
+        this.adminToken = adminToken;
+        this.op = op;
+        this.userNames = new String[users];
+        this.tokens = new String[users];
+    }
+
+    /**
+     * create the users,one role granted to all of them,and a token of every user
+     */
+    void seed() throws IOException {
+        this.post("createRole", "{\"roleName\":\"" + ROLE + "\"}", this.adminToken);
+        for (int i = 0; i < this.userNames.length; i++) {
+            this.userNames[i] = "load-user-" + i;
+            this.post("createUser", "{\"userName\":\"" + this.userNames[i] + "\",\"pwd\":\"" + PWD + "\"}",
+                this.adminToken);
+            this.post("addRoleToUser",
+                "{\"userName\":\"" + this.userNames[i] + "\",\"roleName\":\"" + ROLE + "\"}", this.adminToken);
+            String ret = this.post("authenticate",
+                "{\"userName\":\"" + this.userNames[i] + "\",\"pwd\":\"" + PWD + "\"}");
+            this.tokens[i] = Json.parseObject(ret).get("retObj");
+        }
+    }
+
+    /**
+     * run the threads for the warmup and then the measured seconds
+     *
+     * @return the report of the measured seconds
+     */
+    String run(int threads, int warmupSeconds, int seconds) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long warmupEnd = System.nanoTime() + warmupSeconds * 1_000_000_000L;
+        long end = warmupEnd + seconds * 1_000_000_000L;
+        for (int i = 0; i < threads; i++) {
+            pool.execute(() -> {
+                while (true) {
+                    long start = System.nanoTime();
+                    if (start >= end) {
+                        return;
+                    }
+                    boolean ok = this.call();
+                    if (start >= warmupEnd) {
+                        this.histogram.record(System.nanoTime() - start);
+                        this.ops.increment();
+                        if (!ok) {
+                            this.errors.increment();
+                        }
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+            Thread.yield();
+        }
+        long count = this.ops.sum();
+        return String.format("op=%s threads=%d seconds=%d requests=%d errors=%d throughput=%.0f/s "
+                + "p50=%dus p99=%dus p999=%dus", this.op, threads, seconds, count, this.errors.sum(),
+            count / (double) seconds, this.histogram.valueAt(0.5) / 1000, this.histogram.valueAt(0.99) / 1000,
+            this.histogram.valueAt(0.999) / 1000);
+    }
+
+    private boolean call() {
+        int i = ThreadLocalRandom.current().nextInt(this.tokens.length);
+        String op = this.op;
+        if ("mixed".equals(op)) {
+            int dice = ThreadLocalRandom.current().nextInt(100);
+            op = dice < 90 ? "checkRole" : dice < 99 ? "getAllRoles" : "authenticate";
+        }
+        try {
+            String ret;
+            switch (op) {
+                case "checkRole":
+                    ret = this.post(op, "{\"token\":\"" + this.tokens[i] + "\",\"roleName\":\"" + ROLE + "\"}");
+                    break;
+                case "getAllRoles":
+                    ret = this.post(op, "{\"token\":\"" + this.tokens[i] + "\"}");
+                    break;
+                case "authenticate":
+                    ret = this.post(op, "{\"userName\":\"" + this.userNames[i] + "\",\"pwd\":\"" + PWD + "\"}");
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown op " + op);
+            }
+            return ret.startsWith("{\"status\":0");
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * one request,the whole response is read so the jdk keeps the connection alive for the next one
+     */
+    String post(String operation, String json) throws IOException {
+        return this.post(operation, json, null);
+    }
+
+    private String post(String operation, String json, String adminToken) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(this.url + operation).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setRequestProperty("Content-Type", "application/json");
+        if (adminToken != null) {
+            conn.setRequestProperty("X-Admin-Token", adminToken);
+        }
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        conn.setFixedLengthStreamingMode(body.length);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body);
+        }
+        InputStream in = conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream();
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        if (in != null) {
+            try (InputStream stream = in) {
+                byte[] buffer = new byte[1024];
+                int n;
+                while ((n = stream.read(buffer)) > 0) {
+                    ret.write(buffer, 0, n);
+                }
+            }
+        }
+        return new String(ret.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws Exception {
+        AuthHttpServer.enableNoDelay();
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads", "8"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        int users = Integer.parseInt(options.getOrDefault("users", "1000"));
+        String op = options.getOrDefault("op", "checkRole");
+
+        AuthHttpServer server = null;
+        String url = options.get("url");
+        String adminToken = options.get("admin-token");
+        if (url == null) {
+            AuthProperties properties = AuthProperties.getInstance();
+            adminToken = UUID.randomUUID().toString();
+            server = new AuthHttpServer(AuthService.getInstance(), new InetSocketAddress("127.0.0.1", 0),
+                Executors.newFixedThreadPool(properties.getHttpThreads()), adminToken);
+            server.start();
+            url = "http://127.0.0.1:" + server.getPort() + "/";
+        }
+        //the default of 5 idle connections per host would reopen connections under more threads
+        System.setProperty("http.maxConnections", String.valueOf(Math.max(5, threads)));
+        try {
+            LoadGenerator generator = new LoadGenerator(url, adminToken, op, users);
+            generator.seed();
+            System.out.println(generator.run(threads, warmup, seconds));
+        } finally {
+            if (server != null) {
+                server.stop(0);
+                server.getService().shutdown();
+                System.exit(0);
+            }
+        }
+    }
+}
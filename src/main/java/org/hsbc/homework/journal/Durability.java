@@ -0,0 +1,21 @@
+package org.hsbc.homework.journal;
+
+/**
+ * when a journaled mutation returns to its caller
+ *
+ * @author BruceSu
+ */
+public enum Durability {
+    /**
+     * after its record is forced to disk,concurrent mutations share one force
+     */
+    PER_OP,
+    /**
+     * after the next periodic force,every journal_batch_millis
+     */
+    BATCHED,
+    /**
+     * at once,the records are forced periodically in the background and may be lost on a crash
+     */
+    ASYNC
+}
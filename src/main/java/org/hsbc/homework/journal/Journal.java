@@ -0,0 +1,463 @@
+package org.hsbc.homework.journal;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * an append-only file of {@link JournalRecord}s with group commit
+ * <p>
+ * a record is [int body length][body][int crc32 of body],the body is [byte type][userName][roleName][pwdHash]
+ * [value],each field an int length,-1 for null,and the bytes.a record missing a field is corrupt like a torn one.
+ * appending only writes to the channel,{@link #sync()} then waits until the records of the calling thread are
+ * durable as the {@link Durability} says.a single force covers every record written before it,so concurrent writers
+ * share the forces
+ * <p>
+ * the positions are logical,the file starts with [int magic][long base],base is the position of its first record.
+ * {@link #compact(long)} drops the records a snapshot already contains and moves the base forward
+ *
+ * @author BruceSu
+ */
+public class Journal implements Closeable {
+
+    private static final int MAGIC = 0x414a524e;
+    private static final int HEADER = 12;
+
+    private static Logger log = LogManager.getLogManager().getLogger("global");
+
+    private final Path path;
+    private FileChannel channel;
+    /**
+     * the position of the first record in the file
+     */
+    private long base;
+    private final Durability durability;
+    private final long batchMillis;
+    /**
+     * guards the channel writes,the buffer,the crc and the compaction
+     */
+    private final Object appendLock = new Object();
+    /**
+     * guards the forces,waited on for BATCHED
+     */
+    private final Object syncLock = new Object();
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+    private final CRC32 crc = new CRC32();
+    private volatile long writtenPosition;
+    private volatile long durablePosition;
+    /**
+     * the end position of the last record appended by the thread
+     */
+    private final ThreadLocal<long[]> appended = ThreadLocal.withInitial(() -> new long[1]);
+    private final Thread flusher;
+    private volatile boolean closed;
+    private volatile IOException flushError;
+
+    private final AtomicLong appendCount = new AtomicLong();
+    private final AtomicLong forceCount = new AtomicLong();
+
+    private Journal(Path path, FileChannel channel, long base, long position, Durability durability,
+        long batchMillis) {
+        this.path = path;
+        this.channel = channel;
+        this.base = base;
+        this.writtenPosition = position;
+        this.durablePosition = position;
+        this.durability = durability;
+        this.batchMillis = Math.max(1, batchMillis);
+        if (durability == Durability.PER_OP) {
+            this.flusher = null;
+        } else {
+            this.flusher = new Thread(this::flushLoop, "auth-journal-flusher");
+            this.flusher.setDaemon(true);
+            this.flusher.start();
+        }
+    }
+
+    /**
+     * open or create the journal,the existing records are replayed first.a torn record at the tail,left by a crash,
+     * is cut off
+     *
+     * @param path
+     * @param durability
+     * @param batchMillis the force interval of BATCHED and ASYNC
+     * @param from the position to replay from,the records before it are skipped
+     * @param replayer receives the existing records in order
+     * @return the journal positioned at its end
+     * @throws IOException
+     */
+    public static Journal open(Path path, Durability durability, long batchMillis, long from,
+        Consumer<JournalRecord> replayer) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        try {
+            long base;
+            if (channel.size() < HEADER) {
+                //new,or torn while it was created
+                base = from;
+                channel.truncate(0);
+                writeHeader(channel, base);
+                channel.force(true);
+            } else {
+                base = readHeader(channel, path);
+                if (base > from) {
+                    throw new IOException(String.format("journal %s starts at %d after %d", path, base, from));
+                }
+            }
+            long end = replay(channel, base, from, replayer);
+            if (end < channel.size()) {
+                log.log(Level.WARNING, String.format("journal %s: cut the torn tail at %d of %d", path, end,
+                    channel.size()));
+                channel.truncate(end);
+                channel.force(true);
+            }
+            if (base + end - HEADER < from) {
+                //the snapshot is newer than the whole journal,restart it there so the new records aren't skipped
+                log.log(Level.WARNING, String.format("journal %s ends at %d before %d", path, base + end - HEADER,
+                    from));
+                base = from;
+                end = HEADER;
+                channel.truncate(0);
+                writeHeader(channel, base);
+                channel.force(true);
+            }
+            channel.position(end);
+            return new Journal(path, channel, base, base + end - HEADER, durability, batchMillis);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * write the record,it's not durable until {@link #sync()}
+     *
+     * @param record
+     * @throws IOException
+     */
+    public void append(JournalRecord record) throws IOException {
+        synchronized (this.appendLock) {
+            if (this.closed) {
+                throw new IOException("journal closed");
+            }
+            ByteBuffer buffer = encode(record);
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.writtenPosition = this.base + this.channel.position() - HEADER;
+            this.appended.get()[0] = this.writtenPosition;
+        }
+        this.appendCount.incrementAndGet();
+    }
+
+    /**
+     * wait until the records appended by the calling thread are durable as the durability says
+     *
+     * @throws IOException
+     */
+    public void sync() throws IOException {
+        long[] appended = this.appended.get();
+        long position = appended[0];
+        if (position == 0 || position <= this.durablePosition) {
+            return;
+        }
+        switch (this.durability) {
+            case PER_OP:
+                synchronized (this.syncLock) {
+                    //the leader's force covered this record while we waited
+                    if (position > this.durablePosition) {
+                        force();
+                    }
+                }
+                break;
+            case BATCHED:
+                synchronized (this.syncLock) {
+                    while (position > this.durablePosition && !this.closed && this.flushError == null) {
+                        try {
+                            this.syncLock.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new IOException("interrupted while waiting for the journal force", e);
+                        }
+                    }
+                }
+                if (position > this.durablePosition) {
+                    throw this.flushError != null ? this.flushError : new IOException("journal closed");
+                }
+                break;
+            default:
+                break;
+        }
+        appended[0] = 0;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @return records appended since opened
+     */
+    public long getAppendCount() {
+        return appendCount.get();
+    }
+
+    /**
+     * @return forces to disk since opened
+     */
+    public long getForceCount() {
+        return forceCount.get();
+    }
+
+    /**
+     * @return the end position of the last appended record
+     */
+    public long getPosition() {
+        return writtenPosition;
+    }
+
+    /**
+     * drop the records before the position,they're in a durable snapshot.the remaining records are copied to a new
+     * file which replaces the journal,the appends wait meanwhile
+     *
+     * @param position a record boundary,normally {@link #getPosition()} when the snapshot was taken
+     * @throws IOException
+     */
+    public void compact(long position) throws IOException {
+        synchronized (this.appendLock) {
+            if (this.closed) {
+                throw new IOException("journal closed");
+            }
+            if (position <= this.base) {
+                return;
+            }
+            synchronized (this.syncLock) {
+                force();
+            }
+            long from = position - this.base + HEADER;
+            Path tmp = Paths.get(this.path + ".tmp");
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                writeHeader(out, position);
+                long count = this.channel.size() - from;
+                for (long copied = 0; copied < count; ) {
+                    copied += this.channel.transferTo(from + copied, count - copied, out);
+                }
+                out.force(true);
+            }
+            Files.move(tmp, this.path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+            this.channel.close();
+            this.channel = channel;
+            this.base = position;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this.appendLock) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+        }
+        if (this.flusher != null) {
+            //not interrupted,an interrupt in a force would close the channel
+            synchronized (this.syncLock) {
+                this.syncLock.notifyAll();
+            }
+            try {
+                this.flusher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            synchronized (this.syncLock) {
+                force();
+                this.syncLock.notifyAll();
+            }
+        } finally {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * force everything written so far,the caller holds the syncLock
+     */
+    private void force() throws IOException {
+        long target = this.writtenPosition;
+        if (target <= this.durablePosition) {
+            return;
+        }
+        //nothing is appended during a compaction,so the swapped channel is never forced here
+        this.channel.force(false);
+        this.durablePosition = target;
+        this.forceCount.incrementAndGet();
+    }
+
+    private void flushLoop() {
+        synchronized (this.syncLock) {
+            while (!this.closed) {
+                try {
+                    this.syncLock.wait(this.batchMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    force();
+                } catch (IOException e) {
+                    log.log(Level.SEVERE, "journal force error", e);
+                    this.flushError = e;
+                }
+                this.syncLock.notifyAll();
+            }
+        }
+    }
+
+    private ByteBuffer encode(JournalRecord record) {
+        byte[] userName = bytes(record.getUserName());
+        byte[] roleName = bytes(record.getRoleName());
+        byte[] pwdHash = record.getPwdHash();
+        byte[] value = bytes(record.getValue());
+        int bodyLength = 1 + length(userName) + length(roleName) + length(pwdHash) + length(value);
+        if (this.buffer.capacity() < bodyLength + 8) {
+            this.buffer = ByteBuffer.allocate(Math.max(bodyLength + 8, this.buffer.capacity() * 2));
+        }
+        ByteBuffer buffer = this.buffer;
+        buffer.clear();
+        buffer.putInt(bodyLength);
+        buffer.put((byte) record.getType().ordinal());
+        putBytes(buffer, userName);
+        putBytes(buffer, roleName);
+        putBytes(buffer, pwdHash);
+        putBytes(buffer, value);
+        this.crc.reset();
+        this.crc.update(buffer.array(), 4, bodyLength);
+        buffer.putInt((int) this.crc.getValue());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeHeader(FileChannel channel, long base) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putLong(base).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+    }
+
+    private static long readHeader(FileChannel channel, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException(String.format("%s isn't a journal", path));
+        }
+        return header.getLong();
+    }
+
+    /**
+     * @return the file position after the last intact record
+     */
+    private static long replay(FileChannel channel, long base, long from, Consumer<JournalRecord> replayer)
+        throws IOException {
+        channel.position(HEADER);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        RecordType[] types = RecordType.values();
+        CRC32 crc = new CRC32();
+        long position = HEADER;
+        long size = channel.size();
+        while (position + 8 <= size) {
+            try {
+                int bodyLength = in.readInt();
+                if (bodyLength <= 0 || position + 8 + bodyLength > size) {
+                    break;
+                }
+                byte[] body = new byte[bodyLength];
+                in.readFully(body);
+                int expected = in.readInt();
+                crc.reset();
+                crc.update(body, 0, bodyLength);
+                if ((int) crc.getValue() != expected) {
+                    break;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(body);
+                int type = buffer.get();
+                if (type < 0 || type >= types.length) {
+                    break;
+                }
+                byte[] userName = getBytes(buffer);
+                byte[] roleName = getBytes(buffer);
+                byte[] pwdHash = getBytes(buffer);
+                byte[] value = getBytes(buffer);
+                if (base + position - HEADER >= from) {
+                    replayer.accept(new JournalRecord(types[type], string(userName), string(roleName), pwdHash,
+                        string(value)));
+                }
+                position += 8 + bodyLength;
+            } catch (EOFException | BufferUnderflowException e) {
+                //torn,or a field is missing
+                break;
+            }
+        }
+        return position;
+    }
+
+    private static byte[] bytes(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return value == null ? null : new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return 4 + (value == null ? 0 : value.length);
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] value) {
+        if (value == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] value = new byte[length];
+        buffer.get(value);
+        return value;
+    }
+}
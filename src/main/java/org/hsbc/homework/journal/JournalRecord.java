@@ -0,0 +1,97 @@
+package org.hsbc.homework.journal;
+
+/**
+ * one mutation of the journal,the unused fields are null
+ *
+ * @author BruceSu
+ */
+public class JournalRecord {
+
+    private final RecordType type;
+    private final String userName;
+    private final String roleName;
+    private final byte[] pwdHash;
+    /**
+     * the parent role name or the permission,by the type
+     */
+    private final String value;
+
+    public JournalRecord(RecordType type, String userName, String roleName, byte[] pwdHash) {
+        this(type, userName, roleName, pwdHash, null);
+    }
+
+    public JournalRecord(RecordType type, String userName, String roleName, byte[] pwdHash, String value) {
+        this.type = type;
+        this.userName = userName;
+        this.roleName = roleName;
+        this.pwdHash = pwdHash;
+        this.value = value;
+    }
+
+    public static JournalRecord user(RecordType type, String userName, byte[] pwdHash) {
+        return new JournalRecord(type, userName, null, pwdHash);
+    }
+
+    public static JournalRecord role(RecordType type, String roleName) {
+        return new JournalRecord(type, null, roleName, null);
+    }
+
+    public static JournalRecord grant(String userName, String roleName) {
+        return new JournalRecord(RecordType.ADD_ROLE_TO_USER, userName, roleName, null);
+    }
+
+    /**
+     * @param roleName
+     * @param parentName
+     * @return an ADD_ROLE_PARENT record
+     */
+    public static JournalRecord roleParent(String roleName, String parentName) {
+        return new JournalRecord(RecordType.ADD_ROLE_PARENT, null, roleName, null, parentName);
+    }
+
+    /**
+     * @param roleName
+     * @param permission as {@link org.hsbc.homework.entity.Permission#toString()} returns
+     * @return an ADD_PERMISSION record
+     */
+    public static JournalRecord permission(String roleName, String permission) {
+        return new JournalRecord(RecordType.ADD_PERMISSION, null, roleName, null, permission);
+    }
+
+    public RecordType getType() {
+        return type;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public String getRoleName() {
+        return roleName;
+    }
+
+    /**
+     * @return the parent role name of an ADD_ROLE_PARENT record
+     */
+    public String getParentName() {
+        return type == RecordType.ADD_ROLE_PARENT ? value : null;
+    }
+
+    /**
+     * @return the permission of an ADD_PERMISSION record
+     */
+    public String getPermission() {
+        return type == RecordType.ADD_PERMISSION ? value : null;
+    }
+
+    /**
+     * @return the parent role name or the permission,null for the other types
+     */
+    public String getValue() {
+        return value;
+    }
+
+    public byte[] getPwdHash() {
+        return pwdHash;
+    }
+}
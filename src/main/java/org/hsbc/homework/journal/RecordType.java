@@ -0,0 +1,41 @@
+package org.hsbc.homework.journal;
+
+/**
+ * the mutations kept in the journal
+ *
+ * @author BruceSu
+ */
+public enum RecordType {
+    /**
+     * userName,pwdHash
+     */
+    CREATE_USER,
+    /**
+     * userName
+     */
+    DELETE_USER,
+    /**
+     * roleName
+     */
+    CREATE_ROLE,
+    /**
+     * roleName
+     */
+    DELETE_ROLE,
+    /**
+     * userName,roleName
+     */
+    ADD_ROLE_TO_USER,
+    /**
+     * userName,pwdHash,a hash upgraded at login
+     */
+    UPDATE_PASSWORD,
+    /**
+     * roleName,the parent role name in the value field
+     */
+    ADD_ROLE_PARENT,
+    /**
+     * roleName,the permission in the value field
+     */
+    ADD_PERMISSION
+}
@@ -0,0 +1,314 @@
+package org.hsbc.homework.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * counters,latency histograms,lock wait times and gauges of a service
+ * <p>
+ * recording is lock free.every call is counted but only one in metrics_latency_sampling calls reads the clock,since
+ * System.nanoTime alone costs tens of nanoseconds on many hosts,the lock waits are timed on every acquisition.while
+ * disabled every method returns at once.the MXBean getters compute only the values they return
+ *
+ * @author BruceSu
+ */
+public class AuthMetrics implements AuthMetricsMXBean {
+
+    private static Logger log = LogManager.getLogManager().getLogger("global");
+
+    private static final int OPERATIONS = Operation.values().length;
+    private static final int LOCKS = MeteredLock.values().length;
+    /**
+     * the error codes start from 10000,see AuthService
+     */
+    private static final int ERROR_CODE_BASE = 10000;
+    private static final int ERROR_CODE_SLOTS = 64;
+
+    private final boolean enabled;
+    /**
+     * sampling - 1,the sampling is a power of two
+     */
+    private final int sampleMask;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[OPERATIONS];
+    private final LongAdder[] counts = new LongAdder[OPERATIONS];
+    private final LongAdder[] totalNanos = new LongAdder[OPERATIONS];
+    private final AtomicLongArray maxNanos = new AtomicLongArray(OPERATIONS);
+    private final LongAdder[] lockWaitNanos = new LongAdder[LOCKS];
+    private final LongAdder[] lockAcquisitions = new LongAdder[LOCKS];
+    /**
+     * index 0 is success,index i is the code 10000+i-1
+     */
+    private final LongAdder[] codeCounts = new LongAdder[ERROR_CODE_SLOTS + 1];
+    /**
+     * key=result code out of the range of codeCounts
+     */
+    private final ConcurrentHashMap<Integer, LongAdder> otherCodes = new ConcurrentHashMap<>();
+    /**
+     * key=gauge name
+     */
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private volatile ObjectName objectName;
+
+    /**
+     * @param enabled
+     * @param latencySampling time one in this many calls,rounded up to a power of two,1 times every call
+     */
+    public AuthMetrics(boolean enabled, int latencySampling) {
+        this.enabled = enabled;
+        int sampling = 1;
+        while (sampling < latencySampling) {
+            sampling <<= 1;
+        }
+        this.sampleMask = sampling - 1;
+        for (int i = 0; i < OPERATIONS; i++) {
+            this.histograms[i] = new LatencyHistogram();
+            this.counts[i] = new LongAdder();
+            this.totalNanos[i] = new LongAdder();
+        }
+        for (int i = 0; i < LOCKS; i++) {
+            this.lockWaitNanos[i] = new LongAdder();
+            this.lockAcquisitions[i] = new LongAdder();
+        }
+        for (int i = 0; i < this.codeCounts.length; i++) {
+            this.codeCounts[i] = new LongAdder();
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the start time to pass to {@link #record(Operation, long, int)},0 while disabled or the call isn't
+     * sampled
+     */
+    public long start() {
+        if (!this.enabled || (this.sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & this.sampleMask) != 0)) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * @param operation
+     * @param start as {@link #start()} returns
+     * @param code the result code of the call
+     */
+    public void record(Operation operation, long start, int code) {
+        if (!this.enabled) {
+            return;
+        }
+        int i = operation.ordinal();
+        this.counts[i].increment();
+        if (start != 0) {
+            long nanos = System.nanoTime() - start;
+            this.totalNanos[i].add(nanos);
+            this.histograms[i].record(nanos);
+            long max;
+            while (nanos > (max = this.maxNanos.get(i)) && !this.maxNanos.compareAndSet(i, max, nanos)) {
+                //retry
+            }
+        }
+        int slot = code == 0 ? 0 : code - ERROR_CODE_BASE + 1;
+        if (slot >= 0 && slot < this.codeCounts.length) {
+            this.codeCounts[slot].increment();
+        } else {
+            this.otherCodes.computeIfAbsent(code, k -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * acquire the lock,the wait time is recorded while enabled
+     *
+     * @param lock
+     * @param meteredLock
+     */
+    public void lock(Lock lock, MeteredLock meteredLock) {
+        if (!this.enabled) {
+            lock.lock();
+            return;
+        }
+        int i = meteredLock.ordinal();
+        this.lockAcquisitions[i].increment();
+        //not tryLock first,a nonfair read lock would barge past the queued writers
+        long start = System.nanoTime();
+        lock.lock();
+        this.lockWaitNanos[i].add(System.nanoTime() - start);
+    }
+
+    /**
+     * @param name
+     * @param gauge read on every snapshot
+     */
+    public void registerGauge(String name, LongSupplier gauge) {
+        this.gauges.put(name, gauge);
+    }
+
+    public MetricsSnapshot snapshot() {
+        Map<Operation, OperationStats> operations = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            int i = operation.ordinal();
+            long[] counts = this.histograms[i].counts();
+            long total = total(counts);
+            operations.put(operation, new OperationStats(this.counts[i].sum(),
+                total == 0 ? 0 : this.totalNanos[i].sum() / total,
+                LatencyHistogram.valueAt(counts, total, 0.5), LatencyHistogram.valueAt(counts, total, 0.99),
+                LatencyHistogram.valueAt(counts, total, 0.999), this.maxNanos.get(i)));
+        }
+        Map<MeteredLock, Long> waits = new EnumMap<>(MeteredLock.class);
+        Map<MeteredLock, Long> acquisitions = new EnumMap<>(MeteredLock.class);
+        for (MeteredLock lock : MeteredLock.values()) {
+            waits.put(lock, this.lockWaitNanos[lock.ordinal()].sum());
+            acquisitions.put(lock, this.lockAcquisitions[lock.ordinal()].sum());
+        }
+        return new MetricsSnapshot(operations, waits, acquisitions, this.resultCodes(), this.gaugeValues());
+    }
+
+    /**
+     * register this as an MXBean named org.hsbc.homework:type=AuthMetrics,name=?
+     *
+     * @param name
+     */
+    public void registerMBean(String name) {
+        try {
+            ObjectName objectName = new ObjectName(
+                "org.hsbc.homework:type=AuthMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("register AuthMetrics MBean error,name=%s", name), e);
+        }
+    }
+
+    public void unregisterMBean() {
+        ObjectName objectName = this.objectName;
+        if (objectName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            this.objectName = null;
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("unregister AuthMetrics MBean error,name=%s", objectName), e);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getOperationCounts() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            values.put(operation.name(), this.counts[operation.ordinal()].sum());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP50Nanos() {
+        return percentiles(0.5);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP99Nanos() {
+        return percentiles(0.99);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP999Nanos() {
+        return percentiles(0.999);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMaxNanos() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            values.put(operation.name(), this.maxNanos.get(operation.ordinal()));
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getLockWaitNanos() {
+        return lockValues(this.lockWaitNanos);
+    }
+
+    @Override
+    public Map<String, Long> getLockAcquisitions() {
+        return lockValues(this.lockAcquisitions);
+    }
+
+    @Override
+    public Map<String, Long> getResultCodes() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        this.resultCodes().forEach((code, count) -> values.put(String.valueOf(code), count));
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        return this.gaugeValues();
+    }
+
+    private Map<String, Long> percentiles(double percentile) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Operation operation : Operation.values()) {
+            long[] counts = this.histograms[operation.ordinal()].counts();
+            values.put(operation.name(), LatencyHistogram.valueAt(counts, total(counts), percentile));
+        }
+        return values;
+    }
+
+    private static Map<String, Long> lockValues(LongAdder[] adders) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (MeteredLock lock : MeteredLock.values()) {
+            values.put(lock.name(), adders[lock.ordinal()].sum());
+        }
+        return values;
+    }
+
+    /**
+     * @return key=result code, value=its count,the codes never returned are left out
+     */
+    private Map<Integer, Long> resultCodes() {
+        Map<Integer, Long> codes = new TreeMap<>();
+        for (int i = 0; i < this.codeCounts.length; i++) {
+            long count = this.codeCounts[i].sum();
+            if (count > 0) {
+                codes.put(i == 0 ? 0 : ERROR_CODE_BASE + i - 1, count);
+            }
+        }
+        this.otherCodes.forEach((code, count) -> codes.put(code, count.sum()));
+        return codes;
+    }
+
+    private Map<String, Long> gaugeValues() {
+        Map<String, Long> values = new TreeMap<>();
+        this.gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    private static long total(long[] counts) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,31 @@
+package org.hsbc.homework.metrics;
+
+import java.util.Map;
+
+/**
+ * the JMX view of {@link AuthMetrics},keys are the enum names and latencies are in nanoseconds
+ *
+ * @author BruceSu
+ */
+public interface AuthMetricsMXBean {
+
+    boolean isEnabled();
+
+    Map<String, Long> getOperationCounts();
+
+    Map<String, Long> getLatencyP50Nanos();
+
+    Map<String, Long> getLatencyP99Nanos();
+
+    Map<String, Long> getLatencyP999Nanos();
+
+    Map<String, Long> getLatencyMaxNanos();
+
+    Map<String, Long> getLockWaitNanos();
+
+    Map<String, Long> getLockAcquisitions();
+
+    Map<String, Long> getResultCodes();
+
+    Map<String, Long> getGauges();
+}
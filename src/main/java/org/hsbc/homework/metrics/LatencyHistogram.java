@@ -0,0 +1,89 @@
+package org.hsbc.homework.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * a lock-free histogram of nanosecond latencies
+ * <p>
+ * every power of two is split into 8 linear sub buckets,so a recorded value is off by at most 12.5%
+ *
+ * @author BruceSu
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_COUNT);
+
+    /**
+     * @param nanos a latency,negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        this.buckets.incrementAndGet(indexOf(Math.max(0, nanos)));
+    }
+
+    /**
+     * @param quantile in (0,1]
+     * @return the upper bound of the bucket holding the quantile,0 if nothing recorded
+     */
+    public long valueAt(double quantile) {
+        long[] counts = this.counts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        return valueAt(counts, total, quantile);
+    }
+
+    /**
+     * @return the recorded counts of every bucket,index by {@link #lowerBound(int)}
+     */
+    long[] counts() {
+        long[] counts = new long[this.buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.buckets.get(i);
+        }
+        return counts;
+    }
+
+    /**
+     * @param counts as {@link #counts()} returns
+     * @param total the sum of the counts
+     * @param quantile in (0,1]
+     * @return the upper bound of the bucket holding the quantile,0 if nothing recorded
+     */
+    static long valueAt(long[] counts, long total, double quantile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return i + 1 < counts.length ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return ((exponent - SUB_BITS + 1) << SUB_BITS) | sub;
+    }
+
+    static long lowerBound(int index) {
+        int group = index >>> SUB_BITS;
+        int sub = index & (SUB_COUNT - 1);
+        if (group == 0) {
+            return sub;
+        }
+        int exponent = group + SUB_BITS - 1;
+        return (1L << exponent) | ((long) sub << (exponent - SUB_BITS));
+    }
+}
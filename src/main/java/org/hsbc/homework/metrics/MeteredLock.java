@@ -0,0 +1,17 @@
+package org.hsbc.homework.metrics;
+
+/**
+ * the locks whose wait time is metered
+ *
+ * @author BruceSu
+ */
+public enum MeteredLock {
+    /**
+     * the global role lock
+     */
+    ROLE_LOCK,
+    /**
+     * the stripes of the per-user locks
+     */
+    USER_LOCK
+}
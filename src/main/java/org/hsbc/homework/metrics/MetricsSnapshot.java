@@ -0,0 +1,58 @@
+package org.hsbc.homework.metrics;
+
+import java.util.Map;
+
+/**
+ * a point-in-time view of all the metrics of a service
+ *
+ * @author BruceSu
+ */
+public class MetricsSnapshot {
+
+    private final Map<Operation, OperationStats> operations;
+    /**
+     * key=lock, value=total nanoseconds spent waiting for it
+     */
+    private final Map<MeteredLock, Long> lockWaitNanos;
+    /**
+     * key=lock, value=acquisition count
+     */
+    private final Map<MeteredLock, Long> lockAcquisitions;
+    /**
+     * key=result code, value=count
+     */
+    private final Map<Integer, Long> resultCodes;
+    /**
+     * key=gauge name, value=current value
+     */
+    private final Map<String, Long> gauges;
+
+    MetricsSnapshot(Map<Operation, OperationStats> operations, Map<MeteredLock, Long> lockWaitNanos,
+        Map<MeteredLock, Long> lockAcquisitions, Map<Integer, Long> resultCodes, Map<String, Long> gauges) {
+        this.operations = operations;
+        this.lockWaitNanos = lockWaitNanos;
+        this.lockAcquisitions = lockAcquisitions;
+        this.resultCodes = resultCodes;
+        this.gauges = gauges;
+    }
+
+    public Map<Operation, OperationStats> getOperations() {
+        return operations;
+    }
+
+    public Map<MeteredLock, Long> getLockWaitNanos() {
+        return lockWaitNanos;
+    }
+
+    public Map<MeteredLock, Long> getLockAcquisitions() {
+        return lockAcquisitions;
+    }
+
+    public Map<Integer, Long> getResultCodes() {
+        return resultCodes;
+    }
+
+    public Map<String, Long> getGauges() {
+        return gauges;
+    }
+}
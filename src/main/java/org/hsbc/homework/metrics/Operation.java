@@ -0,0 +1,30 @@
+package org.hsbc.homework.metrics;
+
+/**
+ * the metered operations of the AuthService
+ *
+ * @author BruceSu
+ */
+public enum Operation {
+    CREATE_USER,
+    CREATE_USERS,
+    DELETE_USER,
+    CREATE_ROLE,
+    DELETE_ROLE,
+    ADD_ROLE_TO_USER,
+    ADD_ROLES_TO_USERS,
+    ADD_ROLE_PARENT,
+    ADD_PERMISSION_TO_ROLE,
+    AUTHENTICATE,
+    AUTHENTICATE_WITH_REFRESH,
+    REFRESH,
+    INVALIDATE,
+    INVALIDATE_ALL_FOR_USER,
+    CHECK_ROLE,
+    CHECK_ROLES,
+    CHECK_PERMISSION,
+    GET_ALL_ROLES,
+    GET_USERS_IN_ROLE,
+    COUNT_USERS_IN_ROLE,
+    WRITE_SNAPSHOT
+}
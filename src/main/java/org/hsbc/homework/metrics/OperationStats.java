@@ -0,0 +1,55 @@
+package org.hsbc.homework.metrics;
+
+/**
+ * a point-in-time view of the calls of one operation,latencies are in nanoseconds and estimated from the sampled calls
+ *
+ * @author BruceSu
+ */
+public class OperationStats {
+
+    private final long count;
+    private final long meanNanos;
+    private final long p50Nanos;
+    private final long p99Nanos;
+    private final long p999Nanos;
+    private final long maxNanos;
+
+    OperationStats(long count, long meanNanos, long p50Nanos, long p99Nanos, long p999Nanos, long maxNanos) {
+        this.count = count;
+        this.meanNanos = meanNanos;
+        this.p50Nanos = p50Nanos;
+        this.p99Nanos = p99Nanos;
+        this.p999Nanos = p999Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMeanNanos() {
+        return meanNanos;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getP999Nanos() {
+        return p999Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OperationStats{count=%d, meanNanos=%d, p50=%d, p99=%d, p999=%d, max=%d}",
+            count, meanNanos, p50Nanos, p99Nanos, p999Nanos, maxNanos);
+    }
+}
@@ -0,0 +1,312 @@
+package org.hsbc.homework.service;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.entity.Grant;
+import org.hsbc.homework.entity.TokenPair;
+
+/**
+ * the non-blocking facade of an AuthService,every call returns at once and completes its future on an executor,
+ * so the caller's thread never waits on a lock.
+ * createUser,createUsers,authenticate and authenticateWithRefresh hash a password,they run on a bounded pool of
+ * their own so a burst of logins can't starve the checks,a call over the queue of that pool fails at once with
+ * INNER_ERROR.the rejected calls are counted in the asyncRejections gauge of the service metrics
+ *
+ * @author BruceSu
+ */
+public class AsyncAuthService {
+
+    private final AuthService service;
+    private final Executor executor;
+    private final Executor hashExecutor;
+    /**
+     * the executors created here,shut down with this facade
+     */
+    private final ExecutorService[] owned;
+    private final LongAdder rejections = new LongAdder();
+
+    /**
+     * create the executors by async_executor,async_threads,async_hash_threads and async_hash_queue
+     *
+     * @param service
+     * @param properties
+     */
+    public AsyncAuthService(AuthService service, AuthProperties properties) {
+        ExecutorService calls = null;
+        if (AuthProperties.ASYNC_EXECUTOR_VIRTUAL.equals(properties.getAsyncExecutor())) {
+            calls = virtualThreadExecutor();
+        }
+        if (calls == null) {
+            calls = Executors.newFixedThreadPool(properties.getAsyncThreads(), daemonThreads("auth-async"));
+        }
+        ExecutorService hashes = new ThreadPoolExecutor(properties.getAsyncHashThreads(),
+            properties.getAsyncHashThreads(), 0L, TimeUnit.MILLISECONDS,
+            properties.getAsyncHashQueue() > 0 ? new ArrayBlockingQueue<>(properties.getAsyncHashQueue())
+                : new LinkedBlockingQueue<>(), daemonThreads("auth-hash"));
+        this.service = service;
+        this.executor = calls;
+        this.hashExecutor = hashes;
+        this.owned = new ExecutorService[]{calls, hashes};
+        service.getMetrics().registerGauge("asyncRejections", this.rejections::sum);
+    }
+
+    /**
+     * run on the given executors,they aren't shut down by this facade
+     *
+     * @param service
+     * @param executor the executor of all the calls but the password hashing ones
+     * @param hashExecutor the executor of the password hashing calls,bound it so they can't pile up
+     */
+    public AsyncAuthService(AuthService service, Executor executor, Executor hashExecutor) {
+        this.service = service;
+        this.executor = executor;
+        this.hashExecutor = hashExecutor;
+        this.owned = new ExecutorService[0];
+        service.getMetrics().registerGauge("asyncRejections", this.rejections::sum);
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor of jdk 21+,looked up by reflection so it still runs on jdk 8
+     *
+     * @return null if the jdk has no virtual threads
+     */
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * a rejection is an expected overload,it's only counted,a log per call would add to the overload
+     */
+    private <T> CompletableFuture<T> submitOrElseGet(Executor executor, Supplier<T> call, Supplier<T> rejected) {
+        try {
+            return CompletableFuture.supplyAsync(call, executor);
+        } catch (RejectedExecutionException e) {
+            this.rejections.increment();
+            return CompletableFuture.completedFuture(rejected.get());
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(Executor executor, Supplier<T> call, T rejected) {
+        return this.submitOrElseGet(executor, call, () -> rejected);
+    }
+
+    private CompletableFuture<Integer> submit(Executor executor, Supplier<Integer> call) {
+        return this.submit(executor, call, AuthService.INNER_ERROR);
+    }
+
+    public AuthService getService() {
+        return service;
+    }
+
+    /**
+     * @return the calls rejected by a full executor
+     */
+    public long getRejectedCount() {
+        return rejections.sum();
+    }
+
+    /**
+     * @see AuthService#createUser(String, String)
+     */
+    public CompletableFuture<Integer> createUser(String userName, String originalPwd) {
+        return this.submit(this.hashExecutor, () -> this.service.createUser(userName, originalPwd));
+    }
+
+    /**
+     * @return every user gets INNER_ERROR if the hash pool is full
+     * @see AuthService#createUsers(Map)
+     */
+    public CompletableFuture<Map<String, Integer>> createUsers(Map<String, String> users) {
+        return this.submitOrElseGet(this.hashExecutor, () -> this.service.createUsers(users), () -> {
+            Map<String, Integer> codes = new LinkedHashMap<>();
+            if (users != null) {
+                users.keySet().forEach(userName -> codes.put(userName, AuthService.INNER_ERROR));
+            }
+            return codes;
+        });
+    }
+
+    /**
+     * @see AuthService#deleteUser(String)
+     */
+    public CompletableFuture<Integer> deleteUser(String userName) {
+        return this.submit(this.executor, () -> this.service.deleteUser(userName));
+    }
+
+    /**
+     * @see AuthService#createRole(String)
+     */
+    public CompletableFuture<Integer> createRole(String roleName) {
+        return this.submit(this.executor, () -> this.service.createRole(roleName));
+    }
+
+    /**
+     * @see AuthService#deleteRole(String)
+     */
+    public CompletableFuture<Integer> deleteRole(String roleName) {
+        return this.submit(this.executor, () -> this.service.deleteRole(roleName));
+    }
+
+    /**
+     * @see AuthService#addRoleParent(String, String)
+     */
+    public CompletableFuture<Integer> addRoleParent(String roleName, String parentName) {
+        return this.submit(this.executor, () -> this.service.addRoleParent(roleName, parentName));
+    }
+
+    /**
+     * @see AuthService#addPermissionToRole(String, String, String)
+     */
+    public CompletableFuture<Integer> addPermissionToRole(String roleName, String action, String resource) {
+        return this.submit(this.executor, () -> this.service.addPermissionToRole(roleName, action, resource));
+    }
+
+    /**
+     * @see AuthService#addRoleToUser(String, String)
+     */
+    public CompletableFuture<Integer> addRoleToUser(String userName, String roleName) {
+        return this.submit(this.executor, () -> this.service.addRoleToUser(userName, roleName));
+    }
+
+    /**
+     * @return every grant gets INNER_ERROR if the executor is full
+     * @see AuthService#addRolesToUsers(Collection)
+     */
+    public CompletableFuture<List<Integer>> addRolesToUsers(Collection<Grant> grants) {
+        return this.submitOrElseGet(this.executor, () -> this.service.addRolesToUsers(grants),
+            () -> grants == null ? new ArrayList<>() : new ArrayList<>(
+                Collections.nCopies(grants.size(), AuthService.INNER_ERROR)));
+    }
+
+    /**
+     * @see AuthService#authenticate(String, String)
+     */
+    public CompletableFuture<Result<String>> authenticate(String userName, String pwd) {
+        return this.submit(this.hashExecutor, () -> this.service.authenticate(userName, pwd),
+            Result.fail(AuthService.INNER_ERROR));
+    }
+
+    /**
+     * @see AuthService#authenticateWithRefresh(String, String)
+     */
+    public CompletableFuture<Result<TokenPair>> authenticateWithRefresh(String userName, String pwd) {
+        return this.submit(this.hashExecutor, () -> this.service.authenticateWithRefresh(userName, pwd),
+            Result.fail(AuthService.INNER_ERROR));
+    }
+
+    /**
+     * @see AuthService#refresh(String)
+     */
+    public CompletableFuture<Result<TokenPair>> refresh(String refreshToken) {
+        return this.submit(this.executor, () -> this.service.refresh(refreshToken),
+            Result.fail(AuthService.INNER_ERROR));
+    }
+
+    /**
+     * @see AuthService#invalidate(String)
+     */
+    public CompletableFuture<Void> invalidate(String token) {
+        return this.submit(this.executor, () -> {
+            this.service.invalidate(token);
+            return null;
+        }, null);
+    }
+
+    /**
+     * @see AuthService#invalidateAllForUser(String)
+     */
+    public CompletableFuture<Integer> invalidateAllForUser(String userName) {
+        return this.submit(this.executor, () -> this.service.invalidateAllForUser(userName));
+    }
+
+    /**
+     * @see AuthService#checkRole(String, String)
+     */
+    public CompletableFuture<Result<Boolean>> checkRole(String token, String roleName) {
+        return this.submit(this.executor, () -> this.service.checkRole(token, roleName),
+            Result.fail(AuthService.INNER_ERROR));
+    }
+
+    /**
+     * @see AuthService#checkRoles(String, Collection)
+     */
+    public CompletableFuture<Result<Map<String, Boolean>>> checkRoles(String token, Collection<String> roleNames) {
+        return this.submit(this.executor, () -> this.service.checkRoles(token, roleNames),
+            Result.fail(AuthService.INNER_ERROR));
+    }
+
+    /**
+     * @see AuthService#checkPermission(String, String, String)
+     */
+    public CompletableFuture<Result<Boolean>> checkPermission(String token, String action, String resource) {
+        return this.submit(this.executor, () -> this.service.checkPermission(token, action, resource),
+            Result.fail(AuthService.INNER_ERROR));
+    }
+
+    /**
+     * @see AuthService#getAllRoles(String)
+     */
+    public CompletableFuture<Result<Set<String>>> getAllRoles(String token) {
+        return this.submit(this.executor, () -> this.service.getAllRoles(token), Result.fail(AuthService.INNER_ERROR));
+    }
+
+    /**
+     * @see AuthService#getUsersInRole(String)
+     */
+    public CompletableFuture<Result<Set<String>>> getUsersInRole(String roleName) {
+        return this.submit(this.executor, () -> this.service.getUsersInRole(roleName),
+            Result.fail(AuthService.INNER_ERROR));
+    }
+
+    /**
+     * @see AuthService#countUsersInRole(String)
+     */
+    public CompletableFuture<Result<Integer>> countUsersInRole(String roleName) {
+        return this.submit(this.executor, () -> this.service.countUsersInRole(roleName),
+            Result.fail(AuthService.INNER_ERROR));
+    }
+
+    /**
+     * stop the executors created by this facade,the calls already submitted still complete.
+     * the AuthService isn't shut down
+     */
+    public void shutdown() {
+        for (ExecutorService executorService : this.owned) {
+            executorService.shutdown();
+        }
+    }
+}
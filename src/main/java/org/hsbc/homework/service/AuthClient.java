@@ -0,0 +1,242 @@
+package org.hsbc.homework.service;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.hsbc.homework.config.AuthProperties;
+
+/**
+ * an in-process client of an AuthService with a near-cache of the checkRole answers,for the callers that repeat
+ * the same checks.
+ * the answers of a token are kept with the change version of its user they were got at,a hit costs a map lookup
+ * and two volatile reads of the version,a change of the role graph makes them all stale,a change of the user's grants
+ * or tokens only the answers of the users sharing its version.
+ * at most size tokens are kept,the one to drop is chosen by the clock algorithm,a token that got a hit since the
+ * hand last passed it is skipped once
+ *
+ * @author BruceSu
+ */
+public class AuthClient {
+
+    /**
+     * the role answers kept per token,a token is re-cached from empty when full
+     */
+    private static final int ROLES_PER_TOKEN = 64;
+
+    private final AuthService service;
+    /**
+     * key=token
+     */
+    private final ConcurrentHashMap<String, Answers> tokens = new ConcurrentHashMap<>();
+    /**
+     * the clock ring of the cached tokens,guarded by itself
+     */
+    private final Answers[] ring;
+    private int hand;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static final class Answers {
+        private final String token;
+        private final String userName;
+        private final long version;
+        private final long validUntil;
+        /**
+         * the answered roles,copied on write.a scan of the hashes beats a map per token,only a role name of the
+         * same hash is compared
+         */
+        private volatile Roles roles = Roles.EMPTY;
+        /**
+         * set by a hit,cleared by the clock hand
+         */
+        private volatile boolean referenced;
+        private int slot = -1;
+
+        private Answers(String token, CheckStamp stamp) {
+            this.token = token;
+            this.userName = stamp.userName;
+            this.version = stamp.version;
+            this.validUntil = stamp.validUntil;
+        }
+
+        /**
+         * @return the shared result of the answer,null if the role isn't answered
+         */
+        private Result<Boolean> get(String roleName) {
+            Roles roles = this.roles;
+            int hash = roleName.hashCode();
+            for (int i = 0; i < roles.hashes.length; i++) {
+                if (roles.hashes[i] == hash && roles.names[i].equals(roleName)) {
+                    return Result.success(roles.belongs[i]);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return false if it's full
+         */
+        private synchronized boolean put(String roleName, boolean belongs) {
+            Roles roles = this.roles;
+            int n = roles.hashes.length;
+            if (n >= ROLES_PER_TOKEN) {
+                return false;
+            }
+            Roles copy = new Roles(Arrays.copyOf(roles.hashes, n + 1), Arrays.copyOf(roles.names, n + 1),
+                Arrays.copyOf(roles.belongs, n + 1));
+            copy.hashes[n] = roleName.hashCode();
+            copy.names[n] = roleName;
+            copy.belongs[n] = belongs;
+            this.roles = copy;
+            return true;
+        }
+    }
+
+    private static final class Roles {
+        private static final Roles EMPTY = new Roles(new int[0], new String[0], new boolean[0]);
+
+        private final int[] hashes;
+        private final String[] names;
+        private final boolean[] belongs;
+
+        private Roles(int[] hashes, String[] names, boolean[] belongs) {
+            this.hashes = hashes;
+            this.names = names;
+            this.belongs = belongs;
+        }
+    }
+
+    /**
+     * @param service
+     * @param size the tokens kept,0 disables the cache
+     */
+    public AuthClient(AuthService service, int size) {
+        this.service = service;
+        this.ring = new Answers[Math.max(0, size)];
+        service.getMetrics().registerGauge("nearCacheHits", this.hits::sum);
+        service.getMetrics().registerGauge("nearCacheMisses", this.misses::sum);
+    }
+
+    /**
+     * keep near_cache_size tokens
+     *
+     * @param service
+     * @param properties
+     */
+    public AuthClient(AuthService service, AuthProperties properties) {
+        this(service, properties.getNearCacheSize());
+    }
+
+    public AuthService getService() {
+        return service;
+    }
+
+    /**
+     * as {@link AuthService#checkRole(String, String)},the answer may come from the cache
+     *
+     * @param token
+     * @param roleName
+     * @return returns true if the user identified by the token,belongs to the roleName, otherwise returns false
+     */
+    public Result<Boolean> checkRole(String token, String roleName) {
+        if (token == null || roleName == null || this.ring.length == 0) {
+            return this.service.checkRole(token, roleName);
+        }
+        Answers answers = this.tokens.get(token);
+        if (answers != null && answers.version == this.service.getChangeVersion(answers.userName)
+            && System.currentTimeMillis() <= answers.validUntil) {
+            Result<Boolean> cached = answers.get(roleName);
+            if (cached != null) {
+                if (!answers.referenced) {
+                    answers.referenced = true;
+                }
+                this.hits.increment();
+                return cached;
+            }
+        }
+        this.misses.increment();
+
+        //the version is read by the check,a change made meanwhile bumps it past
+        CheckStamp stamp = new CheckStamp();
+        Result<Boolean> ret = this.service.checkRole(token, roleName, stamp);
+        if (ret.isOk()
+            && (answers == null || answers.version != stamp.version || !answers.put(roleName, ret.getRetObj()))) {
+            answers = new Answers(token, stamp);
+            answers.put(roleName, ret.getRetObj());
+            this.insert(answers);
+        }
+        return ret;
+    }
+
+    private void insert(Answers answers) {
+        synchronized (this.ring) {
+            Answers old = this.tokens.get(answers.token);
+            int slot;
+            if (old != null && old.slot >= 0) {
+                slot = old.slot;
+            } else {
+                //the stale or dropped answers go first,then the ones without a hit since the hand last passed
+                while (true) {
+                    Answers candidate = this.ring[this.hand];
+                    if (candidate == null || !candidate.referenced || this.tokens.get(candidate.token) != candidate
+                        || candidate.version != this.service.getChangeVersion(candidate.userName)) {
+                        break;
+                    }
+                    candidate.referenced = false;
+                    this.hand = (this.hand + 1) % this.ring.length;
+                }
+                slot = this.hand;
+                this.hand = (this.hand + 1) % this.ring.length;
+                Answers evicted = this.ring[slot];
+                if (evicted != null) {
+                    this.tokens.remove(evicted.token, evicted);
+                }
+            }
+            answers.slot = slot;
+            this.ring[slot] = answers;
+            this.tokens.put(answers.token, answers);
+        }
+    }
+
+    /**
+     * as {@link AuthService#invalidate(String)},the cached answers of the token are dropped
+     *
+     * @param token
+     */
+    public void invalidate(String token) {
+        this.service.invalidate(token);
+        if (token != null) {
+            this.tokens.remove(token);
+        }
+    }
+
+    /**
+     * @return the checks answered from the cache
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * @return the checks sent to the service
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return hits / (hits + misses),0 before any check
+     */
+    public double getHitRate() {
+        long hits = this.hits.sum();
+        long total = hits + this.misses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return the tokens cached
+     */
+    public int size() {
+        return this.tokens.size();
+    }
+}
@@ -1,23 +1,48 @@
 package org.hsbc.homework.service;
 
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
-import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.entity.Grant;
+import org.hsbc.homework.entity.Permission;
 import org.hsbc.homework.entity.Role;
 import org.hsbc.homework.entity.Token;
+import org.hsbc.homework.entity.TokenPair;
 import org.hsbc.homework.entity.User;
-import com.sun.org.apache.xerces.internal.impl.dv.util.Base64;
+import org.hsbc.homework.events.ChangeEvent;
+import org.hsbc.homework.events.ChangeStream;
+import org.hsbc.homework.events.ChangeType;
+import org.hsbc.homework.journal.Durability;
+import org.hsbc.homework.journal.Journal;
+import org.hsbc.homework.journal.JournalRecord;
+import org.hsbc.homework.journal.RecordType;
+import org.hsbc.homework.metrics.AuthMetrics;
+import org.hsbc.homework.metrics.MeteredLock;
+import org.hsbc.homework.metrics.Operation;
 
 /**
  * the service that controls user creation/deletion,role creation/deletion, and authentication ,etc
@@ -66,6 +91,14 @@ public class AuthService {
      * expired token
      */
     public static final int TOKEN_EXPIRED = 10008;
+    /**
+     * the role would include itself
+     */
+    public static final int ROLE_CYCLE = 10009;
+    /**
+     * too many login attempts,retry later
+     */
+    public static final int LOGIN_THROTTLED = 10010;
 
     private static Logger log = LogManager.getLogManager().getLogger("global");
 
@@ -73,40 +106,465 @@ public class AuthService {
      * key=userName
      */
     private ConcurrentHashMap<String, User> userMap = new ConcurrentHashMap<>();
-    /**
-     * user data sync controller
-     */
-    private ReentrantReadWriteLock userLock = new ReentrantReadWriteLock();
     /**
      * key=roleName
      */
     private ConcurrentHashMap<String, Role> roleMap = new ConcurrentHashMap<>();
+    /**
+     * index=role id,copy on write under the roleLock write lock
+     */
+    private volatile Role[] roleTable = new Role[0];
+    /**
+     * the allocated role ids,the lowest free id is reused first to keep the grants compact
+     */
+    private BitSet roleIds = new BitSet();
+    /**
+     * index=role id,value=the ids of the roles it includes directly,null if none.
+     * copy on write under the roleLock write lock
+     */
+    private volatile RoleGrants[] roleChildren = new RoleGrants[0];
+    /**
+     * index=role id,value=the ids of the roles it includes directly or indirectly and itself,null if it includes none.
+     * copy on write under the roleLock write lock,the implied bits of the grants are unions of them
+     */
+    private volatile RoleGrants[] roleClosures = new RoleGrants[0];
+    /**
+     * index=role id,value=the compiled permissions of the role,null if it has none.
+     * copy on write under the roleLock write lock
+     */
+    private volatile PermissionTrie[] roleMatchers = new PermissionTrie[0];
+    /**
+     * odd while the permissions,the hierarchy or the role ids are being changed under the roleLock write lock,
+     * a permission check made across a change is retried
+     */
+    private volatile long permissionEpoch;
+    /**
+     * see decision_cache_size,null while disabled
+     */
+    private final DecisionCache decisions;
     /**
      * role data sync controller
      */
     private ReentrantReadWriteLock roleLock = new ReentrantReadWriteLock();
     /**
-     * key=userName
+     * key=userName, value=an immutable bitset of the user's role ids.
+     * writers replace the whole snapshot while holding the locks, readers never lock
+     */
+    private ConcurrentHashMap<String, RoleGrants> authMap = new ConcurrentHashMap<>();
+    /**
+     * key=roleName, value=the users granted the role,the reverse of authMap.
+     * a member is added or removed under its stripe write lock,the entry is created and removed under the roleLock
+     * write lock
+     */
+    private ConcurrentHashMap<String, Set<String>> roleMembers = new ConcurrentHashMap<>();
+    /**
+     * user and auth data sync controller,striped by userName.
+     * lock order: roleLock first,then the stripes in ascending index order
+     */
+    private final StripedLock userLocks;
+    /**
+     * the issued tokens,depends on the token_mode
+     */
+    private final TokenStore tokenStore;
+    /**
+     * the refresh tokens,null while refresh_token_expire_seconds is 0
+     */
+    private final MapTokenStore refreshTokens;
+    /**
+     * the access tokens of every user,null while max_sessions_per_user is 0.
+     * it keeps every live token string on the heap,so a limit gives up the stateless signed tokens and the heap free
+     * offheap tokens
+     */
+    private final SessionIndex sessions;
+    /**
+     * key=userName, value=the time millis all the access tokens of the user were revoked at,the ones created at or
+     * before it are invalid.only while there is no session index,one entry per revoked user instead of per token
+     */
+    private final ConcurrentHashMap<String, Long> sessionCutoffs = new ConcurrentHashMap<>();
+    private final long tokenExpireMillis;
+    /**
+     * the refresh tokens of every user,null while refresh_token_expire_seconds is 0
+     */
+    private final SessionIndex refreshSessions;
+    /**
+     * the admission of the logins,null while neither login_user_rate_per_minute nor login_global_rate_per_second
+     * is set
+     */
+    private final LoginThrottle loginThrottle;
+    /**
+     * the published changes,null while change_stream_size is 0
+     */
+    private final ChangeStream changes;
+    /**
+     * bumped after every change of the role graph,a role answer of any user may change with it
+     */
+    private final AtomicLong changeVersion = new AtomicLong();
+    /**
+     * index=the user lock stripe,bumped after a change of the grants,the tokens or the existence of a user of the
+     * stripe,see {@link #getChangeVersion(String)}
+     */
+    private final AtomicLongArray userVersions;
+    /**
+     * the journal syncs that failed,their changes were already visible,under per_op they were answered INNER_ERROR
+     */
+    private final AtomicLong journalSyncErrors = new AtomicLong();
+    /**
+     * a check moves the token expiry
+     */
+    private final boolean slidingExpiry;
+    /**
+     * hashes the new passwords,see password_hasher
+     */
+    private final PasswordHasher passwordHasher;
+    /**
+     * see metrics_enabled
+     */
+    private final AuthMetrics metrics;
+    /**
+     * the write-ahead journal of the users,roles and grants,null while journal_path is empty.
+     * a record is appended inside the critical section before the change is applied,and synced after the locks are
+     * released so that concurrent writers share the disk forces
+     */
+    private final Journal journal;
+    /**
+     * see snapshot_path,null while disabled
+     */
+    private final Path snapshotPath;
+    /**
+     * one snapshot at a time
+     */
+    private final Object snapshotLock = new Object();
+    /**
+     * the periodic snapshot,null while snapshot_interval_seconds is 0
+     */
+    private final ScheduledExecutorService snapshotExecutor;
+    /**
+     * sweeps the expired tokens out of the session indexes
      */
-    private ConcurrentHashMap<String, Set<String>> authMap = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sessionSweeper;
     /**
-     * key=token string
+     * notified of the local changes,null if none
      */
-    private ConcurrentHashMap<String, Token> tokenMap = new ConcurrentHashMap<>();
+    private final MutationListener listener;
+
     /**
-     * auth data sync controller
+     * the reused token of the lookups,it never leaves the calling method
      */
-    private ReentrantReadWriteLock authLock = new ReentrantReadWriteLock();
+    private static final ThreadLocal<Token> lookups = ThreadLocal.withInitial(Token::new);
 
-    private static AuthService instance = new AuthService();
+    private static AuthService instance = new AuthService(AuthProperties.getInstance());
+
+    /**
+     * create a standalone service,normally use {@link #getInstance()} instead
+     *
+     * @param properties the config of this service
+     */
+    public AuthService(AuthProperties properties) {
+        this(properties, null);
+    }
 
-    private AuthService() {
+    /**
+     * create a standalone service whose local changes are sent to the listener,the replayed journal isn't sent
+     *
+     * @param properties the config of this service
+     * @param listener may be null
+     */
+    public AuthService(AuthProperties properties, MutationListener listener) {
+        this.listener = listener;
+        this.metrics = new AuthMetrics(properties.isMetricsEnabled(), properties.getMetricsLatencySampling());
+        this.userLocks = new StripedLock(properties.getLockStripes(), this.metrics);
+        this.userVersions = new AtomicLongArray(this.userLocks.size());
+        this.passwordHasher = PasswordHashers.create(properties);
+        this.decisions = properties.getDecisionCacheSize() > 0 ? new DecisionCache(properties.getDecisionCacheSize(),
+            properties.getDecisionCacheUsers()) : null;
+        this.tokenStore = createTokenStore(properties);
+        this.refreshTokens = properties.getRefreshTokenExpireSeconds() > 0 ? new MapTokenStore(
+            properties.getTokenPrefix(), properties.getRefreshTokenExpireSeconds() * 1000L,
+            properties.getTokenResizeTrigger(), properties.getTokenSweepIntervalMillis(), false) : null;
+        //before the journal,a replayed delete looks up the sessions of the user
+        this.sessions = properties.getMaxSessionsPerUser() > 0
+            ? new SessionIndex(this.tokenStore, properties.getMaxSessionsPerUser()) : null;
+        this.tokenExpireMillis = properties.getTokenExpireSeconds() * 1000L;
+        this.refreshSessions = this.refreshTokens != null ? new SessionIndex(this.refreshTokens, 0) : null;
+        this.snapshotPath = properties.getSnapshotPath().isEmpty() ? null : Paths.get(properties.getSnapshotPath());
+        this.journal = this.openJournal(properties, this.loadSnapshot());
+        //the replayed changes aren't published,a reader starts from the state after the start
+        this.changes = properties.getChangeStreamSize() > 0 ? new ChangeStream(properties.getChangeStreamSize()) : null;
+        this.slidingExpiry = properties.isTokenSlidingExpiry();
+        this.loginThrottle = properties.getLoginUserRatePerMinute() > 0 || properties.getLoginGlobalRatePerSecond() > 0
+            ? new LoginThrottle(properties.getLoginUserRatePerMinute(), properties.getLoginUserBurst(),
+            properties.getLoginGlobalRatePerSecond(), properties.getLoginGlobalBurst(),
+            properties.getLoginThrottleMaxUsers()) : null;
+        this.metrics.registerGauge("tokens", this.tokenStore::size);
+        if (this.sessions != null) {
+            this.metrics.registerGauge("sessionUsers", this.sessions::size);
+        } else {
+            this.metrics.registerGauge("sessionCutoffs", this.sessionCutoffs::size);
+        }
+        this.metrics.registerGauge("users", this.userMap::size);
+        this.metrics.registerGauge("roles", this.roleMap::size);
+        if (this.decisions != null) {
+            this.metrics.registerGauge("decisionCacheHits", this.decisions::getHits);
+            this.metrics.registerGauge("decisionCacheMisses", this.decisions::getMisses);
+            this.metrics.registerGauge("decisionCacheUsers", this.decisions::size);
+        }
+        if (this.changes != null) {
+            this.metrics.registerGauge("changeSequence", this.changes::getHeadSequence);
+        }
+        if (this.loginThrottle != null) {
+            this.metrics.registerGauge("loginThrottleUsers", this.loginThrottle::size);
+        }
+        if (this.journal != null) {
+            this.metrics.registerGauge("journalAppends", this.journal::getAppendCount);
+            this.metrics.registerGauge("journalForces", this.journal::getForceCount);
+            this.metrics.registerGauge("journalSyncErrors", this.journalSyncErrors::get);
+        }
+        if (properties.isMetricsEnabled() && !properties.getMetricsJmxName().isEmpty()) {
+            this.metrics.registerMBean(properties.getMetricsJmxName());
+        }
+        if (this.snapshotPath != null && properties.getSnapshotIntervalSeconds() > 0) {
+            this.snapshotExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "auth-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            this.snapshotExecutor.scheduleWithFixedDelay(this::writeSnapshot, properties.getSnapshotIntervalSeconds(),
+                properties.getSnapshotIntervalSeconds(), TimeUnit.SECONDS);
+        } else {
+            this.snapshotExecutor = null;
+        }
+        this.sessionSweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "auth-session-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sessionSweeper.scheduleWithFixedDelay(this::sweepSessions, properties.getSessionSweepIntervalMillis(),
+            properties.getSessionSweepIntervalMillis(), TimeUnit.MILLISECONDS);
     }
 
     public static AuthService getInstance() {
         return instance;
     }
 
+    private static TokenStore createTokenStore(AuthProperties properties) {
+        switch (properties.getTokenMode()) {
+            case AuthProperties.TOKEN_MODE_SIGNED:
+                return new SignedTokenStore(properties);
+            case AuthProperties.TOKEN_MODE_OFFHEAP:
+                return new OffHeapTokenStore(properties);
+            default:
+                return new MapTokenStore(properties);
+        }
+    }
+
+    /**
+     * load the snapshot into the empty maps
+     *
+     * @return the journal position of the snapshot,0 if there is none
+     */
+    private long loadSnapshot() {
+        if (this.snapshotPath == null) {
+            return 0;
+        }
+        try {
+            long position = SnapshotFile.load(this.snapshotPath, role -> {
+                this.roleIds.set(role.getId());
+                if (role.getId() >= this.roleTable.length) {
+                    this.roleTable = Arrays.copyOf(this.roleTable, role.getId() + 1);
+                }
+                this.roleTable[role.getId()] = role;
+                this.roleMap.put(role.getRoleName(), role);
+                this.roleMembers.put(role.getRoleName(), ConcurrentHashMap.newKeySet());
+                if (!role.getPermissions().isEmpty()) {
+                    if (role.getId() >= this.roleMatchers.length) {
+                        this.roleMatchers = Arrays.copyOf(this.roleMatchers, role.getId() + 1);
+                    }
+                    this.roleMatchers[role.getId()] = PermissionTrie.compile(role.getPermissions());
+                }
+            }, (parent, child) -> {
+                RoleGrants[] children = this.roleChildren;
+                if (parent >= children.length) {
+                    children = this.roleChildren = Arrays.copyOf(children, parent + 1);
+                }
+                children[parent] = (children[parent] == null ? RoleGrants.EMPTY : children[parent]).with(child);
+            }, (user, grants) -> {
+                this.userMap.put(user.getUserName(), user);
+                if (!grants.isEmpty()) {
+                    this.authMap.put(user.getUserName(), grants);
+                    for (int id = grants.nextSetBit(0); id >= 0; id = grants.nextSetBit(id + 1)) {
+                        this.roleMembers.get(this.roleTable[id].getRoleName()).add(user.getUserName());
+                    }
+                }
+            });
+            if (this.roleChildren.length > 0) {
+                this.roleClosures = closuresOf(this.roleChildren);
+                this.authMap.replaceAll((userName, grants) -> this.imply(grants));
+            }
+            return Math.max(position, 0);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("can't load the snapshot " + this.snapshotPath, e);
+        }
+    }
+
+    /**
+     * open the journal and replay the records after the snapshot
+     *
+     * @param properties
+     * @param position the journal position of the snapshot
+     * @return null while journal_path is empty
+     */
+    private Journal openJournal(AuthProperties properties, long position) {
+        if (properties.getJournalPath().isEmpty()) {
+            return null;
+        }
+        try {
+            Durability durability = Durability.valueOf(properties.getJournalDurability().toUpperCase(Locale.ROOT));
+            return Journal.open(Paths.get(properties.getJournalPath()), durability,
+                properties.getJournalBatchMillis(), position, this::apply);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalStateException("can't open the journal " + properties.getJournalPath(), e);
+        }
+    }
+
+    /**
+     * apply a replayed record,the records were validated before they were appended
+     *
+     * @param record
+     */
+    private void apply(JournalRecord record) {
+        switch (record.getType()) {
+            case CREATE_USER:
+            case UPDATE_PASSWORD:
+                User user = new User();
+                user.setUserName(record.getUserName());
+                user.setPwdHash(record.getPwdHash());
+                this.userMap.put(user.getUserName(), user);
+                break;
+            case DELETE_USER:
+                this.applyDeleteUser(record.getUserName());
+                break;
+            case CREATE_ROLE:
+                this.applyCreateRole(record.getRoleName());
+                break;
+            case DELETE_ROLE:
+                this.applyDeleteRole(this.roleMap.get(record.getRoleName()));
+                break;
+            case ADD_ROLE_TO_USER:
+                this.applyGrant(record.getUserName(), this.roleMap.get(record.getRoleName()));
+                break;
+            case ADD_ROLE_PARENT:
+                this.applyAddRoleParent(this.roleMap.get(record.getRoleName()),
+                    this.roleMap.get(record.getParentName()));
+                break;
+            case ADD_PERMISSION:
+                this.applyAddPermission(this.roleMap.get(record.getRoleName()),
+                    Permission.parse(record.getPermission()));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown record type " + record.getType());
+        }
+    }
+
+    /**
+     * append the record while the journal is enabled and notify the listener,it must be called before the change is
+     * applied
+     *
+     * @param record
+     * @throws IOException the change must not be applied
+     */
+    private void append(JournalRecord record) throws IOException {
+        this.appendJournal(record);
+        if (this.listener != null) {
+            this.listener.onMutation(record);
+        }
+    }
+
+    private void appendJournal(JournalRecord record) throws IOException {
+        if (this.journal != null) {
+            this.journal.append(record);
+        }
+    }
+
+    /**
+     * bump the change versions and publish an applied change to the change stream,called in the critical section
+     * right after the change is applied,so a reader that reloads on the event sees the change.
+     * a creation or a password change alters no role answer,so it bumps no version
+     *
+     * @param record
+     */
+    private void publish(JournalRecord record) {
+        switch (record.getType()) {
+            case DELETE_USER:
+            case ADD_ROLE_TO_USER:
+                this.touchUser(record.getUserName());
+                break;
+            case DELETE_ROLE:
+            case ADD_ROLE_PARENT:
+                this.changeVersion.incrementAndGet();
+                break;
+            default:
+                break;
+        }
+        if (this.changes == null) {
+            return;
+        }
+        switch (record.getType()) {
+            case CREATE_USER:
+                this.changes.publish(ChangeType.CREATE_USER, record.getUserName(), null, null);
+                break;
+            case DELETE_USER:
+                this.changes.publish(ChangeType.DELETE_USER, record.getUserName(), null, null);
+                break;
+            case CREATE_ROLE:
+                this.changes.publish(ChangeType.CREATE_ROLE, null, record.getRoleName(), null);
+                break;
+            case DELETE_ROLE:
+                this.changes.publish(ChangeType.DELETE_ROLE, null, record.getRoleName(), null);
+                break;
+            case ADD_ROLE_TO_USER:
+                this.changes.publish(ChangeType.ADD_ROLE_TO_USER, record.getUserName(), record.getRoleName(), null);
+                break;
+            case ADD_ROLE_PARENT:
+                this.changes.publish(ChangeType.ADD_ROLE_PARENT, null, record.getRoleName(), record.getParentName());
+                break;
+            case ADD_PERMISSION:
+                this.changes.publish(ChangeType.ADD_PERMISSION, null, record.getRoleName(), record.getPermission());
+                break;
+            default:
+                //a password hash upgrade changes nothing a reader derives
+                break;
+        }
+    }
+
+    /**
+     * wait until the records appended by this thread are durable,called without any lock.
+     * the changes are visible before they are synced,a failed sync is counted in the journalSyncErrors gauge,the
+     * changes may be lost by a crash
+     *
+     * @return true if the caller must answer INNER_ERROR for its changes,only per_op promises them durable
+     */
+    private boolean syncJournal() {
+        if (this.journal == null) {
+            return false;
+        }
+        try {
+            this.journal.sync();
+            return false;
+        } catch (IOException e) {
+            this.journalSyncErrors.incrementAndGet();
+            log.log(Level.SEVERE, "journal sync error,the applied changes may be lost by a crash", e);
+            return this.journal.getDurability() == Durability.PER_OP;
+        }
+    }
+
+    /**
+     * @param code
+     * @return the code,or INNER_ERROR for a change that isn't durable under per_op.the change is visible anyway
+     */
+    private int syncJournal(int code) {
+        return this.syncJournal() && code == SUCCESS ? INNER_ERROR : code;
+    }
+
     /**
      * create User use the given userName and pwd
      *
@@ -115,24 +573,42 @@ public class AuthService {
      * @return returns 0 if success,otherwise returns an error code.
      */
     public int createUser(String userName, String originalPwd) {
+        long start = this.metrics.start();
+        int code = this.syncJournal(this.doCreateUser(userName, originalPwd));
+        this.metrics.record(Operation.CREATE_USER, start, code);
+        return code;
+    }
+
+    private int doCreateUser(String userName, String originalPwd) {
+        if (userName == null || originalPwd == null) {
+            return PARAMS_ERROR;
+        }
         if (this.userMap.containsKey(userName)) {
             return USER_EXISTS;
         }
-        ReentrantReadWriteLock.WriteLock lock = userLock.writeLock();
+        //hash before taking the lock
+        User user = new User();
+        user.setUserName(userName);
+        try {
+            user.setPwdHash(this.passwordHasher.hash(originalPwd));
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("userName=%s", userName), e);
+            return INNER_ERROR;
+        }
+
+        ReentrantReadWriteLock.WriteLock lock = this.userLocks.get(userName).writeLock();
         try {
-            lock.lock();
+            this.metrics.lock(lock, MeteredLock.USER_LOCK);
             if (this.userMap.containsKey(userName)) {
                 return USER_EXISTS;
             }
 
-            User user = new User();
-            user.setUserName(userName);
-            user.setPwd(encodePwd(originalPwd));
+            JournalRecord record = JournalRecord.user(RecordType.CREATE_USER, userName, user.getPwdHash());
+            this.append(record);
             this.userMap.put(userName, user);
+            this.publish(record);
             return SUCCESS;
-        } catch (UnsupportedEncodingException e) {
-            log.log(Level.WARNING, String.format("userName=%s", userName), e);
-        } catch (NoSuchAlgorithmException e) {
+        } catch (Exception e) {
             log.log(Level.WARNING, String.format("userName=%s", userName), e);
         } finally {
             if (lock != null) {
@@ -150,36 +626,76 @@ public class AuthService {
      * @return 0 or an error code.
      */
     public int deleteUser(String userName) {
+        long start = this.metrics.start();
+        int code = this.syncJournal(this.doDeleteUser(userName));
+        this.metrics.record(Operation.DELETE_USER, start, code);
+        return code;
+    }
+
+    private int doDeleteUser(String userName) {
         if (userName == null) {
             return PARAMS_ERROR;
         }
         //fail if not exist
-        ReentrantReadWriteLock.WriteLock userLock = this.userLock.writeLock();
-        ReentrantReadWriteLock.WriteLock authLock = this.authLock.writeLock();
+        ReentrantReadWriteLock.WriteLock lock = this.userLocks.get(userName).writeLock();
         try {
-            userLock.lock();
-            authLock.lock();
+            this.metrics.lock(lock, MeteredLock.USER_LOCK);
             if (!this.userMap.containsKey(userName)) {
                 return USER_NOT_EXIST;
             }
 
-            this.userMap.remove(userName);
-            this.authMap.remove(userName);
+            JournalRecord record = JournalRecord.user(RecordType.DELETE_USER, userName, null);
+            this.append(record);
+            this.applyDeleteUser(userName);
+            if (this.sessions == null) {
+                //after the delete is sent,so the replicas drop the old tokens before the user is recreated
+                this.cutSessions(userName, true);
+            }
+            this.publish(record);
             return SUCCESS;
         } catch (Exception e) {
             log.log(Level.WARNING, String.format("userName=%s", userName), e);
         } finally {
-            if (userLock != null) {
-                userLock.unlock();
-            }
-            if (authLock != null) {
-                authLock.unlock();
+            if (lock != null) {
+                lock.unlock();
             }
         }
 
         return INNER_ERROR;
     }
 
+    private void applyDeleteUser(String userName) {
+        this.userMap.remove(userName);
+        //the sessions end with the user,a user recreated with the name doesn't get them.
+        //with an index every node revokes its own copies as it applies the delete,so nothing is sent to the listener,
+        //without one the deleting node cuts the sessions off
+        if (this.sessions != null) {
+            for (String token : this.sessions.removeAll(userName)) {
+                this.tokenStore.revoke(token);
+            }
+        }
+        if (this.refreshSessions != null) {
+            for (String token : this.refreshSessions.removeAll(userName)) {
+                this.refreshTokens.revoke(token);
+            }
+        }
+        if (this.decisions != null) {
+            this.decisions.remove(userName);
+        }
+        RoleGrants grants = this.authMap.remove(userName);
+        if (grants == null) {
+            return;
+        }
+        //a granted id can't be recycled while the user's stripe is held
+        Role[] table = this.roleTable;
+        for (int id = grants.nextSetBit(0); id >= 0; id = grants.nextSetBit(id + 1)) {
+            Set<String> members = this.roleMembers.get(table[id].getRoleName());
+            if (members != null) {
+                members.remove(userName);
+            }
+        }
+    }
+
     /**
      * create Role use the given roleName
      *
@@ -187,19 +703,30 @@ public class AuthService {
      * @return 0 or an error code.
      */
     public int createRole(String roleName) {
+        long start = this.metrics.start();
+        int code = this.syncJournal(this.doCreateRole(roleName));
+        this.metrics.record(Operation.CREATE_ROLE, start, code);
+        return code;
+    }
+
+    private int doCreateRole(String roleName) {
+        if (roleName == null) {
+            return PARAMS_ERROR;
+        }
         if (this.roleMap.containsKey(roleName)) {
             return ROLE_EXISTS;
         }
         ReentrantReadWriteLock.WriteLock lock = this.roleLock.writeLock();
         try {
-            lock.lock();
+            this.metrics.lock(lock, MeteredLock.ROLE_LOCK);
             if (this.roleMap.containsKey(roleName)) {
                 return ROLE_EXISTS;
             }
 
-            Role role = new Role();
-            role.setRoleName(roleName);
-            this.roleMap.put(role.getRoleName(), role);
+            JournalRecord record = JournalRecord.role(RecordType.CREATE_ROLE, roleName);
+            this.append(record);
+            this.applyCreateRole(roleName);
+            this.publish(record);
             return SUCCESS;
         } catch (Exception e) {
             log.log(Level.WARNING, String.format("roleName=%s", roleName), e);
@@ -212,6 +739,23 @@ public class AuthService {
         return INNER_ERROR;
     }
 
+    /**
+     * the ids are allocated lowest first,so a replay rebuilds the same ids
+     *
+     * @param roleName
+     */
+    private void applyCreateRole(String roleName) {
+        Role role = new Role();
+        role.setRoleName(roleName);
+        role.setId(this.roleIds.nextClearBit(0));
+        this.roleIds.set(role.getId());
+        Role[] table = Arrays.copyOf(this.roleTable, Math.max(this.roleTable.length, role.getId() + 1));
+        table[role.getId()] = role;
+        this.roleTable = table;
+        this.roleMembers.put(role.getRoleName(), ConcurrentHashMap.newKeySet());
+        this.roleMap.put(role.getRoleName(), role);
+    }
+
     /**
      * delete Role while exist
      *
@@ -219,160 +763,916 @@ public class AuthService {
      * @return 0 or an error code.
      */
     public int deleteRole(String roleName) {
+        long start = this.metrics.start();
+        int code = this.syncJournal(this.doDeleteRole(roleName));
+        this.metrics.record(Operation.DELETE_ROLE, start, code);
+        return code;
+    }
+
+    private int doDeleteRole(String roleName) {
         if (roleName == null) {
             return PARAMS_ERROR;
         }
+        //only the members are touched,so only their stripes are locked
         ReentrantReadWriteLock.WriteLock roleLock = this.roleLock.writeLock();
-        ReentrantReadWriteLock.WriteLock authLock = this.authLock.writeLock();
+        int[] stripes = null;
         try {
-            roleLock.lock();
-            authLock.lock();
+            this.metrics.lock(roleLock, MeteredLock.ROLE_LOCK);
             //fail if not exist
-            if (!this.roleMap.containsKey(roleName)) {
+            Role role = this.roleMap.get(roleName);
+            if (role == null) {
                 return ROLE_NOT_EXIST;
             }
-            this.roleMap.remove(roleName);
-            this.authMap.values().forEach(set -> set.remove(roleName));
+            stripes = this.lockMembers(this.ancestorsOf(role.getId()));
+            JournalRecord record = JournalRecord.role(RecordType.DELETE_ROLE, roleName);
+            this.append(record);
+            this.applyDeleteRole(role);
+            this.publish(record);
             return SUCCESS;
         } catch (Exception e) {
             log.log(Level.WARNING, String.format("roleName=%s", roleName), e);
         } finally {
+            if (stripes != null) {
+                this.userLocks.writeUnlock(stripes);
+            }
             if (roleLock != null) {
                 roleLock.unlock();
             }
-            if (authLock != null) {
-                authLock.unlock();
-            }
         }
 
         return INNER_ERROR;
     }
 
     /**
-     * add roleName to userName
-     * if the roleName is already associated with the userName,nothing should happen
+     * lock the stripes of the roles' members,the caller holds the roleLock write lock so no member can be added
+     *
+     * @param roles existing roles
+     * @return the locked stripes
+     */
+    private int[] lockMembers(List<Role> roles) {
+        List<String> members = new ArrayList<>();
+        for (Role role : roles) {
+            members.addAll(this.roleMembers.get(role.getRoleName()));
+        }
+        int[] stripes = this.userLocks.indexesOf(members);
+        this.userLocks.writeLock(stripes);
+        return stripes;
+    }
+
+    private void applyDeleteRole(Role role) {
+        int id = role.getId();
+        List<Role> ancestors = this.ancestorsOf(id);
+        this.beginPermissionChange();
+        this.roleMap.remove(role.getRoleName());
+        //drop the edges,then the closures that went through the role
+        boolean inherited = ancestors.size() > 1 || this.childrenOf(id) != null;
+        if (inherited) {
+            RoleGrants[] children = this.roleChildren.clone();
+            for (int parent = 0; parent < children.length; parent++) {
+                if (parent == id) {
+                    children[parent] = null;
+                } else if (children[parent] != null) {
+                    RoleGrants rest = children[parent].without(id);
+                    children[parent] = rest.isEmpty() ? null : rest;
+                }
+            }
+            this.roleChildren = children;
+            this.roleClosures = closuresOf(children);
+        }
+        //clear the bit from the members' grants before the id can be reused
+        for (String userName : this.roleMembers.remove(role.getRoleName())) {
+            this.authMap.computeIfPresent(userName, (key, grants) -> {
+                RoleGrants rest = grants.without(id);
+                return rest.isEmpty() ? null : this.imply(rest);
+            });
+        }
+        if (inherited) {
+            this.reimply(ancestors);
+        }
+        if (id < this.roleMatchers.length && this.roleMatchers[id] != null) {
+            PermissionTrie[] matchers = this.roleMatchers.clone();
+            matchers[id] = null;
+            this.roleMatchers = matchers;
+        }
+        Role[] table = this.roleTable.clone();
+        table[id] = null;
+        this.roleTable = table;
+        this.roleIds.clear(id);
+        this.endPermissionChange();
+    }
+
+    /**
+     * make the parent role include the role,a user granted the parent is also granted the role and the roles it
+     * includes,e.g. addRoleParent("viewer", "operator") then addRoleParent("operator", "admin") makes an admin a
+     * viewer
      *
-     * @param userName
      * @param roleName
-     * @return 0 or an error code.
+     * @param parentName
+     * @return 0,ROLE_CYCLE if the role already includes the parent,or another error code
      */
-    public int addRoleToUser(String userName, String roleName) {
-        ReentrantReadWriteLock.ReadLock userLock = this.userLock.readLock();
-        ReentrantReadWriteLock.ReadLock roleLock = this.roleLock.readLock();
-        ReentrantReadWriteLock.WriteLock authLock = this.authLock.writeLock();
+    public int addRoleParent(String roleName, String parentName) {
+        long start = this.metrics.start();
+        int code = this.syncJournal(this.doAddRoleParent(roleName, parentName));
+        this.metrics.record(Operation.ADD_ROLE_PARENT, start, code);
+        return code;
+    }
 
+    private int doAddRoleParent(String roleName, String parentName) {
+        if (roleName == null || parentName == null) {
+            return PARAMS_ERROR;
+        }
+        //the closures of the parent and the roles above it change,so do the implied bits of their members
+        ReentrantReadWriteLock.WriteLock roleLock = this.roleLock.writeLock();
+        int[] stripes = null;
         try {
-            userLock.lock();
-            roleLock.lock();
-            authLock.lock();
-
-            if (userName == null || !this.userMap.containsKey(userName)) {
-                return USER_NOT_EXIST;
-            }
-            if (roleName == null || !this.roleMap.containsKey(roleName)) {
+            this.metrics.lock(roleLock, MeteredLock.ROLE_LOCK);
+            Role role = this.roleMap.get(roleName);
+            Role parent = this.roleMap.get(parentName);
+            if (role == null || parent == null) {
                 return ROLE_NOT_EXIST;
             }
-
-            Set<String> set = this.authMap.get(userName);
-            if (set == null) {
-                set = new HashSet<>();
-                this.authMap.put(userName, set);
+            if (this.closureOf(role.getId()).contains(parent.getId())) {
+                return ROLE_CYCLE;
             }
-            set.add(roleName);
+            RoleGrants children = this.childrenOf(parent.getId());
+            if (children != null && children.contains(role.getId())) {
+                return SUCCESS;
+            }
+            stripes = this.lockMembers(this.ancestorsOf(parent.getId()));
+            JournalRecord record = JournalRecord.roleParent(roleName, parentName);
+            this.append(record);
+            this.applyAddRoleParent(role, parent);
+            this.publish(record);
             return SUCCESS;
         } catch (Exception e) {
-            log.log(Level.WARNING, String.format("userName=%s, roleName=%s", userName, roleName), e);
-            return INNER_ERROR;
+            log.log(Level.WARNING, String.format("roleName=%s, parentName=%s", roleName, parentName), e);
         } finally {
-            if (userLock != null) {
-                userLock.unlock();
+            if (stripes != null) {
+                this.userLocks.writeUnlock(stripes);
             }
             if (roleLock != null) {
                 roleLock.unlock();
             }
-            if (authLock != null) {
-                authLock.unlock();
-            }
         }
+
+        return INNER_ERROR;
     }
 
     /**
-     * receive a token that has an expiry time which is defined by token_expire
+     * a missing role,a cycle or an existing edge is ignored
      *
-     * @param userName
-     * @param pwd
-     * @return an object contains an int code,its value is 0 while success,otherwise an error code
+     * @param role
+     * @param parent
      */
-    public Result<String> authenticate(String userName, String pwd) {
-        if (userName == null || pwd == null) {
-            return Result.fail(PARAMS_ERROR);
+    private void applyAddRoleParent(Role role, Role parent) {
+        if (role == null || parent == null || this.closureOf(role.getId()).contains(parent.getId())) {
+            return;
+        }
+        int length = this.roleTable.length;
+        RoleGrants[] children = Arrays.copyOf(this.roleChildren, length);
+        RoleGrants edges = children[parent.getId()] == null ? RoleGrants.EMPTY : children[parent.getId()];
+        if (edges.contains(role.getId())) {
+            return;
         }
+        children[parent.getId()] = edges.with(role.getId());
+        //only additions,so the closures above the parent just gain the closure of the role
+        List<Role> ancestors = this.ancestorsOf(parent.getId());
+        RoleGrants[] closures = Arrays.copyOf(this.roleClosures, length);
+        long[] added = this.closureOf(role.getId()).words();
+        for (Role ancestor : ancestors) {
+            closures[ancestor.getId()] = RoleGrants.of(or(this.closureOf(ancestor.getId()).words(), added));
+        }
+        this.beginPermissionChange();
+        this.roleChildren = children;
+        this.roleClosures = closures;
+        this.reimply(ancestors);
+        this.endPermissionChange();
+    }
 
-        //error if not found
-        ReentrantReadWriteLock.ReadLock userLock = this.userLock.readLock();
-        ReentrantReadWriteLock.WriteLock authLock = this.authLock.writeLock();
-        try {
-            userLock.lock();
-            authLock.lock();
+    /**
+     * allow the action on the resources matched by the pattern to the users granted the role,or a role that includes
+     * it
+     *
+     * @param roleName
+     * @param action an action such as "write",or "*" for every action
+     * @param resource a pattern such as "account:*",see {@link Permission}
+     * @return 0 or an error code.
+     */
+    public int addPermissionToRole(String roleName, String action, String resource) {
+        long start = this.metrics.start();
+        int code = this.syncJournal(this.doAddPermissionToRole(roleName, action, resource));
+        this.metrics.record(Operation.ADD_PERMISSION_TO_ROLE, start, code);
+        return code;
+    }
 
-            if (!this.userMap.containsKey(userName)) {
-                return Result.fail(USER_NOT_EXIST);
-            }
-            if (!encodePwd(pwd).equals(this.userMap.get(userName).getPwd())) {
-                return Result.fail(WRONG_PASSWORD);
+    private int doAddPermissionToRole(String roleName, String action, String resource) {
+        Permission permission = new Permission(action, resource);
+        if (roleName == null || !permission.isValid()) {
+            return PARAMS_ERROR;
+        }
+        //no grant changes,the checks see the new trie and epoch
+        ReentrantReadWriteLock.WriteLock roleLock = this.roleLock.writeLock();
+        try {
+            this.metrics.lock(roleLock, MeteredLock.ROLE_LOCK);
+            Role role = this.roleMap.get(roleName);
+            if (role == null) {
+                return ROLE_NOT_EXIST;
             }
-
-            //success
-            Token token = new Token();
-            token.setToken(UUID.randomUUID().toString());
-            token.setUserName(userName);
-            token.setCreateTime(System.currentTimeMillis());
-            this.tokenMap.put(token.getToken(), token);
-
-            //resize token map
-            if (this.tokenMap.size() > AuthProperties.getInstance().getTokenResizeTrigger()) {
-                long now = System.currentTimeMillis();
-                List<String> expiredList = this.tokenMap.values().stream().filter(
-                        t -> (now - t.getCreateTime()) > AuthProperties.getInstance().getTokenExpireSeconds() * 1000)
-                    .map(Token::getToken).collect(Collectors.toList());
-                expiredList.forEach(k -> this.tokenMap.remove(k));
+            if (!role.getPermissions().contains(permission)) {
+                JournalRecord record = JournalRecord.permission(roleName, permission.toString());
+                this.append(record);
+                this.applyAddPermission(role, permission);
+                this.publish(record);
             }
-
-            return Result.success(token.getToken());
+            return SUCCESS;
         } catch (Exception e) {
-            log.log(Level.WARNING, String.format("userName=%s", userName), e);
-            return Result.fail(INNER_ERROR);
+            log.log(Level.WARNING, String.format("roleName=%s, permission=%s", roleName, permission), e);
         } finally {
-            if (userLock != null) {
-                userLock.unlock();
-            }
-            if (authLock != null) {
-                authLock.unlock();
+            if (roleLock != null) {
+                roleLock.unlock();
             }
         }
+
+        return INNER_ERROR;
     }
 
     /**
-     * unregister the given token
+     * a missing role or an existing permission is ignored
      *
-     * @param token
+     * @param role
+     * @param permission
+     */
+    private void applyAddPermission(Role role, Permission permission) {
+        if (role == null || permission == null || role.getPermissions().contains(permission)) {
+            return;
+        }
+        List<Permission> permissions = new ArrayList<>(role.getPermissions());
+        permissions.add(permission);
+        PermissionTrie[] matchers = Arrays.copyOf(this.roleMatchers, this.roleTable.length);
+        matchers[role.getId()] = PermissionTrie.compile(permissions);
+        this.beginPermissionChange();
+        role.setPermissions(Collections.unmodifiableList(permissions));
+        this.roleMatchers = matchers;
+        this.endPermissionChange();
+    }
+
+    /**
+     * the caller holds the roleLock write lock,or replays alone
+     */
+    private void beginPermissionChange() {
+        this.permissionEpoch = this.permissionEpoch + 1;
+    }
+
+    private void endPermissionChange() {
+        this.permissionEpoch = this.permissionEpoch + 1;
+        if (this.decisions != null) {
+            this.decisions.clear();
+        }
+    }
+
+    /**
+     * @param id role id
+     * @return the ids of the roles it includes directly,null if none
+     */
+    private RoleGrants childrenOf(int id) {
+        RoleGrants[] children = this.roleChildren;
+        return id < children.length ? children[id] : null;
+    }
+
+    /**
+     * @param id role id
+     * @return the ids of the roles it includes and itself
+     */
+    private RoleGrants closureOf(int id) {
+        RoleGrants[] closures = this.roleClosures;
+        return id < closures.length && closures[id] != null ? closures[id] : RoleGrants.EMPTY.with(id);
+    }
+
+    /**
+     * @param id role id
+     * @return the existing roles that include the role,and the role itself
+     */
+    private List<Role> ancestorsOf(int id) {
+        List<Role> ancestors = new ArrayList<>();
+        for (Role role : this.roleTable) {
+            if (role != null && (role.getId() == id || this.closureOf(role.getId()).contains(id))) {
+                ancestors.add(role);
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * recompute the implied bits of the roles' members,the caller holds their stripes
+     *
+     * @param roles
+     */
+    private void reimply(List<Role> roles) {
+        for (Role role : roles) {
+            Set<String> members = this.roleMembers.get(role.getRoleName());
+            if (members != null) {
+                for (String userName : members) {
+                    this.authMap.computeIfPresent(userName, (key, grants) -> this.imply(grants));
+                }
+            }
+        }
+    }
+
+    /**
+     * @param grants
+     * @return the grants with the implied bits of the current closures
+     */
+    private RoleGrants imply(RoleGrants grants) {
+        RoleGrants[] closures = this.roleClosures;
+        long[] implied = grants.words();
+        for (int id = grants.nextSetBit(0); id >= 0; id = grants.nextSetBit(id + 1)) {
+            if (id < closures.length && closures[id] != null) {
+                implied = or(implied, closures[id].words());
+            }
+        }
+        return grants.implying(implied);
+    }
+
+    /**
+     * @param children index=role id,value=the ids of the roles it includes directly
+     * @return index=role id,value=the ids of the roles it includes and itself,null if it includes none
+     */
+    private static RoleGrants[] closuresOf(RoleGrants[] children) {
+        RoleGrants[] closures = new RoleGrants[children.length];
+        for (int id = 0; id < children.length; id++) {
+            closureOf(children, closures, id);
+        }
+        return closures;
+    }
+
+    private static RoleGrants closureOf(RoleGrants[] children, RoleGrants[] closures, int id) {
+        if (id >= children.length || children[id] == null) {
+            return null;
+        }
+        if (closures[id] == null) {
+            //the hierarchy has no cycle,so the recursion ends
+            long[] words = RoleGrants.EMPTY.with(id).words();
+            RoleGrants ids = children[id];
+            for (int child = ids.nextSetBit(0); child >= 0; child = ids.nextSetBit(child + 1)) {
+                RoleGrants closure = closureOf(children, closures, child);
+                words = or(words, closure == null ? RoleGrants.EMPTY.with(child).words() : closure.words());
+            }
+            closures[id] = RoleGrants.of(words);
+        }
+        return closures[id];
+    }
+
+    /**
+     * @param a
+     * @param b
+     * @return a new array of the bits of both
+     */
+    private static long[] or(long[] a, long[] b) {
+        long[] words = Arrays.copyOf(a, Math.max(a.length, b.length));
+        for (int i = 0; i < b.length; i++) {
+            words[i] |= b[i];
+        }
+        return words;
+    }
+
+    /**
+     * add roleName to userName
+     * if the roleName is already associated with the userName,nothing should happen
+     *
+     * @param userName
+     * @param roleName
+     * @return 0 or an error code.
+     */
+    public int addRoleToUser(String userName, String roleName) {
+        long start = this.metrics.start();
+        int code = this.syncJournal(this.doAddRoleToUser(userName, roleName));
+        this.metrics.record(Operation.ADD_ROLE_TO_USER, start, code);
+        return code;
+    }
+
+    private int doAddRoleToUser(String userName, String roleName) {
+        if (userName == null) {
+            return USER_NOT_EXIST;
+        }
+        ReentrantReadWriteLock.ReadLock roleLock = this.roleLock.readLock();
+        ReentrantReadWriteLock.WriteLock userLock = this.userLocks.get(userName).writeLock();
+
+        try {
+            this.metrics.lock(roleLock, MeteredLock.ROLE_LOCK);
+            this.metrics.lock(userLock, MeteredLock.USER_LOCK);
+
+            return this.grant(userName, roleName);
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("userName=%s, roleName=%s", userName, roleName), e);
+            return INNER_ERROR;
+        } finally {
+            if (userLock != null) {
+                userLock.unlock();
+            }
+            if (roleLock != null) {
+                roleLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * add the roles to the users,the locks are taken once for the whole batch
+     *
+     * @param grants
+     * @return the codes of the grants in iteration order,as {@link #addRoleToUser(String, String)} returns,
+     * [PARAMS_ERROR] if grants is null
+     */
+    public List<Integer> addRolesToUsers(Collection<Grant> grants) {
+        long start = this.metrics.start();
+        if (grants == null) {
+            this.metrics.record(Operation.ADD_ROLES_TO_USERS, start, PARAMS_ERROR);
+            return new ArrayList<>(Collections.singletonList(PARAMS_ERROR));
+        }
+        List<Integer> codes = this.doAddRolesToUsers(grants);
+        if (this.syncJournal()) {
+            codes.replaceAll(code -> code == SUCCESS ? INNER_ERROR : code);
+        }
+        this.metrics.record(Operation.ADD_ROLES_TO_USERS, start, SUCCESS);
+        return codes;
+    }
+
+    private List<Integer> doAddRolesToUsers(Collection<Grant> grants) {
+        List<Integer> codes = new ArrayList<>(grants.size());
+        int[] stripes = this.userLocks.indexesOf(
+            grants.stream().filter(g -> g != null).map(Grant::getUserName).collect(Collectors.toList()));
+        ReentrantReadWriteLock.ReadLock roleLock = this.roleLock.readLock();
+        try {
+            this.metrics.lock(roleLock, MeteredLock.ROLE_LOCK);
+            this.userLocks.writeLock(stripes);
+
+            for (Grant grant : grants) {
+                if (grant == null) {
+                    codes.add(PARAMS_ERROR);
+                } else if (grant.getUserName() == null) {
+                    codes.add(USER_NOT_EXIST);
+                } else {
+                    codes.add(this.grant(grant.getUserName(), grant.getRoleName()));
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("grants=%d", grants.size()), e);
+            //the remaining grants weren't applied
+            while (codes.size() < grants.size()) {
+                codes.add(INNER_ERROR);
+            }
+        } finally {
+            this.userLocks.writeUnlock(stripes);
+            if (roleLock != null) {
+                roleLock.unlock();
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * create the users,the passwords are hashed before the locks are taken once for the whole batch
+     *
+     * @param users key=userName, value=original password
+     * @return key=userName, value=the code as {@link #createUser(String, String)} returns,{null=PARAMS_ERROR} if
+     * users is null
+     */
+    public Map<String, Integer> createUsers(Map<String, String> users) {
+        long start = this.metrics.start();
+        if (users == null) {
+            this.metrics.record(Operation.CREATE_USERS, start, PARAMS_ERROR);
+            Map<String, Integer> codes = new LinkedHashMap<>();
+            codes.put(null, PARAMS_ERROR);
+            return codes;
+        }
+        Map<String, Integer> codes = this.doCreateUsers(users);
+        if (this.syncJournal()) {
+            codes.replaceAll((userName, code) -> code == SUCCESS ? INNER_ERROR : code);
+        }
+        this.metrics.record(Operation.CREATE_USERS, start, SUCCESS);
+        return codes;
+    }
+
+    private Map<String, Integer> doCreateUsers(Map<String, String> users) {
+        Map<String, Integer> codes = new LinkedHashMap<>();
+        List<User> candidates = new ArrayList<>(users.size());
+        for (Map.Entry<String, String> entry : users.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                codes.put(entry.getKey(), PARAMS_ERROR);
+                continue;
+            }
+            if (this.userMap.containsKey(entry.getKey())) {
+                codes.put(entry.getKey(), USER_EXISTS);
+                continue;
+            }
+            try {
+                User user = new User();
+                user.setUserName(entry.getKey());
+                user.setPwdHash(this.passwordHasher.hash(entry.getValue()));
+                candidates.add(user);
+                codes.put(entry.getKey(), INNER_ERROR);
+            } catch (Exception e) {
+                log.log(Level.WARNING, String.format("userName=%s", entry.getKey()), e);
+                codes.put(entry.getKey(), INNER_ERROR);
+            }
+        }
+
+        int[] stripes = this.userLocks.indexesOf(
+            candidates.stream().map(User::getUserName).collect(Collectors.toList()));
+        try {
+            this.userLocks.writeLock(stripes);
+            for (User user : candidates) {
+                if (this.userMap.containsKey(user.getUserName())) {
+                    codes.put(user.getUserName(), USER_EXISTS);
+                    continue;
+                }
+                JournalRecord record = JournalRecord.user(RecordType.CREATE_USER, user.getUserName(),
+                    user.getPwdHash());
+                this.append(record);
+                this.userMap.put(user.getUserName(), user);
+                this.publish(record);
+                codes.put(user.getUserName(), SUCCESS);
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("users=%d", users.size()), e);
+        } finally {
+            this.userLocks.writeUnlock(stripes);
+        }
+        return codes;
+    }
+
+    /**
+     * grant the role to the user,the caller holds the roleLock read lock and the user's stripe write lock
+     *
+     * @param userName not null
+     * @param roleName
+     * @return 0 or an error code.
+     */
+    private int grant(String userName, String roleName) throws IOException {
+        if (!this.userMap.containsKey(userName)) {
+            return USER_NOT_EXIST;
+        }
+        Role role = roleName == null ? null : this.roleMap.get(roleName);
+        if (role == null) {
+            return ROLE_NOT_EXIST;
+        }
+
+        if (!this.authMap.getOrDefault(userName, RoleGrants.EMPTY).contains(role.getId())) {
+            JournalRecord record = JournalRecord.grant(userName, roleName);
+            this.append(record);
+            this.applyGrant(userName, role);
+            this.publish(record);
+        }
+        return SUCCESS;
+    }
+
+    private void applyGrant(String userName, Role role) {
+        RoleGrants grants = this.authMap.getOrDefault(userName, RoleGrants.EMPTY);
+        if (!grants.contains(role.getId())) {
+            this.authMap.put(userName, this.imply(grants.with(role.getId())));
+            this.roleMembers.get(role.getRoleName()).add(userName);
+        }
+    }
+
+    /**
+     * receive a token that has an expiry time which is defined by token_expire
+     *
+     * @param userName
+     * @param pwd
+     * @return an object contains an int code,its value is 0 while success,otherwise an error code
+     */
+    public Result<String> authenticate(String userName, String pwd) {
+        long start = this.metrics.start();
+        Result<String> ret = this.doAuthenticate(userName, pwd);
+        //only an upgraded hash is journaled,the old one still matches if it's lost
+        this.syncJournal();
+        this.metrics.record(Operation.AUTHENTICATE, start, ret.getStatus());
+        return ret;
+    }
+
+    private Result<String> doAuthenticate(String userName, String pwd) {
+        if (userName == null || pwd == null) {
+            return Result.fail(PARAMS_ERROR);
+        }
+
+        //refused before any hashing,an unknown user costs no hash and takes no token
+        if (this.loginThrottle != null && this.userMap.containsKey(userName)
+            && !this.loginThrottle.tryAcquire(userName)) {
+            return Result.fail(LOGIN_THROTTLED);
+        }
+
+        ReentrantReadWriteLock.ReadLock userLock = this.userLocks.get(userName).readLock();
+        try {
+            while (true) {
+                //error if not found
+                User user = this.userMap.get(userName);
+                if (user == null) {
+                    return Result.fail(USER_NOT_EXIST);
+                }
+                //hash without any lock
+                PasswordHasher hasher = PasswordHashers.forHash(this.passwordHasher, user.getPwdHash());
+                if (hasher == null) {
+                    log.log(Level.WARNING, String.format("unknown password hash version,userName=%s", userName));
+                    return Result.fail(INNER_ERROR);
+                }
+                if (!hasher.matches(pwd, user.getPwdHash())) {
+                    return Result.fail(WRONG_PASSWORD);
+                }
+                //upgrade an outdated hash now that we know the password
+                User upgraded = null;
+                if (this.passwordHasher.needsRehash(user.getPwdHash())) {
+                    upgraded = new User();
+                    upgraded.setUserName(userName);
+                    upgraded.setPwdHash(this.passwordHasher.hash(pwd));
+                }
+
+                //publish the token only if the user wasn't deleted or recreated while hashing
+                this.metrics.lock(userLock, MeteredLock.USER_LOCK);
+                try {
+                    if (this.userMap.get(userName) == user) {
+                        //a concurrent upgrade may win the replace,both hashes match the same password
+                        if (upgraded != null) {
+                            this.append(JournalRecord.user(RecordType.UPDATE_PASSWORD, userName,
+                                upgraded.getPwdHash()));
+                        }
+                        if (upgraded == null || this.userMap.replace(userName, user, upgraded)) {
+                            return Result.success(this.issue(userName));
+                        }
+                    }
+                } finally {
+                    userLock.unlock();
+                }
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("userName=%s", userName), e);
+            return Result.fail(INNER_ERROR);
+        }
+    }
+
+    /**
+     * issue an access token,the caller holds the user's stripe so the user isn't deleted meanwhile.
+     * the oldest sessions over max_sessions_per_user are invalidated
+     *
+     * @param userName
+     * @return the token
+     */
+    private String issue(String userName) {
+        long now = System.currentTimeMillis();
+        Long cutoff = this.sessions == null ? this.sessionCutoffs.get(userName) : null;
+        if (cutoff != null && now <= cutoff) {
+            //issued in the millisecond of the cutoff,it must outlive it
+            now = cutoff + 1;
+        }
+        String token = this.tokenStore.issue(userName, now);
+        if (this.listener != null) {
+            this.listener.onTokenIssued(token, userName, now);
+        }
+        if (this.sessions != null) {
+            for (String evicted : this.sessions.add(userName, token, true)) {
+                this.doInvalidate(evicted);
+            }
+        }
+        return token;
+    }
+
+    /**
+     * issue a refresh token
+     *
+     * @param userName
+     * @return the token
+     */
+    private String issueRefresh(String userName) {
+        String token = this.refreshTokens.issue(userName, System.currentTimeMillis());
+        this.refreshSessions.add(userName, token, false);
+        return token;
+    }
+
+    /**
+     * receive an access token and a refresh token,the refresh token reissues both without the password
+     *
+     * @param userName
+     * @param pwd
+     * @return an object contains an int code,and the tokens while success
+     */
+    public Result<TokenPair> authenticateWithRefresh(String userName, String pwd) {
+        long start = this.metrics.start();
+        Result<TokenPair> ret;
+        if (this.refreshTokens == null) {
+            ret = Result.fail(PARAMS_ERROR);
+        } else {
+            Result<String> access = this.doAuthenticate(userName, pwd);
+            this.syncJournal();
+            ret = access.isFail() ? Result.fail(access.getStatus())
+                : Result.success(new TokenPair(access.getRetObj(), this.issueRefresh(userName)));
+        }
+        this.metrics.record(Operation.AUTHENTICATE_WITH_REFRESH, start, ret.getStatus());
+        return ret;
+    }
+
+    /**
+     * trade a refresh token for a new access token and a new refresh token,the old refresh token is revoked.
+     * no password is hashed,so it's much cheaper than authenticate
+     *
+     * @param refreshToken
+     * @return an object contains an int code,and the new tokens while success
+     */
+    public Result<TokenPair> refresh(String refreshToken) {
+        long start = this.metrics.start();
+        Result<TokenPair> ret = this.doRefresh(refreshToken);
+        this.metrics.record(Operation.REFRESH, start, ret.getStatus());
+        return ret;
+    }
+
+    private Result<TokenPair> doRefresh(String refreshToken) {
+        if (refreshToken == null) {
+            return Result.fail(PARAMS_ERROR);
+        }
+        if (this.refreshTokens == null) {
+            return Result.fail(INVALID_TOKEN);
+        }
+
+        try {
+            //only one of the concurrent refreshes of a token gets it
+            Token old = this.refreshTokens.take(refreshToken);
+            if (old == null) {
+                return Result.fail(INVALID_TOKEN);
+            }
+            this.refreshSessions.remove(old.getUserName(), refreshToken);
+            if (System.currentTimeMillis() > old.getExpireTime()) {
+                return Result.fail(TOKEN_EXPIRED);
+            }
+            String userName = old.getUserName();
+            ReentrantReadWriteLock.ReadLock userLock = this.userLocks.get(userName).readLock();
+            this.metrics.lock(userLock, MeteredLock.USER_LOCK);
+            try {
+                if (!this.userMap.containsKey(userName)) {
+                    return Result.fail(USER_NOT_EXIST);
+                }
+                return Result.success(new TokenPair(this.issue(userName), this.issueRefresh(userName)));
+            } finally {
+                userLock.unlock();
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("token=%s", refreshToken), e);
+            return Result.fail(INNER_ERROR);
+        }
+    }
+
+    /**
+     * unregister the given token
+     *
+     * @param token
      */
     public void invalidate(String token) {
+        long start = this.metrics.start();
+        this.doInvalidate(token);
+        this.metrics.record(Operation.INVALIDATE, start, SUCCESS);
+    }
+
+    private void doInvalidate(String token) {
         if (token == null) {
             return;
         }
 
-        ReentrantReadWriteLock.WriteLock authLock = this.authLock.writeLock();
         try {
-            authLock.lock();
-            this.tokenMap.remove(token);
+            //only the answers of the token's user may be cached,an unknown token has none
+            Token revoked = new Token();
+            boolean known = this.tokenStore.resolve(token, revoked);
+            this.unindex(token);
+            this.tokenStore.revoke(token);
+            if (this.refreshTokens != null) {
+                this.refreshTokens.revoke(token);
+            }
+            if (known) {
+                this.touchUser(revoked.getUserName());
+            }
+            if (this.changes != null) {
+                this.changes.publish(ChangeType.REVOKE_TOKEN, null, null, ChangeEvent.hashToken(token));
+            }
+            if (this.listener != null) {
+                this.listener.onTokenRevoked(token);
+            }
         } catch (Exception e) {
             log.log(Level.WARNING, String.format("token=%s", token), e);
-        } finally {
-            if (authLock != null) {
-                authLock.unlock();
+        }
+    }
+
+    /**
+     * unregister all the access and refresh tokens of the user,the user may be deleted already.
+     * with max_sessions_per_user the tokens are found in the user's index,so it costs as many revokes as the user has
+     * tokens,without it the access tokens created up to now are cut off at once
+     *
+     * @param userName
+     * @return 0 or an error code.
+     */
+    public int invalidateAllForUser(String userName) {
+        long start = this.metrics.start();
+        int code = this.doInvalidateAllForUser(userName);
+        this.metrics.record(Operation.INVALIDATE_ALL_FOR_USER, start, code);
+        return code;
+    }
+
+    private int doInvalidateAllForUser(String userName) {
+        if (userName == null) {
+            return PARAMS_ERROR;
+        }
+        //a token issued meanwhile is indexed after the removal and stays valid.
+        //the dead ones are skipped,their revoke would only stale the caches and the replicas for nothing
+        long now = System.currentTimeMillis();
+        if (this.sessions == null) {
+            this.cutSessions(userName, true);
+        } else {
+            for (String token : this.sessions.removeAll(userName)) {
+                if (this.tokenStore.isLive(token, now)) {
+                    this.doInvalidate(token);
+                }
             }
         }
+        if (this.refreshSessions != null) {
+            for (String token : this.refreshSessions.removeAll(userName)) {
+                if (this.refreshTokens.isLive(token, now)) {
+                    this.doInvalidate(token);
+                }
+            }
+        }
+        return SUCCESS;
+    }
+
+    /**
+     * remove a token to be revoked from the session index of its user
+     *
+     * @param token an access or a refresh token
+     */
+    private void unindex(String token) {
+        Token obj = lookups.get();
+        if (this.tokenStore.resolve(token, obj)) {
+            if (this.sessions != null) {
+                this.sessions.remove(obj.getUserName(), token);
+            }
+        } else if (this.refreshSessions != null && this.refreshTokens.resolve(token, obj)) {
+            this.refreshSessions.remove(obj.getUserName(), token);
+        }
+    }
+
+    /**
+     * invalidate the access tokens of the user created up to now,without a session index
+     *
+     * @param userName
+     * @param notify false for a cutoff made by another node
+     */
+    private void cutSessions(String userName, boolean notify) {
+        this.cutSessions(userName, System.currentTimeMillis(), notify);
+    }
+
+    private void cutSessions(String userName, long cutoff, boolean notify) {
+        this.sessionCutoffs.merge(userName, cutoff, Math::max);
+        this.touchUser(userName);
+        if (this.changes != null) {
+            this.changes.publish(ChangeType.REVOKE_TOKEN, userName, null, null);
+        }
+        if (notify && this.listener != null) {
+            this.listener.onSessionsRevoked(userName, cutoff);
+        }
+    }
+
+    /**
+     * resolve an access token,the ones cut off with their user's sessions aren't
+     *
+     * @param token
+     * @param into
+     * @return false if it's unknown,revoked or cut off
+     */
+    private boolean resolveAccess(String token, Token into) {
+        if (!this.tokenStore.resolve(token, into)) {
+            return false;
+        }
+        Long cutoff = this.sessionCutoffs.isEmpty() ? null : this.sessionCutoffs.get(into.getUserName());
+        return cutoff == null || into.getCreateTime() > cutoff;
+    }
+
+    private void sweepSessions() {
+        try {
+            if (this.sessions != null) {
+                this.sessions.sweep();
+            } else if (!this.slidingExpiry) {
+                //every token created before the cutoff has expired,a sliding one may still be extended
+                long now = System.currentTimeMillis();
+                this.sessionCutoffs.values().removeIf(cutoff -> cutoff + this.tokenExpireMillis < now);
+            }
+            if (this.refreshSessions != null) {
+                this.refreshSessions.sweep();
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "session sweep error", e);
+        }
+    }
+
+    /**
+     * @param userName
+     * @return the count of the live access tokens of the user,0 while max_sessions_per_user is 0 since they aren't
+     * indexed
+     */
+    public int countSessions(String userName) {
+        return userName == null || this.sessions == null ? 0 : this.sessions.count(userName);
     }
 
     /**
@@ -383,41 +1683,198 @@ public class AuthService {
      * @return returns true if the user identified by the token,belongs to the roleName, otherwise returns false
      */
     public Result<Boolean> checkRole(String token, String roleName) {
+        return this.checkRole(token, roleName, null);
+    }
+
+    /**
+     * checkRole for a near-cache,it also tells how long the answer may be reused while the change version stays
+     *
+     * @param token
+     * @param roleName
+     * @param stamp receives the user,its change version and the time the answer must be checked again,the token
+     * expiry,or half way to it while a check moves the expiry
+     * @return as checkRole
+     */
+    Result<Boolean> checkRole(String token, String roleName, CheckStamp stamp) {
+        long start = this.metrics.start();
+        Result<Boolean> ret = this.doCheckRole(token, roleName, stamp);
+        this.metrics.record(Operation.CHECK_ROLE, start, ret.getStatus());
+        return ret;
+    }
+
+    private Result<Boolean> doCheckRole(String token, String roleName, CheckStamp stamp) {
         //error if token is invalid,expired etc
         if (token == null || roleName == null) {
             return Result.fail(PARAMS_ERROR);
         }
 
-        ReentrantReadWriteLock.ReadLock authLock = this.authLock.readLock();
-        ReentrantReadWriteLock.ReadLock roleLock = this.roleLock.readLock();
+        //lock free,the grants are immutable snapshots
         try {
-            roleLock.lock();
-            authLock.lock();
+            Token obj = lookups.get();
+            if (!this.resolveAccess(token, obj)) {
+                return Result.fail(INVALID_TOKEN);
+            }
+            if (stamp != null) {
+                //the version is read before the token and the grants the answer derives from,so a revoke or a change
+                //made meanwhile bumps it past,the token is resolved again after it
+                stamp.userName = obj.getUserName();
+                stamp.version = this.getChangeVersion(stamp.userName);
+                if (!this.resolveAccess(token, obj)) {
+                    return Result.fail(INVALID_TOKEN);
+                }
+            }
+            long now = System.currentTimeMillis();
+            if (now > obj.getExpireTime()) {
+                return Result.fail(TOKEN_EXPIRED);
+            }
+            if (stamp != null) {
+                //a cached answer doesn't touch the token,check again before it would expire unused
+                stamp.validUntil = this.slidingExpiry ? now + (obj.getExpireTime() - now) / 2 : obj.getExpireTime();
+            }
+            return Result.success(this.hasRole(obj.getUserName(), roleName));
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("token=%s", token), e);
+        }
+
+        return Result.fail(INNER_ERROR);
+    }
+
+    /**
+     * check several roles of the user,the token is resolved once
+     *
+     * @param token
+     * @param roleNames
+     * @return key=roleName in iteration order, value=true if the user belongs to the role
+     */
+    public Result<Map<String, Boolean>> checkRoles(String token, Collection<String> roleNames) {
+        long start = this.metrics.start();
+        Result<Map<String, Boolean>> ret = this.doCheckRoles(token, roleNames);
+        this.metrics.record(Operation.CHECK_ROLES, start, ret.getStatus());
+        return ret;
+    }
 
-            Token obj = this.tokenMap.get(token);
-            if (obj == null) {
+    private Result<Map<String, Boolean>> doCheckRoles(String token, Collection<String> roleNames) {
+        if (token == null || roleNames == null) {
+            return Result.fail(PARAMS_ERROR);
+        }
+
+        //lock free,the grants are immutable snapshots
+        try {
+            Token obj = lookups.get();
+            if (!this.resolveAccess(token, obj)) {
                 return Result.fail(INVALID_TOKEN);
             }
-            if (System.currentTimeMillis() - obj.getCreateTime()
-                > AuthProperties.getInstance().getTokenExpireSeconds() * 1000) {
+            if (System.currentTimeMillis() > obj.getExpireTime()) {
                 return Result.fail(TOKEN_EXPIRED);
             }
-            Set<String> roles = this.authMap.get(obj.getUserName());
-            return Result.success(roles != null && roles.contains(roleName));
+            Map<String, Boolean> checks = new LinkedHashMap<>();
+            for (String roleName : roleNames) {
+                if (roleName == null) {
+                    return Result.fail(PARAMS_ERROR);
+                }
+                checks.put(roleName, this.hasRole(obj.getUserName(), roleName));
+            }
+            return Result.success(checks);
         } catch (Exception e) {
             log.log(Level.WARNING, String.format("token=%s", token), e);
-        } finally {
-            if (authLock != null) {
-                authLock.unlock();
+        }
+
+        return Result.fail(INNER_ERROR);
+    }
+
+    /**
+     * check whether the user may perform the action on the resource,through the permissions of the roles the user's
+     * grants imply
+     *
+     * @param token
+     * @param action
+     * @param resource such as "account:42"
+     * @return true if any permission allows it
+     */
+    public Result<Boolean> checkPermission(String token, String action, String resource) {
+        long start = this.metrics.start();
+        Result<Boolean> ret = this.doCheckPermission(token, action, resource);
+        this.metrics.record(Operation.CHECK_PERMISSION, start, ret.getStatus());
+        return ret;
+    }
+
+    private Result<Boolean> doCheckPermission(String token, String action, String resource) {
+        if (token == null || action == null || resource == null) {
+            return Result.fail(PARAMS_ERROR);
+        }
+
+        //lock free,the grants and the tries are immutable snapshots
+        try {
+            Token obj = lookups.get();
+            if (!this.resolveAccess(token, obj)) {
+                return Result.fail(INVALID_TOKEN);
             }
-            if (roleLock != null) {
-                roleLock.unlock();
+            if (System.currentTimeMillis() > obj.getExpireTime()) {
+                return Result.fail(TOKEN_EXPIRED);
             }
+            return Result.success(this.isPermitted(obj.getUserName(), action, resource));
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("token=%s", token), e);
         }
 
         return Result.fail(INNER_ERROR);
     }
 
+    /**
+     * @param userName
+     * @param action
+     * @param resource
+     * @return true if a role implied by the user's grants allows it
+     */
+    private boolean isPermitted(String userName, String action, String resource) {
+        while (true) {
+            long epoch = this.permissionEpoch;
+            RoleGrants grants = this.authMap.get(userName);
+            if (grants == null) {
+                return false;
+            }
+            boolean stable = (epoch & 1) == 0;
+            if (stable && this.decisions != null) {
+                Boolean allowed = this.decisions.get(userName, grants, epoch, action, resource);
+                if (allowed != null) {
+                    return allowed;
+                }
+            }
+            PermissionTrie[] matchers = this.roleMatchers;
+            boolean allowed = false;
+            for (int id = grants.nextImpliedBit(0); id >= 0 && !allowed; id = grants.nextImpliedBit(id + 1)) {
+                allowed = id < matchers.length && matchers[id] != null && matchers[id].allows(action, resource);
+            }
+            //a recycled id may have matched the permissions of another role,so it's only trusted without a change
+            if (stable && epoch == this.permissionEpoch) {
+                if (this.decisions != null) {
+                    this.decisions.put(userName, grants, epoch, action, resource, allowed);
+                }
+                return allowed;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @param userName
+     * @param roleName
+     * @return true if the user's grants implies the role
+     */
+    private boolean hasRole(String userName, String roleName) {
+        Role role = this.roleMap.get(roleName);
+        if (role == null) {
+            return false;
+        }
+        RoleGrants grants = this.authMap.get(userName);
+        if (grants == null || !grants.implies(role.getId())) {
+            return false;
+        }
+        //the id may have been recycled by a concurrent deleteRole/createRole
+        Role[] table = this.roleTable;
+        return role.getId() < table.length && table[role.getId()] == role;
+    }
+
     /**
      * get all roles
      *
@@ -425,74 +1882,421 @@ public class AuthService {
      * @return the all associated roles with the user,identified with the given token
      */
     public Result<Set<String>> getAllRoles(String token) {
+        long start = this.metrics.start();
+        Result<Set<String>> ret = this.doGetAllRoles(token);
+        this.metrics.record(Operation.GET_ALL_ROLES, start, ret.getStatus());
+        return ret;
+    }
+
+    private Result<Set<String>> doGetAllRoles(String token) {
         //error if token is invalid
         if (token == null) {
             return Result.fail(PARAMS_ERROR);
         }
 
-        ReentrantReadWriteLock.ReadLock authLock = this.authLock.readLock();
-        ReentrantReadWriteLock.ReadLock roleLock = this.roleLock.readLock();
+        //lock free,the returned set is an immutable snapshot
         try {
-            roleLock.lock();
-            authLock.lock();
-
-            Token obj = this.tokenMap.get(token);
-            if (obj == null) {
+            Token obj = lookups.get();
+            if (!this.resolveAccess(token, obj)) {
                 return Result.fail(INVALID_TOKEN);
             }
-            if (System.currentTimeMillis() - obj.getCreateTime()
-                > AuthProperties.getInstance().getTokenExpireSeconds() * 1000) {
+            if (System.currentTimeMillis() > obj.getExpireTime()) {
                 return Result.fail(INVALID_TOKEN);
             }
-            Set<String> roles = this.authMap.getOrDefault(obj.getUserName(), new HashSet<>());
-
-            return Result.success(roles);
+            return Result.success(this.getRoleNames(obj.getUserName()));
         } catch (Exception e) {
             log.log(Level.WARNING, String.format("token=%s", token), e);
             return Result.fail(INNER_ERROR);
-        } finally {
-            if (authLock != null) {
-                authLock.unlock();
+        }
+    }
+
+    /**
+     * get the users granted the role directly,the users granted a role that includes it aren't listed
+     *
+     * @param roleName
+     * @return an immutable copy of the user names,it may miss the grants made meanwhile
+     */
+    public Result<Set<String>> getUsersInRole(String roleName) {
+        long start = this.metrics.start();
+        Result<Set<String>> ret = this.doGetUsersInRole(roleName);
+        this.metrics.record(Operation.GET_USERS_IN_ROLE, start, ret.getStatus());
+        return ret;
+    }
+
+    private Result<Set<String>> doGetUsersInRole(String roleName) {
+        if (roleName == null) {
+            return Result.fail(PARAMS_ERROR);
+        }
+        //lock free,read from the reverse index
+        Set<String> members = this.roleMembers.get(roleName);
+        if (members == null) {
+            return Result.fail(ROLE_NOT_EXIST);
+        }
+        return Result.success(Collections.unmodifiableSet(new HashSet<>(members)));
+    }
+
+    /**
+     * count the users granted the role directly without copying them
+     *
+     * @param roleName
+     * @return an object contains an int code,and the count while success
+     */
+    public Result<Integer> countUsersInRole(String roleName) {
+        long start = this.metrics.start();
+        Result<Integer> ret = this.doCountUsersInRole(roleName);
+        this.metrics.record(Operation.COUNT_USERS_IN_ROLE, start, ret.getStatus());
+        return ret;
+    }
+
+    private Result<Integer> doCountUsersInRole(String roleName) {
+        if (roleName == null) {
+            return Result.fail(PARAMS_ERROR);
+        }
+        Set<String> members = this.roleMembers.get(roleName);
+        if (members == null) {
+            return Result.fail(ROLE_NOT_EXIST);
+        }
+        return Result.success(members.size());
+    }
+
+    /**
+     * apply a change made by another node,nothing is sent to the listener.
+     * it's applied only if it still makes sense here,e.g. a grant of a role that's already deleted is dropped,so the
+     * nodes converge as long as the changes of each user or role arrive in order
+     *
+     * @param record
+     * @return 0,or INNER_ERROR if it can't be journaled
+     */
+    public int applyReplicated(JournalRecord record) {
+        int code = this.doApplyReplicated(record);
+        return this.syncJournal(code);
+    }
+
+    private int doApplyReplicated(JournalRecord record) {
+        ReentrantReadWriteLock.ReadLock roleReadLock = this.roleLock.readLock();
+        ReentrantReadWriteLock.WriteLock roleWriteLock = this.roleLock.writeLock();
+        try {
+            switch (record.getType()) {
+                case CREATE_USER:
+                case UPDATE_PASSWORD:
+                case DELETE_USER:
+                    ReentrantReadWriteLock.WriteLock userLock = this.userLocks.get(record.getUserName()).writeLock();
+                    this.metrics.lock(userLock, MeteredLock.USER_LOCK);
+                    try {
+                        //a create overwrites,the others need the user
+                        if (record.getType() == RecordType.CREATE_USER
+                            || this.userMap.containsKey(record.getUserName())) {
+                            this.appendJournal(record);
+                            this.apply(record);
+                            this.publish(record);
+                        }
+                    } finally {
+                        userLock.unlock();
+                    }
+                    return SUCCESS;
+                case CREATE_ROLE:
+                    this.metrics.lock(roleWriteLock, MeteredLock.ROLE_LOCK);
+                    try {
+                        if (!this.roleMap.containsKey(record.getRoleName())) {
+                            this.appendJournal(record);
+                            this.apply(record);
+                            this.publish(record);
+                        }
+                    } finally {
+                        roleWriteLock.unlock();
+                    }
+                    return SUCCESS;
+                case DELETE_ROLE:
+                    this.metrics.lock(roleWriteLock, MeteredLock.ROLE_LOCK);
+                    int[] stripes = null;
+                    try {
+                        Role deleted = this.roleMap.get(record.getRoleName());
+                        if (deleted != null) {
+                            stripes = this.lockMembers(this.ancestorsOf(deleted.getId()));
+                            this.appendJournal(record);
+                            this.apply(record);
+                            this.publish(record);
+                        }
+                    } finally {
+                        if (stripes != null) {
+                            this.userLocks.writeUnlock(stripes);
+                        }
+                        roleWriteLock.unlock();
+                    }
+                    return SUCCESS;
+                case ADD_ROLE_PARENT:
+                    this.metrics.lock(roleWriteLock, MeteredLock.ROLE_LOCK);
+                    int[] parentStripes = null;
+                    try {
+                        Role role = this.roleMap.get(record.getRoleName());
+                        Role parent = this.roleMap.get(record.getParentName());
+                        if (role != null && parent != null
+                            && !this.closureOf(role.getId()).contains(parent.getId())) {
+                            parentStripes = this.lockMembers(this.ancestorsOf(parent.getId()));
+                            this.appendJournal(record);
+                            this.applyAddRoleParent(role, parent);
+                            this.publish(record);
+                        }
+                    } finally {
+                        if (parentStripes != null) {
+                            this.userLocks.writeUnlock(parentStripes);
+                        }
+                        roleWriteLock.unlock();
+                    }
+                    return SUCCESS;
+                case ADD_PERMISSION:
+                    this.metrics.lock(roleWriteLock, MeteredLock.ROLE_LOCK);
+                    try {
+                        Role role = this.roleMap.get(record.getRoleName());
+                        Permission permission = Permission.parse(record.getPermission());
+                        if (role != null && permission != null && !role.getPermissions().contains(permission)) {
+                            this.appendJournal(record);
+                            this.applyAddPermission(role, permission);
+                            this.publish(record);
+                        }
+                    } finally {
+                        roleWriteLock.unlock();
+                    }
+                    return SUCCESS;
+                case ADD_ROLE_TO_USER:
+                    this.metrics.lock(roleReadLock, MeteredLock.ROLE_LOCK);
+                    try {
+                        ReentrantReadWriteLock.WriteLock grantLock =
+                            this.userLocks.get(record.getUserName()).writeLock();
+                        this.metrics.lock(grantLock, MeteredLock.USER_LOCK);
+                        try {
+                            Role role = this.roleMap.get(record.getRoleName());
+                            if (this.userMap.containsKey(record.getUserName()) && role != null
+                                && !this.authMap.getOrDefault(record.getUserName(), RoleGrants.EMPTY)
+                                .contains(role.getId())) {
+                                this.appendJournal(record);
+                                this.applyGrant(record.getUserName(), role);
+                                this.publish(record);
+                            }
+                        } finally {
+                            grantLock.unlock();
+                        }
+                    } finally {
+                        roleReadLock.unlock();
+                    }
+                    return SUCCESS;
+                default:
+                    return PARAMS_ERROR;
             }
-            if (roleLock != null) {
-                roleLock.unlock();
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("type=%s, userName=%s, roleName=%s, value=%s", record.getType(),
+                record.getUserName(), record.getRoleName(), record.getValue()), e);
+            return INNER_ERROR;
+        }
+    }
+
+    /**
+     * keep a token issued by another node,nothing is sent to the listener
+     *
+     * @param token
+     * @param userName
+     * @param createTime
+     */
+    public void adoptToken(String token, String userName, long createTime) {
+        try {
+            this.tokenStore.adopt(token, userName, createTime);
+            if (this.sessions != null) {
+                this.sessions.add(userName, token, false);
             }
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("userName=%s", userName), e);
         }
     }
 
     /**
-     * password encoder
+     * invalidate the access tokens of the user another node cut off,nothing is sent to the listener
      *
-     * @param orignalPwd
-     * @return encoded string
-     * @throws UnsupportedEncodingException
-     * @throws NoSuchAlgorithmException
+     * @param userName
+     * @param cutoff the tokens created at or before it are invalid
      */
-    private static String encodePwd(String orignalPwd) throws UnsupportedEncodingException, NoSuchAlgorithmException {
-        //md5
-        byte[] array = getMD5(orignalPwd.getBytes("UTF-8"));
-        //reverse
-        for (int i = 0, j = array.length - 1; i < j; i++, j--) {
-            byte temp = array[i];
-            array[i] = array[j];
-            array[j] = temp;
+    public void revokeSessionsReplicated(String userName, long cutoff) {
+        try {
+            this.cutSessions(userName, cutoff, false);
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("userName=%s", userName), e);
         }
-        //md5 again
-        array = getMD5(array);
-        //base64
-        return Base64.encode(array);
     }
 
     /**
-     * md5 algorithm
+     * revoke a token revoked by another node,nothing is sent to the listener
      *
-     * @param data
-     * @return
-     * @throws NoSuchAlgorithmException
+     * @param token
      */
-    private static byte[] getMD5(byte[] data) throws NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("MD5");
-        digest.update(data);
-        return digest.digest();
+    public void revokeReplicated(String token) {
+        try {
+            Token revoked = new Token();
+            boolean known = this.tokenStore.resolve(token, revoked);
+            this.unindex(token);
+            this.tokenStore.revoke(token);
+            if (known) {
+                this.touchUser(revoked.getUserName());
+            }
+            if (this.changes != null) {
+                this.changes.publish(ChangeType.REVOKE_TOKEN, null, null, ChangeEvent.hashToken(token));
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, String.format("token=%s", token), e);
+        }
+    }
+
+    /**
+     * get the version of the role answers of the user,it's bumped after a change of the role graph,of the user's
+     * grants or of the user's tokens.the users of a lock stripe share their version,so a change of one of them makes
+     * the others stale too.an answer got after reading the version is still right while the version stays,e.g. for a
+     * near-cache
+     *
+     * @param userName
+     * @return the version
+     */
+    public long getChangeVersion(String userName) {
+        //both only grow,so the sum stays only while both stay
+        return this.changeVersion.get() + this.userVersions.get(this.userLocks.indexOf(userName));
+    }
+
+    private void touchUser(String userName) {
+        this.userVersions.incrementAndGet(this.userLocks.indexOf(userName));
+    }
+
+    /**
+     * get the stream of the changes of the users,roles,grants and revoked tokens,e.g. to drop the cached
+     * getAllRoles results,the expired tokens aren't published
+     *
+     * @return the stream,or null while change_stream_size is 0
+     */
+    public ChangeStream getChangeStream() {
+        return this.changes;
+    }
+
+    /**
+     * get the statistics of the background token expiry
+     *
+     * @return the evicted token count and sweep durations
+     */
+    public TokenExpiryStats getTokenExpiryStats() {
+        return this.tokenStore.getExpiryStats();
+    }
+
+    /**
+     * get the operation counters,latency histograms,lock waits and gauges,they're also exposed as an MXBean while
+     * metrics_jmx_name is set
+     *
+     * @return the metrics of this service
+     */
+    public AuthMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * write a snapshot of the users,roles and grants to snapshot_path,then drop the journal records it contains.
+     * the stripes are only held to read the journal position,the users and grants are copied under the roleLock read
+     * lock alone,so the logins,grants and checks go on,only the role changes wait for the copy.
+     * the copy may hold some user changes made after the position,their replay from it is idempotent
+     *
+     * @return 0,or INNER_ERROR if it's disabled or failed
+     */
+    public int writeSnapshot() {
+        long start = this.metrics.start();
+        int code = this.doWriteSnapshot();
+        this.metrics.record(Operation.WRITE_SNAPSHOT, start, code);
+        return code;
+    }
+
+    private int doWriteSnapshot() {
+        if (this.snapshotPath == null) {
+            return INNER_ERROR;
+        }
+        synchronized (this.snapshotLock) {
+            Role[] roles;
+            RoleGrants[] children;
+            List<User> users;
+            Map<String, RoleGrants> grants;
+            long position;
+            //the roles and their ids stay while the read lock is held,so the copied grants name the copied roles
+            ReentrantReadWriteLock.ReadLock roleLock = this.roleLock.readLock();
+            try {
+                this.metrics.lock(roleLock, MeteredLock.ROLE_LOCK);
+                //every record before the position is applied once the writers in flight are drained
+                this.userLocks.writeLockAll();
+                try {
+                    position = this.journal == null ? 0 : this.journal.getPosition();
+                } finally {
+                    this.userLocks.writeUnlockAll();
+                }
+                roles = this.roleTable;
+                children = this.roleChildren;
+                //weakly consistent,a user change after the position may or may not be copied
+                users = new ArrayList<>(this.userMap.values());
+                grants = new HashMap<>(this.authMap);
+            } catch (Exception e) {
+                log.log(Level.WARNING, "snapshot copy error", e);
+                return INNER_ERROR;
+            } finally {
+                roleLock.unlock();
+            }
+
+            try {
+                SnapshotFile.write(this.snapshotPath, position, roles, children, users, users.size(), grants);
+                if (this.journal != null) {
+                    this.journal.compact(position);
+                }
+                return SUCCESS;
+            } catch (Exception e) {
+                log.log(Level.WARNING, String.format("snapshot=%s", this.snapshotPath), e);
+                return INNER_ERROR;
+            }
+        }
+    }
+
+    /**
+     * stop the background work of a standalone service and close its journal
+     */
+    public void shutdown() {
+        if (this.snapshotExecutor != null) {
+            this.snapshotExecutor.shutdownNow();
+        }
+        this.sessionSweeper.shutdownNow();
+        this.tokenStore.shutdown();
+        if (this.refreshTokens != null) {
+            this.refreshTokens.shutdown();
+        }
+        this.metrics.unregisterMBean();
+        if (this.journal != null) {
+            try {
+                this.journal.close();
+            } catch (IOException e) {
+                log.log(Level.SEVERE, "journal close error", e);
+            }
+        }
+    }
+
+    /**
+     * resolve the role ids of the user's grants to role names
+     *
+     * @param userName
+     * @return an immutable set of role names
+     */
+    private Set<String> getRoleNames(String userName) {
+        while (true) {
+            RoleGrants grants = this.authMap.get(userName);
+            if (grants == null || grants.isEmpty()) {
+                return Collections.emptySet();
+            }
+            Role[] table = this.roleTable;
+            Set<String> names = new HashSet<>();
+            for (int id = grants.nextImpliedBit(0); id >= 0; id = grants.nextImpliedBit(id + 1)) {
+                if (id < table.length && table[id] != null) {
+                    names.add(table[id].getRoleName());
+                }
+            }
+            //a deleteRole replaces the grants before recycling an id,so an unchanged grants means the names are right
+            if (this.authMap.get(userName) == grants) {
+                return Collections.unmodifiableSet(names);
+            }
+        }
     }
 }
@@ -0,0 +1,22 @@
+package org.hsbc.homework.service;
+
+/**
+ * what a cache needs to keep a checkRole answer,filled in by the check
+ *
+ * @author BruceSu
+ */
+final class CheckStamp {
+
+    /**
+     * the user of the token
+     */
+    String userName;
+    /**
+     * the change version of the user read before the answer,see {@link AuthService#getChangeVersion(String)}
+     */
+    long version;
+    /**
+     * the answer must be checked again after it
+     */
+    long validUntil;
+}
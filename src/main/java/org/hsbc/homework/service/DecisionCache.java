@@ -0,0 +1,125 @@
+package org.hsbc.homework.service;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * the cached permission decisions of the users
+ * <p>
+ * the decisions of a user are kept with the grants and the permission epoch they were made for,so a new grants or a
+ * permission change makes them stale without touching the cache.a user keeps at most size decisions,the oldest set is
+ * dropped as a whole when it's full.at most about maxUsers users are kept,a new one drops arbitrary others,so an
+ * attacker cycling through the users can't grow the cache
+ *
+ * @author BruceSu
+ */
+final class DecisionCache {
+
+    private final int size;
+    private final int maxUsers;
+    /**
+     * key=userName
+     */
+    private final ConcurrentHashMap<String, Decisions> users = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    private static final class Decisions {
+        private final RoleGrants grants;
+        private final long epoch;
+        /**
+         * key=action, value=(key=resource, value=allowed)
+         */
+        private final ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>> actions =
+            new ConcurrentHashMap<>();
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Decisions(RoleGrants grants, long epoch) {
+            this.grants = grants;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * @param size the decisions kept per user,greater than 0
+     * @param maxUsers the users kept
+     */
+    DecisionCache(int size, int maxUsers) {
+        this.size = size;
+        this.maxUsers = Math.max(1, maxUsers);
+    }
+
+    /**
+     * @return the cached decision,or null if there is none for the grants and epoch
+     */
+    Boolean get(String userName, RoleGrants grants, long epoch, String action, String resource) {
+        Decisions decisions = this.users.get(userName);
+        if (decisions != null && decisions.grants == grants && decisions.epoch == epoch) {
+            ConcurrentHashMap<String, Boolean> resources = decisions.actions.get(action);
+            Boolean allowed = resources == null ? null : resources.get(resource);
+            if (allowed != null) {
+                this.hits.increment();
+                return allowed;
+            }
+        }
+        this.misses.increment();
+        return null;
+    }
+
+    void put(String userName, RoleGrants grants, long epoch, String action, String resource, boolean allowed) {
+        Decisions decisions = this.users.get(userName);
+        if (decisions == null || decisions.grants != grants || decisions.epoch != epoch
+            || decisions.count.get() >= this.size) {
+            if (decisions == null && this.users.size() >= this.maxUsers) {
+                this.evict(userName);
+            }
+            decisions = new Decisions(grants, epoch);
+            this.users.put(userName, decisions);
+        }
+        ConcurrentHashMap<String, Boolean> resources = decisions.actions.computeIfAbsent(action,
+            key -> new ConcurrentHashMap<>());
+        if (resources.put(resource, allowed) == null) {
+            decisions.count.incrementAndGet();
+        }
+    }
+
+    /**
+     * drop users other than the given one until there is room for it,the hash order makes them arbitrary
+     */
+    private void evict(String userName) {
+        Iterator<String> it = this.users.keySet().iterator();
+        while (this.users.size() >= this.maxUsers && it.hasNext()) {
+            if (!it.next().equals(userName)) {
+                it.remove();
+            }
+        }
+    }
+
+    void remove(String userName) {
+        this.users.remove(userName);
+    }
+
+    /**
+     * drop every decision,they are all stale after a permission change
+     */
+    void clear() {
+        this.users.clear();
+    }
+
+    /**
+     * @return the users with cached decisions
+     */
+    int size() {
+        return this.users.size();
+    }
+
+    long getHits() {
+        return this.hits.sum();
+    }
+
+    long getMisses() {
+        return this.misses.sum();
+    }
+}
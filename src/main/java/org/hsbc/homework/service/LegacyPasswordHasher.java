@@ -0,0 +1,74 @@
+package org.hsbc.homework.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * the original scheme: md5,reverse the bytes,then md5 again
+ * <p>
+ * the layout of the stored hash is [version][16 bytes digest]
+ *
+ * @author BruceSu
+ */
+public class LegacyPasswordHasher implements PasswordHasher {
+
+    public static final byte VERSION = 1;
+
+    private static final int DIGEST_LENGTH = 16;
+
+    private final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[DIGEST_LENGTH]);
+
+    @Override
+    public byte version() {
+        return VERSION;
+    }
+
+    @Override
+    public byte[] hash(String pwd) {
+        byte[] stored = new byte[DIGEST_LENGTH + 1];
+        stored[0] = VERSION;
+        digest(pwd, stored, 1);
+        return stored;
+    }
+
+    @Override
+    public boolean matches(String pwd, byte[] stored) {
+        if (stored.length != DIGEST_LENGTH + 1 || stored[0] != VERSION) {
+            return false;
+        }
+        byte[] buffer = this.buffers.get();
+        digest(pwd, buffer, 0);
+        return PasswordHashers.constantTimeEquals(buffer, 0, stored, 1, DIGEST_LENGTH);
+    }
+
+    private void digest(String pwd, byte[] out, int offset) {
+        MessageDigest digest = this.digests.get();
+        byte[] buffer = this.buffers.get();
+        try {
+            //md5
+            digest.update(pwd.getBytes(StandardCharsets.UTF_8));
+            digest.digest(buffer, 0, DIGEST_LENGTH);
+            //reverse
+            for (int i = 0, j = DIGEST_LENGTH - 1; i < j; i++, j--) {
+                byte temp = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = temp;
+            }
+            //md5 again
+            digest.update(buffer, 0, DIGEST_LENGTH);
+            digest.digest(out, offset, DIGEST_LENGTH);
+        } catch (DigestException e) {
+            digest.reset();
+            throw new IllegalStateException(e);
+        }
+    }
+}
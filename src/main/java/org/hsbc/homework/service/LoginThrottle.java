@@ -0,0 +1,134 @@
+package org.hsbc.homework.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * the admission of the logins before their password is hashed,a token bucket per user and one for all of them.
+ * <p>
+ * a bucket is a single AtomicLong,the time it's full again,so taking a token is one CAS and no lock(the GCRA form of
+ * the token bucket).a full bucket holds no state,the full ones are dropped once more than maxUsers are kept,a user
+ * over maxUsers with no full bucket to drop is only limited by the global bucket
+ *
+ * @author BruceSu
+ */
+final class LoginThrottle {
+
+    /**
+     * nanos per user token,0 if the users aren't limited
+     */
+    private final long userInterval;
+    /**
+     * userInterval * user burst
+     */
+    private final long userCapacity;
+    private final int maxUsers;
+    /**
+     * key=userName, value=the nano time the bucket is full again
+     */
+    private final ConcurrentHashMap<String, AtomicLong> users = new ConcurrentHashMap<>();
+    /**
+     * the earliest nano time of the next sweep of the full buckets
+     */
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+    private final long globalInterval;
+    private final long globalCapacity;
+    /**
+     * null if the logins aren't limited as a whole
+     */
+    private final AtomicLong global;
+
+    /**
+     * @param userRatePerMinute the attempts a user gets per minute,0 for no limit
+     * @param userBurst the attempts a user gets at once
+     * @param globalRatePerSecond the attempts all the users get per second,0 for no limit
+     * @param globalBurst the attempts all the users get at once
+     * @param maxUsers the user buckets kept
+     */
+    LoginThrottle(int userRatePerMinute, int userBurst, int globalRatePerSecond, int globalBurst, int maxUsers) {
+        this.userInterval = userRatePerMinute > 0 ? 60_000_000_000L / userRatePerMinute : 0;
+        this.userCapacity = this.userInterval * Math.max(1, userBurst);
+        this.maxUsers = Math.max(1, maxUsers);
+        this.globalInterval = globalRatePerSecond > 0 ? 1_000_000_000L / globalRatePerSecond : 0;
+        this.globalCapacity = this.globalInterval * Math.max(1, globalBurst);
+        this.global = this.globalInterval > 0 ? new AtomicLong(System.nanoTime()) : null;
+    }
+
+    /**
+     * take a token of the user and a global one,the user token is given back if the global bucket is empty,so the
+     * attempts refused as a whole don't count against the user
+     *
+     * @param userName
+     * @return false if either bucket is empty
+     */
+    boolean tryAcquire(String userName) {
+        long now = System.nanoTime();
+        AtomicLong bucket = null;
+        if (this.userInterval > 0) {
+            bucket = this.users.get(userName);
+            if (bucket == null) {
+                if (this.users.size() >= this.maxUsers) {
+                    this.sweep(now);
+                }
+                if (this.users.size() < this.maxUsers) {
+                    AtomicLong created = new AtomicLong(now);
+                    bucket = this.users.putIfAbsent(userName, created);
+                    if (bucket == null) {
+                        bucket = created;
+                    }
+                }
+            }
+            if (bucket != null && !take(bucket, now, this.userInterval, this.userCapacity)) {
+                return false;
+            }
+        }
+        if (this.global == null || take(this.global, now, this.globalInterval, this.globalCapacity)) {
+            return true;
+        }
+        if (bucket != null) {
+            //a time before now is a full bucket,so the refund never adds more than the token taken
+            bucket.addAndGet(-this.userInterval);
+        }
+        return false;
+    }
+
+    /**
+     * @return false if the bucket is empty
+     */
+    private static boolean take(AtomicLong bucket, long now, long interval, long capacity) {
+        while (true) {
+            long full = bucket.get();
+            long next = (full - now > 0 ? full : now) + interval;
+            if (next - now > capacity) {
+                return false;
+            }
+            if (bucket.compareAndSet(full, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * drop the full buckets,one thread at a time and at most once per user token interval.
+     * a token taken from a bucket while it's dropped is lost,the user gets one more attempt
+     */
+    private void sweep(long now) {
+        long next = this.nextSweep.get();
+        if (now - next < 0 || !this.nextSweep.compareAndSet(next, now + this.userInterval)) {
+            return;
+        }
+        for (Map.Entry<String, AtomicLong> entry : this.users.entrySet()) {
+            if (entry.getValue().get() - now <= 0) {
+                this.users.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the user buckets kept
+     */
+    int size() {
+        return this.users.size();
+    }
+}
@@ -0,0 +1,125 @@
+package org.hsbc.homework.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.entity.Token;
+
+/**
+ * keeps random tokens in a map,expired tokens are evicted by a {@link TokenExpiryEngine}
+ * <p>
+ * with the sliding expiry a resolve moves the expiry of a live token forward without any lock,only once the token has
+ * aged a touch interval,so the hot tokens aren't written on every check
+ *
+ * @author BruceSu
+ */
+class MapTokenStore implements TokenStore {
+
+    /**
+     * key=token string
+     */
+    private final ConcurrentHashMap<String, Token> tokenMap = new ConcurrentHashMap<>();
+    private final long ttlMillis;
+    private final int resizeTrigger;
+    private final TokenExpiryEngine expiryEngine;
+    private final TokenGenerator generator;
+    private final boolean sliding;
+    /**
+     * the least extension written by a sliding resolve
+     */
+    private final long touchMillis;
+
+    MapTokenStore(AuthProperties properties) {
+        this(properties.getTokenPrefix(), properties.getTokenExpireSeconds() * 1000L,
+            properties.getTokenResizeTrigger(), properties.getTokenSweepIntervalMillis(),
+            properties.isTokenSlidingExpiry());
+    }
+
+    MapTokenStore(String prefix, long ttlMillis, int resizeTrigger, long sweepIntervalMillis, boolean sliding) {
+        this.generator = new TokenGenerator(prefix);
+        this.ttlMillis = ttlMillis;
+        this.resizeTrigger = resizeTrigger;
+        this.sliding = sliding;
+        this.touchMillis = touchMillis(ttlMillis);
+        this.expiryEngine = new TokenExpiryEngine(sweepIntervalMillis, t -> this.tokenMap.remove(t.getToken(), t));
+    }
+
+    /**
+     * @param ttlMillis
+     * @return up to a second,so a sliding token expires at most that much early
+     */
+    static long touchMillis(long ttlMillis) {
+        return Math.max(1, Math.min(1000, ttlMillis / 16));
+    }
+
+    @Override
+    public String issue(String userName, long now) {
+        String token = this.generator.next();
+        this.adopt(token, userName, now);
+        return token;
+    }
+
+    @Override
+    public void adopt(String tokenString, String userName, long createTime) {
+        Token token = new Token();
+        token.setToken(tokenString);
+        token.setUserName(userName);
+        token.setCreateTime(createTime);
+        token.setExpireTime(createTime + this.ttlMillis);
+        this.tokenMap.put(token.getToken(), token);
+        this.expiryEngine.schedule(token);
+
+        //the sweep runs in the background,just bring it forward
+        if (this.tokenMap.size() > this.resizeTrigger) {
+            this.expiryEngine.requestSweep();
+        }
+    }
+
+    @Override
+    public Token resolve(String token) {
+        Token obj = this.tokenMap.get(token);
+        if (obj != null && this.sliding) {
+            long now = System.currentTimeMillis();
+            long expireTime = obj.getExpireTime();
+            if (now <= expireTime && now + this.ttlMillis - expireTime >= this.touchMillis) {
+                obj.extendExpireTime(now + this.ttlMillis);
+            }
+        }
+        return obj;
+    }
+
+    @Override
+    public boolean isLive(String token, long now) {
+        Token obj = this.tokenMap.get(token);
+        return obj != null && now <= obj.getExpireTime();
+    }
+
+    @Override
+    public void revoke(String token) {
+        this.tokenMap.remove(token);
+    }
+
+    /**
+     * revoke the token and return it,only one of the concurrent callers gets it
+     *
+     * @param token
+     * @return null if it's unknown or revoked,an expired token may still be returned
+     */
+    Token take(String token) {
+        return this.tokenMap.remove(token);
+    }
+
+    @Override
+    public int size() {
+        return this.tokenMap.size();
+    }
+
+    @Override
+    public TokenExpiryStats getExpiryStats() {
+        return this.expiryEngine.getStats();
+    }
+
+    @Override
+    public void shutdown() {
+        this.expiryEngine.shutdown();
+    }
+}
@@ -0,0 +1,40 @@
+package org.hsbc.homework.service;
+
+import org.hsbc.homework.journal.JournalRecord;
+
+/**
+ * receives the local changes of an AuthService,e.g. to replicate them.
+ * the calls are made while the service holds its locks,so they must return quickly and must not call the service
+ *
+ * @author BruceSu
+ */
+public interface MutationListener {
+
+    /**
+     * a user,role or grant change,called in the order it's applied to the user or role
+     *
+     * @param record
+     */
+    void onMutation(JournalRecord record);
+
+    /**
+     * @param token
+     * @param userName
+     * @param createTime
+     */
+    void onTokenIssued(String token, String userName, long createTime);
+
+    /**
+     * @param token
+     */
+    void onTokenRevoked(String token);
+
+    /**
+     * all the access tokens of the user created at or before the cutoff are revoked,sent only while the sessions
+     * aren't indexed
+     *
+     * @param userName
+     * @param cutoff time millis
+     */
+    void onSessionsRevoked(String userName, long cutoff);
+}
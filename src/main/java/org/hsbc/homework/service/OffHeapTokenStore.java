@@ -0,0 +1,561 @@
+package org.hsbc.homework.service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.entity.Token;
+
+/**
+ * keeps random tokens in off-heap open addressing tables keyed by their 128 bits
+ * <p>
+ * an entry is [long msb][long lsb][long createTime][int userId][int state] in a direct buffer,so a live token costs
+ * no heap object.the tables are split into segments,each guarded by a {@link StampedLock} that the lookups only
+ * validate optimistically.the user names are interned to ids counting the entries of the user,an id is recycled
+ * once its last entry is gone,a lookup reads the name before it validates,so a token can't resolve to the next
+ * user of its id.the expired entries are cleared before a segment grows,and by a periodic scan of the
+ * segments whose oldest entry expired more than a slack ago,so the scans are rare while the tokens churn.
+ * with the sliding expiry the createTime of an entry is its last access,a resolve rewrites it under the shared read
+ * lock once it has aged a touch interval
+ *
+ * @author BruceSu
+ */
+class OffHeapTokenStore implements TokenStore {
+
+    private static Logger log = LogManager.getLogManager().getLogger("global");
+
+    private static final int SEGMENT_BITS = 6;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int ENTRY = 32;
+    /**
+     * slots scanned per write lock by the sweep,so the lookups wait at most this long
+     */
+    private static final int SWEEP_CHUNK = 4096;
+    private static final int MSB = 0;
+    private static final int LSB = 8;
+    private static final int CREATE_TIME = 16;
+    private static final int USER_ID = 24;
+    private static final int STATE = 28;
+    private static final int EMPTY = 0;
+    private static final int LIVE = 1;
+    private static final int DELETED = 2;
+
+    private final long ttlMillis;
+    private final TokenGenerator generator;
+    private final long intervalMillis;
+    /**
+     * a segment is scanned once its oldest token expired this long ago,max(interval,ttl/16)
+     */
+    private final long slackMillis;
+    private final boolean sliding;
+    private final long touchMillis;
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+    /**
+     * key=userName, value=index in users
+     */
+    private final ConcurrentHashMap<String, Integer> userIds = new ConcurrentHashMap<>();
+    /**
+     * index=user id,null if free,grown copy on write while holding the userIds monitor
+     */
+    private volatile UserRef[] users = new UserRef[1024];
+    private int userCount;
+    /**
+     * the recycled ids,guarded by the userIds monitor
+     */
+    private final ArrayDeque<Integer> freeIds = new ArrayDeque<>();
+
+    /**
+     * a user id in use,a new one is created when the id is recycled
+     */
+    private static final class UserRef {
+        private final String userName;
+        /**
+         * the entries of the user plus the puts in progress,the id is freed when it drops to 0 and then stays 0
+         */
+        private final AtomicInteger entries = new AtomicInteger();
+
+        private UserRef(String userName) {
+            this.userName = userName;
+        }
+    }
+    private final LongAdder size = new LongAdder();
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong sweepCount = new AtomicLong();
+    private volatile long lastSweepEvicted;
+    private volatile long lastSweepNanos;
+    private volatile long maxSweepNanos;
+
+    OffHeapTokenStore(AuthProperties properties) {
+        this.ttlMillis = properties.getTokenExpireSeconds() * 1000L;
+        this.generator = new TokenGenerator(properties.getTokenPrefix());
+        this.intervalMillis = Math.max(1, properties.getTokenSweepIntervalMillis());
+        this.slackMillis = Math.max(this.intervalMillis, this.ttlMillis / 16);
+        this.sliding = properties.isTokenSlidingExpiry();
+        this.touchMillis = MapTokenStore.touchMillis(this.ttlMillis);
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment();
+        }
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "auth-token-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::sweep, this.intervalMillis, this.intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String issue(String userName, long now) {
+        String token = this.generator.next();
+        this.adopt(token, userName, now);
+        return token;
+    }
+
+    /**
+     * the nodes must share token_prefix,other tokens are ignored
+     */
+    @Override
+    public void adopt(String token, String userName, long now) {
+        if (!this.generator.isValid(token)) {
+            return;
+        }
+        long msb = this.generator.msb(token);
+        long lsb = this.generator.lsb(token);
+        int userId = this.acquireUserId(userName);
+        Segment segment = this.segmentOf(msb, lsb);
+        boolean added;
+        long stamp = segment.lock.writeLock();
+        try {
+            added = segment.put(msb, lsb, now, userId, now - this.ttlMillis - this.intervalMillis, this);
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+        if (added) {
+            this.size.increment();
+        } else {
+            //adopted twice,the entry kept holds the id already
+            this.releaseUserId(userId);
+        }
+    }
+
+    @Override
+    public Token resolve(String token) {
+        Token obj = new Token();
+        return this.resolve(token, obj) ? obj : null;
+    }
+
+    @Override
+    public boolean resolve(String token, Token into) {
+        return this.resolve(token, into, this.sliding);
+    }
+
+    @Override
+    public boolean isLive(String token, long now) {
+        Token obj = new Token();
+        return this.resolve(token, obj, false) && now <= obj.getExpireTime();
+    }
+
+    /**
+     * @param touch move the access time of a sliding token
+     */
+    private boolean resolve(String token, Token into, boolean touch) {
+        if (!this.generator.isValid(token)) {
+            return false;
+        }
+        long msb = this.generator.msb(token);
+        long lsb = this.generator.lsb(token);
+        Segment segment = this.segmentOf(msb, lsb);
+        //createTime and user name of the match,the name is null if none.
+        //the name is read before the validation,while the entry holds its id
+        long createTime = 0;
+        String userName = null;
+        long stamp = segment.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            int slot = segment.find(msb, lsb);
+            if (slot >= 0) {
+                createTime = segment.createTime(slot);
+                userName = this.userName(segment.userId(slot));
+            }
+        }
+        if (stamp == 0 || !segment.lock.validate(stamp)) {
+            stamp = segment.lock.readLock();
+            try {
+                int slot = segment.find(msb, lsb);
+                userName = slot < 0 ? null : this.userName(segment.userId(slot));
+                createTime = slot < 0 ? 0 : segment.createTime(slot);
+            } finally {
+                segment.lock.unlockRead(stamp);
+            }
+        }
+        if (userName == null) {
+            return false;
+        }
+        if (touch) {
+            long now = System.currentTimeMillis();
+            if (now <= createTime + this.ttlMillis && now - createTime >= this.touchMillis) {
+                createTime = this.touch(segment, msb, lsb, now);
+            }
+        }
+        into.setToken(token);
+        into.setUserName(userName);
+        into.setCreateTime(createTime);
+        into.setExpireTime(createTime + this.ttlMillis);
+        return true;
+    }
+
+    /**
+     * the shared read lock keeps the entry in its slot,concurrent touches write about the same time
+     *
+     * @return the new access time
+     */
+    private long touch(Segment segment, long msb, long lsb, long now) {
+        long stamp = segment.lock.readLock();
+        try {
+            int slot = segment.find(msb, lsb);
+            if (slot >= 0) {
+                segment.table.putLong(slot * ENTRY + CREATE_TIME, now);
+            }
+            return now;
+        } finally {
+            segment.lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void revoke(String token) {
+        if (!this.generator.isValid(token)) {
+            return;
+        }
+        long msb = this.generator.msb(token);
+        long lsb = this.generator.lsb(token);
+        Segment segment = this.segmentOf(msb, lsb);
+        long stamp = segment.lock.writeLock();
+        try {
+            if (segment.remove(msb, lsb, this)) {
+                this.size.decrement();
+            }
+        } finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.size.intValue();
+    }
+
+    @Override
+    public TokenExpiryStats getExpiryStats() {
+        return new TokenExpiryStats(this.evictedCount.get(), this.sweepCount.get(), this.lastSweepEvicted,
+            this.lastSweepNanos, this.maxSweepNanos);
+    }
+
+    @Override
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * evict the tokens expired at least one interval ago,one chunk of a segment at a time
+     */
+    void sweep() {
+        try {
+            long start = System.nanoTime();
+            long now = System.currentTimeMillis();
+            long deadline = now - this.ttlMillis - this.intervalMillis;
+            long evicted = 0;
+            for (Segment segment : this.segments) {
+                if (segment.oldest > now - this.ttlMillis - this.slackMillis) {
+                    continue;
+                }
+                //a growth between the chunks may skip some entries,the next sweep gets them
+                for (int from = 0; ; from += SWEEP_CHUNK) {
+                    long stamp = segment.lock.writeLock();
+                    try {
+                        if (from >= segment.capacity()) {
+                            break;
+                        }
+                        if (from == 0) {
+                            segment.oldest = Long.MAX_VALUE;
+                        }
+                        evicted += segment.evict(deadline, from, from + SWEEP_CHUNK, this);
+                    } finally {
+                        segment.lock.unlockWrite(stamp);
+                    }
+                }
+            }
+            this.evicted(evicted);
+            long nanos = System.nanoTime() - start;
+            this.sweepCount.incrementAndGet();
+            this.lastSweepEvicted = evicted;
+            this.lastSweepNanos = nanos;
+            if (nanos > this.maxSweepNanos) {
+                this.maxSweepNanos = nanos;
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "token sweep error", e);
+        }
+    }
+
+    private void evicted(long count) {
+        this.size.add(-count);
+        this.evictedCount.addAndGet(count);
+    }
+
+    /**
+     * get the id of the user for a new entry,its count is raised so the id isn't freed meanwhile
+     */
+    private int acquireUserId(String userName) {
+        Integer id = this.userIds.get(userName);
+        if (id != null) {
+            UserRef[] users = this.users;
+            UserRef ref = id < users.length ? users[id] : null;
+            if (ref != null && ref.userName.equals(userName)) {
+                //a count of 0 is being freed,the slow path takes over
+                for (int count = ref.entries.get(); count > 0; count = ref.entries.get()) {
+                    if (ref.entries.compareAndSet(count, count + 1)) {
+                        return id;
+                    }
+                }
+            }
+        }
+        synchronized (this.userIds) {
+            id = this.userIds.get(userName);
+            if (id == null) {
+                id = this.freeIds.isEmpty() ? this.userCount++ : this.freeIds.pop();
+                if (id >= this.users.length) {
+                    this.users = Arrays.copyOf(this.users, id * 2);
+                }
+                this.users[id] = new UserRef(userName);
+                this.userIds.put(userName, id);
+            }
+            //still mapped,so not freed yet
+            this.users[id].entries.incrementAndGet();
+            return id;
+        }
+    }
+
+    /**
+     * an entry of the id is gone,the id is freed with the last one
+     */
+    private void releaseUserId(int id) {
+        UserRef ref = this.users[id];
+        if (ref.entries.decrementAndGet() > 0) {
+            return;
+        }
+        synchronized (this.userIds) {
+            //a concurrent acquire under the monitor may have raised it again
+            if (ref.entries.get() == 0 && this.users[id] == ref) {
+                this.userIds.remove(ref.userName, id);
+                this.users[id] = null;
+                this.freeIds.push(id);
+            }
+        }
+    }
+
+    /**
+     * safe to call optimistically,a torn id gives a wrong or null name that the validation throws away
+     *
+     * @return the name or null
+     */
+    private String userName(int id) {
+        UserRef[] users = this.users;
+        UserRef ref = id >= 0 && id < users.length ? users[id] : null;
+        return ref == null ? null : ref.userName;
+    }
+
+    private Segment segmentOf(long msb, long lsb) {
+        return this.segments[(int) (hash(msb, lsb) >>> (64 - SEGMENT_BITS))];
+    }
+
+    private static long hash(long msb, long lsb) {
+        long h = (msb ^ lsb) * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * an open addressing table with linear probing,guarded by its lock
+     */
+    private static final class Segment {
+
+        final StampedLock lock = new StampedLock();
+        /**
+         * volatile,the optimistic lookups dereference it before they validate
+         */
+        volatile ByteBuffer table = allocate(INITIAL_CAPACITY);
+        /**
+         * live entries
+         */
+        int live;
+        /**
+         * live and deleted entries,the deleted ones still lengthen the probes
+         */
+        int used;
+        /**
+         * a lower bound of the live create times,exact after a rehash
+         */
+        volatile long oldest = Long.MAX_VALUE;
+
+        private static ByteBuffer allocate(int capacity) {
+            return ByteBuffer.allocateDirect(capacity * ENTRY).order(ByteOrder.nativeOrder());
+        }
+
+        /**
+         * safe to call optimistically,the table is read once
+         *
+         * @return the slot of the live entry or -1
+         */
+        int find(long msb, long lsb) {
+            ByteBuffer table = this.table;
+            int mask = table.capacity() / ENTRY - 1;
+            int slot = (int) hash(msb, lsb) & mask;
+            for (int probes = 0; probes <= mask; probes++) {
+                int offset = slot * ENTRY;
+                int state = table.getInt(offset + STATE);
+                if (state == EMPTY) {
+                    return -1;
+                }
+                if (state == LIVE && table.getLong(offset + MSB) == msb && table.getLong(offset + LSB) == lsb) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        long createTime(int slot) {
+            return this.table.getLong(slot * ENTRY + CREATE_TIME);
+        }
+
+        int userId(int slot) {
+            return this.table.getInt(slot * ENTRY + USER_ID);
+        }
+
+        /**
+         * @return false if the key is live already
+         */
+        boolean put(long msb, long lsb, long createTime, int userId, long deadline, OffHeapTokenStore store) {
+            if (this.find(msb, lsb) >= 0) {
+                return false;
+            }
+            int capacity = this.table.capacity() / ENTRY;
+            //keep the load under a half,drop the expired entries before growing
+            if ((this.used + 1) * 2 > capacity) {
+                this.oldest = Long.MAX_VALUE;
+                store.evicted(this.evict(deadline, 0, capacity, store));
+                this.rehash(this.live * 4 > capacity ? capacity * 2 : capacity);
+            }
+            ByteBuffer table = this.table;
+            int mask = table.capacity() / ENTRY - 1;
+            int slot = (int) hash(msb, lsb) & mask;
+            while (table.getInt(slot * ENTRY + STATE) == LIVE) {
+                slot = (slot + 1) & mask;
+            }
+            int offset = slot * ENTRY;
+            if (table.getInt(offset + STATE) == EMPTY) {
+                this.used++;
+            }
+            table.putLong(offset + MSB, msb);
+            table.putLong(offset + LSB, lsb);
+            table.putLong(offset + CREATE_TIME, createTime);
+            table.putInt(offset + USER_ID, userId);
+            table.putInt(offset + STATE, LIVE);
+            this.live++;
+            if (createTime < this.oldest) {
+                this.oldest = createTime;
+            }
+            return true;
+        }
+
+        boolean remove(long msb, long lsb, OffHeapTokenStore store) {
+            int slot = this.find(msb, lsb);
+            if (slot < 0) {
+                return false;
+            }
+            this.table.putInt(slot * ENTRY + STATE, DELETED);
+            this.live--;
+            store.releaseUserId(this.userId(slot));
+            return true;
+        }
+
+        int capacity() {
+            return this.table.capacity() / ENTRY;
+        }
+
+        /**
+         * @param deadline
+         * @param from the first slot
+         * @param to the slot after the last one,may exceed the capacity
+         * @param store releases the user ids of the deleted entries
+         * @return the count of the entries created before the deadline,now deleted,the survivors lower the oldest
+         */
+        int evict(long deadline, int from, int to, OffHeapTokenStore store) {
+            ByteBuffer table = this.table;
+            int evicted = 0;
+            long oldest = this.oldest;
+            int end = Math.min(to, this.capacity()) * ENTRY;
+            for (int offset = from * ENTRY; offset < end; offset += ENTRY) {
+                if (table.getInt(offset + STATE) != LIVE) {
+                    continue;
+                }
+                long createTime = table.getLong(offset + CREATE_TIME);
+                if (createTime <= deadline) {
+                    table.putInt(offset + STATE, DELETED);
+                    store.releaseUserId(table.getInt(offset + USER_ID));
+                    evicted++;
+                } else if (createTime < oldest) {
+                    oldest = createTime;
+                }
+            }
+            this.oldest = oldest;
+            this.live -= evicted;
+            return evicted;
+        }
+
+        /**
+         * copy the live entries into a new table,the deleted ones are dropped
+         */
+        private void rehash(int capacity) {
+            ByteBuffer old = this.table;
+            ByteBuffer table = allocate(capacity);
+            int mask = capacity - 1;
+            long oldest = Long.MAX_VALUE;
+            for (int offset = 0; offset < old.capacity(); offset += ENTRY) {
+                if (old.getInt(offset + STATE) != LIVE) {
+                    continue;
+                }
+                long msb = old.getLong(offset + MSB);
+                long lsb = old.getLong(offset + LSB);
+                int slot = (int) hash(msb, lsb) & mask;
+                while (table.getInt(slot * ENTRY + STATE) != EMPTY) {
+                    slot = (slot + 1) & mask;
+                }
+                int to = slot * ENTRY;
+                table.putLong(to + MSB, msb);
+                table.putLong(to + LSB, lsb);
+                long createTime = old.getLong(offset + CREATE_TIME);
+                oldest = Math.min(oldest, createTime);
+                table.putLong(to + CREATE_TIME, createTime);
+                table.putInt(to + USER_ID, old.getInt(offset + USER_ID));
+                table.putInt(to + STATE, LIVE);
+            }
+            this.table = table;
+            this.used = this.live;
+            this.oldest = oldest;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package org.hsbc.homework.service;
+
+/**
+ * password hashing scheme
+ * <p>
+ * every stored hash starts with the {@link #version()} byte of the scheme that produced it,so the hashes of different
+ * schemes can live side by side and an outdated one is rehashed at the next successful authentication.
+ * implementations must be thread safe
+ *
+ * @author BruceSu
+ */
+public interface PasswordHasher {
+
+    /**
+     * @return the version byte prefixed to the hashes of this scheme
+     */
+    byte version();
+
+    /**
+     * @param pwd the original password
+     * @return the stored form of the password,prefixed by {@link #version()}
+     */
+    byte[] hash(String pwd);
+
+    /**
+     * compare in constant time
+     *
+     * @param pwd the original password
+     * @param stored a hash produced by this scheme
+     * @return true if the password matches
+     */
+    boolean matches(String pwd, byte[] stored);
+
+    /**
+     * @param stored a hash of any scheme
+     * @return true if the hash should be replaced by a new one of this scheme
+     */
+    default boolean needsRehash(byte[] stored) {
+        return stored[0] != version();
+    }
+}
@@ -0,0 +1,67 @@
+package org.hsbc.homework.service;
+
+import org.hsbc.homework.config.AuthProperties;
+
+/**
+ * creates the configured {@link PasswordHasher} and finds the one able to verify a stored hash
+ *
+ * @author BruceSu
+ */
+final class PasswordHashers {
+
+    static final String LEGACY = "legacy";
+    static final String PBKDF2 = "pbkdf2";
+
+    private static final PasswordHasher LEGACY_HASHER = new LegacyPasswordHasher();
+    /**
+     * only verifies,the iteration count of the stored hash is used
+     */
+    private static final PasswordHasher PBKDF2_VERIFIER = new Pbkdf2PasswordHasher(1);
+
+    private PasswordHashers() {
+    }
+
+    /**
+     * @param properties
+     * @return the hasher of the new hashes
+     */
+    static PasswordHasher create(AuthProperties properties) {
+        if (PBKDF2.equals(properties.getPasswordHasher())) {
+            return new Pbkdf2PasswordHasher(properties.getPbkdf2Iterations());
+        }
+        return LEGACY_HASHER;
+    }
+
+    /**
+     * @param current the configured hasher
+     * @param stored a stored hash
+     * @return the hasher that produced the stored hash,or null if the version is unknown
+     */
+    static PasswordHasher forHash(PasswordHasher current, byte[] stored) {
+        if (stored.length == 0) {
+            return null;
+        }
+        if (stored[0] == current.version()) {
+            return current;
+        }
+        switch (stored[0]) {
+            case LegacyPasswordHasher.VERSION:
+                return LEGACY_HASHER;
+            case Pbkdf2PasswordHasher.VERSION:
+                return PBKDF2_VERIFIER;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * compare the ranges without an early exit
+     */
+    static boolean constantTimeEquals(byte[] a, int aOffset, byte[] b, int bOffset, int length) {
+        int diff = 0;
+        for (int i = 0; i < length; i++) {
+            diff |= a[aOffset + i] ^ b[bOffset + i];
+        }
+        return diff == 0;
+    }
+}
@@ -0,0 +1,89 @@
+package org.hsbc.homework.service;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * PBKDF2 with HMAC-SHA256 and a random salt,the cost is tunable by the iteration count
+ * <p>
+ * the layout of the stored hash is [version][4 bytes iterations][16 bytes salt][32 bytes key],so the hashes made
+ * with an older iteration count can still be verified
+ *
+ * @author BruceSu
+ */
+public class Pbkdf2PasswordHasher implements PasswordHasher {
+
+    public static final byte VERSION = 2;
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int KEY_LENGTH = 32;
+    private static final int HEADER_LENGTH = 1 + 4 + SALT_LENGTH;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<SecretKeyFactory> factories = ThreadLocal.withInitial(() -> {
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * @param iterations the cost of the new hashes
+     */
+    public Pbkdf2PasswordHasher(int iterations) {
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be positive");
+        }
+        this.iterations = iterations;
+    }
+
+    @Override
+    public byte version() {
+        return VERSION;
+    }
+
+    @Override
+    public byte[] hash(String pwd) {
+        byte[] salt = new byte[SALT_LENGTH];
+        this.random.nextBytes(salt);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + KEY_LENGTH);
+        buffer.put(VERSION).putInt(this.iterations).put(salt).put(derive(pwd, salt, this.iterations));
+        return buffer.array();
+    }
+
+    @Override
+    public boolean matches(String pwd, byte[] stored) {
+        if (stored.length != HEADER_LENGTH + KEY_LENGTH || stored[0] != VERSION) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(stored, 1, HEADER_LENGTH - 1);
+        int storedIterations = buffer.getInt();
+        byte[] salt = new byte[SALT_LENGTH];
+        buffer.get(salt);
+        byte[] key = derive(pwd, salt, storedIterations);
+        return PasswordHashers.constantTimeEquals(key, 0, stored, HEADER_LENGTH, KEY_LENGTH);
+    }
+
+    @Override
+    public boolean needsRehash(byte[] stored) {
+        return stored[0] != VERSION || stored.length < HEADER_LENGTH
+            || ByteBuffer.wrap(stored, 1, 4).getInt() != this.iterations;
+    }
+
+    private byte[] derive(String pwd, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(pwd.toCharArray(), salt, iterations, KEY_LENGTH * 8);
+        try {
+            return this.factories.get().generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
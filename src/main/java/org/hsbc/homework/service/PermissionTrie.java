@@ -0,0 +1,112 @@
+package org.hsbc.homework.service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import org.hsbc.homework.entity.Permission;
+
+/**
+ * the compiled permissions of a role,a trie of the resource pattern segments
+ * <p>
+ * a check walks the segments of the resource once,it only branches where a literal segment and a "*" segment are both
+ * allowed.it's immutable,so a published trie can be read without any lock
+ *
+ * @author BruceSu
+ */
+final class PermissionTrie {
+
+    private final Node root = new Node();
+
+    private static final class Node {
+        /**
+         * key=literal segment
+         */
+        private final Map<String, Node> children = new HashMap<>();
+        /**
+         * a "*" segment followed by more segments
+         */
+        private Node star;
+        /**
+         * the actions of the patterns ending at this node
+         */
+        private Set<String> actions;
+        /**
+         * the actions of the patterns ending with a "*" after this node,they match one or more segments
+         */
+        private Set<String> tailActions;
+    }
+
+    private PermissionTrie() {
+    }
+
+    /**
+     * @param permissions valid permissions
+     * @return a trie of the permissions
+     */
+    static PermissionTrie compile(Collection<Permission> permissions) {
+        PermissionTrie trie = new PermissionTrie();
+        for (Permission permission : permissions) {
+            String[] segments = permission.getResource().split(":");
+            Node node = trie.root;
+            for (int i = 0; i < segments.length - 1; i++) {
+                if (Permission.ANY.equals(segments[i])) {
+                    if (node.star == null) {
+                        node.star = new Node();
+                    }
+                    node = node.star;
+                } else {
+                    node = node.children.computeIfAbsent(segments[i], key -> new Node());
+                }
+            }
+            String last = segments[segments.length - 1];
+            if (Permission.ANY.equals(last)) {
+                node.tailActions = add(node.tailActions, permission.getAction());
+            } else {
+                node = node.children.computeIfAbsent(last, key -> new Node());
+                node.actions = add(node.actions, permission.getAction());
+            }
+        }
+        return trie;
+    }
+
+    private static Set<String> add(Set<String> actions, String action) {
+        Set<String> set = actions == null ? new HashSet<>() : actions;
+        set.add(action);
+        return set;
+    }
+
+    /**
+     * @param action
+     * @param resource
+     * @return true if a permission allows the action on the resource
+     */
+    boolean allows(String action, String resource) {
+        return !resource.isEmpty() && matches(this.root, action, resource, 0);
+    }
+
+    /**
+     * @param from the start of the next segment,there is at least one more segment
+     */
+    private static boolean matches(Node node, String action, String resource, int from) {
+        if (allows(node.tailActions, action)) {
+            return true;
+        }
+        int end = resource.indexOf(':', from);
+        boolean last = end < 0;
+        if (last) {
+            end = resource.length();
+        }
+        Node child = node.children.get(resource.substring(from, end));
+        if (child != null && (last ? allows(child.actions, action) : matches(child, action, resource, end + 1))) {
+            return true;
+        }
+        //a "*" followed by more segments never ends a pattern
+        return node.star != null && !last && matches(node.star, action, resource, end + 1);
+    }
+
+    private static boolean allows(Set<String> actions, String action) {
+        return actions != null && (actions.contains(action) || actions.contains(Permission.ANY));
+    }
+}
@@ -16,6 +16,9 @@ public class Result<T> {
      */
     private T retObj = null;
 
+    private static final Result<Boolean> TRUE = success(Boolean.TRUE);
+    private static final Result<Boolean> FALSE = success(Boolean.FALSE);
+
     private Result() {
 
     }
@@ -51,6 +54,16 @@ public class Result<T> {
         return result;
     }
 
+    /**
+     * the results are immutable,so the two boolean results are shared
+     *
+     * @param retObj
+     * @return a shared success result
+     */
+    public static Result<Boolean> success(boolean retObj) {
+        return retObj ? TRUE : FALSE;
+    }
+
     public static <T> Result<T> fail(int status) {
         Result<T> result = new Result<>();
         result.status = status;
@@ -0,0 +1,152 @@
+package org.hsbc.homework.service;
+
+import java.util.Arrays;
+
+/**
+ * an immutable bitset of role ids granted to a user,the bit index is {@link org.hsbc.homework.entity.Role#getId()}
+ * <p>
+ * every modification returns a new instance,so a published instance can be read without any lock.
+ * besides the granted bits it carries the implied bits,the granted roles and the roles they include,the service
+ * keeps them up to date so the checks never walk the role hierarchy
+ *
+ * @author BruceSu
+ */
+final class RoleGrants {
+
+    static final RoleGrants EMPTY = new RoleGrants(new long[0]);
+
+    private final long[] words;
+    /**
+     * the same array as words while no granted role includes another
+     */
+    private final long[] implied;
+
+    private RoleGrants(long[] words) {
+        this(words, words);
+    }
+
+    private RoleGrants(long[] words, long[] implied) {
+        this.words = words;
+        this.implied = implied;
+    }
+
+    /**
+     * @param id role id
+     * @return true if the bit of the role id is set
+     */
+    boolean contains(int id) {
+        int index = id >>> 6;
+        return index < words.length && (words[index] & (1L << id)) != 0;
+    }
+
+    /**
+     * @param id role id
+     * @return true if the role is granted or included by a granted role
+     */
+    boolean implies(int id) {
+        int index = id >>> 6;
+        return index < implied.length && (implied[index] & (1L << id)) != 0;
+    }
+
+    /**
+     * @param implied the implied bits,owned by the grants afterwards
+     * @return a grants of the same granted bits,or this if the implied bits are the same
+     */
+    RoleGrants implying(long[] implied) {
+        if (Arrays.equals(implied, this.implied)) {
+            return this;
+        }
+        return new RoleGrants(words, Arrays.equals(implied, words) ? words : implied);
+    }
+
+    /**
+     * @param id role id
+     * @return a grants with the bit set,or this if it's already set.the implied bits are only the granted ones
+     */
+    RoleGrants with(int id) {
+        if (contains(id)) {
+            return this;
+        }
+        int index = id >>> 6;
+        long[] copy = Arrays.copyOf(words, Math.max(words.length, index + 1));
+        copy[index] |= 1L << id;
+        return new RoleGrants(copy);
+    }
+
+    /**
+     * @param id role id
+     * @return a grants with the bit cleared,or this if it's not set.the implied bits are only the granted ones
+     */
+    RoleGrants without(int id) {
+        if (!contains(id)) {
+            return this;
+        }
+        long[] copy = words.clone();
+        copy[id >>> 6] &= ~(1L << id);
+        //trim the trailing empty words
+        int length = copy.length;
+        while (length > 0 && copy[length - 1] == 0) {
+            length--;
+        }
+        return length == 0 ? EMPTY : new RoleGrants(Arrays.copyOf(copy, length));
+    }
+
+    /**
+     * @param words the bits,owned by the grants afterwards
+     * @return a grants of the words
+     */
+    static RoleGrants of(long[] words) {
+        return words.length == 0 ? EMPTY : new RoleGrants(words);
+    }
+
+    /**
+     * @return the bits,must not be modified
+     */
+    long[] words() {
+        return words;
+    }
+
+    /**
+     * @return the implied bits,must not be modified
+     */
+    long[] impliedWords() {
+        return implied;
+    }
+
+    boolean isEmpty() {
+        return words.length == 0;
+    }
+
+    /**
+     * @param from the index to start checking from (inclusive)
+     * @return the index of the first bit set on or after from,or -1 if there is no such bit
+     */
+    int nextSetBit(int from) {
+        return nextSetBit(words, from);
+    }
+
+    /**
+     * @param from the index to start checking from (inclusive)
+     * @return the index of the first implied bit set on or after from,or -1 if there is no such bit
+     */
+    int nextImpliedBit(int from) {
+        return nextSetBit(implied, from);
+    }
+
+    private static int nextSetBit(long[] words, int from) {
+        int index = from >>> 6;
+        if (index >= words.length) {
+            return -1;
+        }
+        long word = words[index] & (-1L << from);
+        while (true) {
+            if (word != 0) {
+                return (index << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++index == words.length) {
+                return -1;
+            }
+            word = words[index];
+        }
+    }
+}
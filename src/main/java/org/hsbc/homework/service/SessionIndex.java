@@ -0,0 +1,130 @@
+package org.hsbc.homework.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * the live tokens of every user in issue order,so all of them are revoked without a scan of the store.
+ * <p>
+ * an invalidated token is removed at once,an expired one by the next add of its user or by the periodic
+ * {@link #sweep()},which also drops the users left with no token.every change of a user runs in the compute of its
+ * entry
+ *
+ * @author BruceSu
+ */
+final class SessionIndex {
+
+    private static final List<String> NONE = Collections.emptyList();
+
+    private final TokenStore store;
+    /**
+     * the most live tokens per user,0 for no limit
+     */
+    private final int maxSessions;
+    /**
+     * key=userName, value=the tokens,the oldest first
+     */
+    private final ConcurrentHashMap<String, ArrayDeque<String>> users = new ConcurrentHashMap<>();
+
+    /**
+     * @param store tells the live tokens
+     * @param maxSessions 0 for no limit
+     */
+    SessionIndex(TokenStore store, int maxSessions) {
+        this.store = store;
+        this.maxSessions = Math.max(0, maxSessions);
+    }
+
+    /**
+     * add a newly issued token of the user
+     *
+     * @param userName
+     * @param token
+     * @param limit false for a token adopted from another node,its owner enforces the limit
+     * @return the oldest live tokens over the limit,removed here and to be revoked by the caller
+     */
+    List<String> add(String userName, String token, boolean limit) {
+        List<String> evicted = new ArrayList<>(0);
+        long now = System.currentTimeMillis();
+        this.users.compute(userName, (k, tokens) -> {
+            if (tokens == null) {
+                tokens = new ArrayDeque<>(4);
+            }
+            while (!tokens.isEmpty() && !this.store.isLive(tokens.peekFirst(), now)) {
+                tokens.pollFirst();
+            }
+            tokens.addLast(token);
+            if (limit && this.maxSessions > 0 && tokens.size() > this.maxSessions) {
+                tokens.removeIf(t -> !this.store.isLive(t, now));
+                while (tokens.size() > this.maxSessions) {
+                    evicted.add(tokens.pollFirst());
+                }
+            }
+            return tokens;
+        });
+        return evicted.isEmpty() ? NONE : evicted;
+    }
+
+    /**
+     * remove an invalidated token
+     *
+     * @param userName
+     * @param token
+     */
+    void remove(String userName, String token) {
+        this.users.computeIfPresent(userName, (k, tokens) -> {
+            tokens.remove(token);
+            return tokens.isEmpty() ? null : tokens;
+        });
+    }
+
+    /**
+     * drop the expired tokens of every user,and the users left with none
+     */
+    void sweep() {
+        long now = System.currentTimeMillis();
+        for (String userName : this.users.keySet()) {
+            this.users.computeIfPresent(userName, (k, tokens) -> {
+                tokens.removeIf(t -> !this.store.isLive(t, now));
+                return tokens.isEmpty() ? null : tokens;
+            });
+        }
+    }
+
+    /**
+     * @param userName
+     * @return the tokens of the user,some may be revoked or expired already,they are all removed here
+     */
+    List<String> removeAll(String userName) {
+        ArrayDeque<String> tokens = this.users.remove(userName);
+        return tokens == null ? NONE : new ArrayList<>(tokens);
+    }
+
+    /**
+     * @param userName
+     * @return the live tokens of the user
+     */
+    int count(String userName) {
+        long now = System.currentTimeMillis();
+        int[] count = new int[1];
+        this.users.computeIfPresent(userName, (k, tokens) -> {
+            for (String token : tokens) {
+                if (this.store.isLive(token, now)) {
+                    count[0]++;
+                }
+            }
+            return tokens;
+        });
+        return count[0];
+    }
+
+    /**
+     * @return the users with an indexed token
+     */
+    int size() {
+        return this.users.size();
+    }
+}
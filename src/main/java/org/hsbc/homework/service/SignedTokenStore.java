@@ -0,0 +1,147 @@
+package org.hsbc.homework.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.entity.Token;
+
+/**
+ * issues self-contained tokens signed with HMAC-SHA256,so validating a token needs no lookup
+ * <p>
+ * the token format is base64url(userName).createTime.expireTime.id.base64url(hmac),the random id keeps apart the
+ * tokens of a user issued in the same millisecond.
+ * only the revoked tokens are kept in memory until they expire.the expiry is signed,so it doesn't slide,see
+ * token_sliding_expiry
+ *
+ * @author BruceSu
+ */
+class SignedTokenStore implements TokenStore {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final long ttlMillis;
+    /**
+     * the random ids of the tokens
+     */
+    private final TokenGenerator ids = new TokenGenerator("");
+    private final ThreadLocal<Mac> macs;
+    /**
+     * key=revoked token string,removed once the token expires
+     */
+    private final ConcurrentHashMap<String, Token> revokedMap = new ConcurrentHashMap<>();
+    private final TokenExpiryEngine expiryEngine;
+
+    SignedTokenStore(AuthProperties properties) {
+        this.ttlMillis = properties.getTokenExpireSeconds() * 1000L;
+        byte[] secret;
+        if (properties.getTokenHmacSecret().isEmpty()) {
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+        } else {
+            secret = Base64.getDecoder().decode(properties.getTokenHmacSecret());
+        }
+        SecretKeySpec key = new SecretKeySpec(secret, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        this.expiryEngine = new TokenExpiryEngine(properties.getTokenSweepIntervalMillis(),
+            t -> this.revokedMap.remove(t.getToken(), t));
+    }
+
+    @Override
+    public String issue(String userName, long now) {
+        String payload = ENCODER.encodeToString(userName.getBytes(StandardCharsets.UTF_8)) + '.' + now + '.'
+            + (now + this.ttlMillis) + '.' + this.ids.next();
+        return payload + '.' + ENCODER.encodeToString(sign(payload));
+    }
+
+    /**
+     * nothing to keep,the token verifies on every node sharing token_hmac_secret
+     */
+    @Override
+    public void adopt(String token, String userName, long createTime) {
+    }
+
+    @Override
+    public Token resolve(String token) {
+        Token obj = verify(token);
+        if (obj == null || this.revokedMap.containsKey(token)) {
+            return null;
+        }
+        return obj;
+    }
+
+    @Override
+    public void revoke(String token) {
+        Token obj = verify(token);
+        if (obj != null && obj.getExpireTime() >= System.currentTimeMillis()
+            && this.revokedMap.putIfAbsent(token, obj) == null) {
+            this.expiryEngine.schedule(obj);
+        }
+    }
+
+    @Override
+    public int size() {
+        return this.revokedMap.size();
+    }
+
+    @Override
+    public TokenExpiryStats getExpiryStats() {
+        return this.expiryEngine.getStats();
+    }
+
+    @Override
+    public void shutdown() {
+        this.expiryEngine.shutdown();
+    }
+
+    /**
+     * check the signature and decode the token
+     *
+     * @param token
+     * @return the decoded token or null if it's malformed or the signature mismatches
+     */
+    private Token verify(String token) {
+        //the names and the ids are base64url,so the fields are found from the left and there are exactly five
+        int createStart = token.indexOf('.');
+        int expireStart = createStart <= 0 ? -1 : token.indexOf('.', createStart + 1);
+        int expireEnd = expireStart < 0 ? -1 : token.indexOf('.', expireStart + 1);
+        int sigStart = expireEnd < 0 ? -1 : token.indexOf('.', expireEnd + 1);
+        if (sigStart < 0 || token.indexOf('.', sigStart + 1) >= 0) {
+            return null;
+        }
+        try {
+            String payload = token.substring(0, sigStart);
+            if (!MessageDigest.isEqual(sign(payload), DECODER.decode(token.substring(sigStart + 1)))) {
+                return null;
+            }
+            Token obj = new Token();
+            obj.setToken(token);
+            obj.setUserName(new String(DECODER.decode(token.substring(0, createStart)), StandardCharsets.UTF_8));
+            obj.setCreateTime(Long.parseLong(token.substring(createStart + 1, expireStart)));
+            obj.setExpireTime(Long.parseLong(token.substring(expireStart + 1, expireEnd)));
+            return obj;
+        } catch (IllegalArgumentException e) {
+            //bad base64 or number
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        return this.macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,230 @@
+package org.hsbc.homework.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import org.hsbc.homework.entity.Permission;
+import org.hsbc.homework.entity.Role;
+import org.hsbc.homework.entity.User;
+
+/**
+ * a compact binary image of the users,roles and grants
+ * <p>
+ * [int magic][int version][long journal position][roles][role parents][users][int crc32 of everything before].a
+ * role has its permissions,a role parent is a pair of role ids.the role names are written once in the role table,a
+ * user refers to them by the id bits of its grants.the counts and lengths are varints.the file is written aside
+ * and renamed,and loaded through a {@link MappedByteBuffer}
+ *
+ * @author BruceSu
+ */
+final class SnapshotFile {
+
+    private static final int MAGIC = 0x41534e50;
+    private static final int VERSION = 1;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * write the snapshot atomically
+     *
+     * @param path
+     * @param journalPosition the journal records from here aren't in the snapshot
+     * @param roles index=role id,may contain null
+     * @param children index=parent role id,value=the ids of its child roles,may contain null
+     * @param users
+     * @param userCount the size of users
+     * @param grants key=userName
+     * @throws IOException
+     */
+    static void write(Path path, long journalPosition, Role[] roles, RoleGrants[] children, Iterable<User> users,
+        int userCount, Map<String, RoleGrants> grants) throws IOException {
+        Path tmp = Paths.get(path + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile())) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(
+                new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(journalPosition);
+
+            int roleCount = 0;
+            for (Role role : roles) {
+                if (role != null) {
+                    roleCount++;
+                }
+            }
+            writeVarInt(out, roleCount);
+            for (Role role : roles) {
+                if (role != null) {
+                    writeVarInt(out, role.getId());
+                    writeBytes(out, role.getRoleName().getBytes(StandardCharsets.UTF_8));
+                    writeVarInt(out, role.getPermissions().size());
+                    for (Permission permission : role.getPermissions()) {
+                        writeBytes(out, permission.toString().getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+
+            int edgeCount = 0;
+            for (RoleGrants ids : children) {
+                for (int id = ids == null ? -1 : ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                    edgeCount++;
+                }
+            }
+            writeVarInt(out, edgeCount);
+            for (int parent = 0; parent < children.length; parent++) {
+                RoleGrants ids = children[parent];
+                for (int id = ids == null ? -1 : ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+                    writeVarInt(out, parent);
+                    writeVarInt(out, id);
+                }
+            }
+
+            writeVarInt(out, userCount);
+            int written = 0;
+            for (User user : users) {
+                writeBytes(out, user.getUserName().getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, user.getPwdHash());
+                long[] words = grants.getOrDefault(user.getUserName(), RoleGrants.EMPTY).words();
+                writeVarInt(out, words.length);
+                for (long word : words) {
+                    out.writeLong(word);
+                }
+                written++;
+            }
+            if (written != userCount) {
+                throw new IllegalStateException(String.format("users=%d, expected=%d", written, userCount));
+            }
+            out.flush();
+            //the crc itself isn't checked
+            new DataOutputStream(file).writeInt((int) crc.getValue());
+            file.getChannel().force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * load the snapshot,the roles are loaded before the role parents,and they are before the users
+     *
+     * @param path
+     * @param roles receives the roles
+     * @param parents receives the parent role id and the child role id
+     * @param users receives the users and their grants
+     * @return the journal position of the snapshot,or -1 if there is no snapshot
+     * @throws IOException if it's corrupt
+     */
+    static long load(Path path, Consumer<Role> roles, BiConsumer<Integer, Integer> parents,
+        BiConsumer<User, RoleGrants> users) throws IOException {
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE || size < 20) {
+                throw new IOException(String.format("snapshot %s has a bad size %d", path, size));
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            ByteBuffer body = buffer.duplicate();
+            body.limit((int) size - 4);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != buffer.getInt((int) size - 4)) {
+                throw new IOException(String.format("snapshot %s crc mismatch", path));
+            }
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if (magic != MAGIC || version != VERSION) {
+                throw new IOException(String.format("%s isn't a snapshot of version %d", path, VERSION));
+            }
+            long journalPosition = buffer.getLong();
+
+            byte[] scratch = new byte[256];
+            int roleCount = readVarInt(buffer);
+            for (int i = 0; i < roleCount; i++) {
+                Role role = new Role();
+                role.setId(readVarInt(buffer));
+                role.setRoleName(readString(buffer, scratch));
+                int permissionCount = readVarInt(buffer);
+                if (permissionCount > 0) {
+                    List<Permission> permissions = new ArrayList<>(permissionCount);
+                    for (int k = 0; k < permissionCount; k++) {
+                        permissions.add(Permission.parse(readString(buffer, scratch)));
+                    }
+                    role.setPermissions(Collections.unmodifiableList(permissions));
+                }
+                roles.accept(role);
+            }
+
+            int edgeCount = readVarInt(buffer);
+            for (int i = 0; i < edgeCount; i++) {
+                int parent = readVarInt(buffer);
+                parents.accept(parent, readVarInt(buffer));
+            }
+
+            int userCount = readVarInt(buffer);
+            for (int i = 0; i < userCount; i++) {
+                User user = new User();
+                user.setUserName(readString(buffer, scratch));
+                byte[] pwdHash = new byte[readVarInt(buffer)];
+                buffer.get(pwdHash);
+                user.setPwdHash(pwdHash);
+                long[] words = new long[readVarInt(buffer)];
+                for (int k = 0; k < words.length; k++) {
+                    words[k] = buffer.getLong();
+                }
+                users.accept(user, RoleGrants.of(words));
+            }
+            return journalPosition;
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        writeVarInt(out, value.length);
+        out.write(value);
+    }
+
+    private static String readString(ByteBuffer buffer, byte[] scratch) {
+        int length = readVarInt(buffer);
+        byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+        buffer.get(bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,125 @@
+package org.hsbc.homework.service;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.hsbc.homework.metrics.AuthMetrics;
+import org.hsbc.homework.metrics.MeteredLock;
+
+/**
+ * a fixed array of read write locks,a key is always guarded by the same stripe
+ * <p>
+ * to avoid deadlocks,whoever holds more than one stripe must acquire them in ascending index order
+ *
+ * @author BruceSu
+ */
+class StripedLock {
+
+    private final ReentrantReadWriteLock[] stripes;
+    private final int mask;
+    private final AuthMetrics metrics;
+
+    /**
+     * @param count stripe count,rounded up to a power of two
+     * @param metrics records the wait time of the batch acquisitions
+     */
+    StripedLock(int count, AuthMetrics metrics) {
+        this.metrics = metrics;
+        int size = 1;
+        while (size < count) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param key
+     * @return the stripe index of the key
+     */
+    int indexOf(String key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & this.mask;
+    }
+
+    /**
+     * @param key
+     * @return the lock guarding the key
+     */
+    ReentrantReadWriteLock get(String key) {
+        return this.stripes[indexOf(key)];
+    }
+
+    /**
+     * @param index
+     * @return the lock of the stripe index
+     */
+    ReentrantReadWriteLock getAt(int index) {
+        return this.stripes[index];
+    }
+
+    int size() {
+        return this.stripes.length;
+    }
+
+    /**
+     * @param keys null keys are skipped
+     * @return the distinct stripe indexes of the keys in ascending order
+     */
+    int[] indexesOf(Collection<String> keys) {
+        BitSet set = new BitSet(this.stripes.length);
+        for (String key : keys) {
+            if (key != null) {
+                set.set(indexOf(key));
+            }
+        }
+        return set.stream().toArray();
+    }
+
+    /**
+     * acquire the write locks of the stripes
+     *
+     * @param indexes in ascending order
+     */
+    void writeLock(int[] indexes) {
+        for (int index : indexes) {
+            this.metrics.lock(this.stripes[index].writeLock(), MeteredLock.USER_LOCK);
+        }
+    }
+
+    /**
+     * release the write locks of the stripes held by the current thread,in descending order
+     *
+     * @param indexes in ascending order
+     */
+    void writeUnlock(int[] indexes) {
+        for (int i = indexes.length - 1; i >= 0; i--) {
+            if (this.stripes[indexes[i]].isWriteLockedByCurrentThread()) {
+                this.stripes[indexes[i]].writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * acquire every write lock in ascending order
+     */
+    void writeLockAll() {
+        for (ReentrantReadWriteLock stripe : this.stripes) {
+            this.metrics.lock(stripe.writeLock(), MeteredLock.USER_LOCK);
+        }
+    }
+
+    /**
+     * release the write locks held by the current thread,in descending order
+     */
+    void writeUnlockAll() {
+        for (int i = this.stripes.length - 1; i >= 0; i--) {
+            if (this.stripes[i].isWriteLockedByCurrentThread()) {
+                this.stripes[i].writeLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.hsbc.homework.service;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.Logger;
+import org.hsbc.homework.entity.Token;
+
+/**
+ * evicts expired tokens in the background
+ * <p>
+ * tokens are queued into time buckets keyed by {@link Token#getExpireTime()},every sweep only drains the buckets
+ * that are entirely expired,so its cost is proportional to the evicted tokens rather than the live ones.
+ * an expired token lingers up to one more sweep interval,during which it's still reported as expired.
+ * a token whose expiry slid past its bucket is queued again instead of evicted
+ *
+ * @author BruceSu
+ */
+class TokenExpiryEngine {
+
+    private static Logger log = LogManager.getLogManager().getLogger("global");
+
+    private final long intervalMillis;
+    /**
+     * removes the token from its store,returns false if it was already gone
+     */
+    private final Predicate<Token> evictor;
+    /**
+     * key=expireTime / intervalMillis
+     */
+    private final ConcurrentSkipListMap<Long, Queue<Token>> buckets = new ConcurrentSkipListMap<>();
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean sweepRequested = new AtomicBoolean();
+
+    private final AtomicLong evictedCount = new AtomicLong();
+    private final AtomicLong sweepCount = new AtomicLong();
+    private volatile long lastSweepEvicted;
+    private volatile long lastSweepNanos;
+    private volatile long maxSweepNanos;
+
+    TokenExpiryEngine(long intervalMillis, Predicate<Token> evictor) {
+        this.intervalMillis = Math.max(1, intervalMillis);
+        this.evictor = evictor;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "auth-token-expiry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this::sweep, this.intervalMillis, this.intervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * track a newly issued token
+     *
+     * @param token
+     */
+    void schedule(Token token) {
+        this.buckets.computeIfAbsent(token.getExpireTime() / this.intervalMillis, k -> new ConcurrentLinkedQueue<>())
+            .add(token);
+    }
+
+    /**
+     * ask for a sweep ahead of the schedule,returns immediately
+     */
+    void requestSweep() {
+        if (this.sweepRequested.compareAndSet(false, true)) {
+            try {
+                this.executor.execute(this::sweep);
+            } catch (Exception e) {
+                this.sweepRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * drain the buckets whose every token expired at least one interval ago
+     */
+    void sweep() {
+        this.sweepRequested.set(false);
+        try {
+            long start = System.nanoTime();
+            long deadline = System.currentTimeMillis() - this.intervalMillis;
+            long evicted = 0;
+            Map.Entry<Long, Queue<Token>> entry;
+            while ((entry = this.buckets.firstEntry()) != null
+                && (entry.getKey() + 1) * this.intervalMillis <= deadline) {
+                this.buckets.remove(entry.getKey());
+                for (Token token : entry.getValue()) {
+                    if (token.getExpireTime() / this.intervalMillis > entry.getKey()) {
+                        this.schedule(token);
+                    } else if (this.evictor.test(token)) {
+                        evicted++;
+                    }
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            this.evictedCount.addAndGet(evicted);
+            this.sweepCount.incrementAndGet();
+            this.lastSweepEvicted = evicted;
+            this.lastSweepNanos = nanos;
+            if (nanos > this.maxSweepNanos) {
+                this.maxSweepNanos = nanos;
+            }
+        } catch (Exception e) {
+            log.log(Level.WARNING, "token sweep error", e);
+        }
+    }
+
+    TokenExpiryStats getStats() {
+        return new TokenExpiryStats(this.evictedCount.get(), this.sweepCount.get(), this.lastSweepEvicted,
+            this.lastSweepNanos, this.maxSweepNanos);
+    }
+
+    /**
+     * stop the background sweeps
+     */
+    void shutdown() {
+        this.executor.shutdownNow();
+    }
+}
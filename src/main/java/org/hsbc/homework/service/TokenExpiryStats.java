@@ -0,0 +1,65 @@
+package org.hsbc.homework.service;
+
+/**
+ * a point-in-time view of the token expiry engine counters
+ *
+ * @author BruceSu
+ */
+public class TokenExpiryStats {
+
+    /**
+     * tokens evicted since the service started
+     */
+    private final long evictedCount;
+    /**
+     * sweeps executed since the service started
+     */
+    private final long sweepCount;
+    /**
+     * tokens evicted by the last sweep
+     */
+    private final long lastSweepEvicted;
+    /**
+     * duration of the last sweep in nanoseconds
+     */
+    private final long lastSweepNanos;
+    /**
+     * the longest sweep in nanoseconds
+     */
+    private final long maxSweepNanos;
+
+    TokenExpiryStats(long evictedCount, long sweepCount, long lastSweepEvicted, long lastSweepNanos,
+        long maxSweepNanos) {
+        this.evictedCount = evictedCount;
+        this.sweepCount = sweepCount;
+        this.lastSweepEvicted = lastSweepEvicted;
+        this.lastSweepNanos = lastSweepNanos;
+        this.maxSweepNanos = maxSweepNanos;
+    }
+
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+
+    public long getSweepCount() {
+        return sweepCount;
+    }
+
+    public long getLastSweepEvicted() {
+        return lastSweepEvicted;
+    }
+
+    public long getLastSweepNanos() {
+        return lastSweepNanos;
+    }
+
+    public long getMaxSweepNanos() {
+        return maxSweepNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TokenExpiryStats{evicted=%d, sweeps=%d, lastEvicted=%d, lastNanos=%d, maxNanos=%d}",
+            evictedCount, sweepCount, lastSweepEvicted, lastSweepNanos, maxSweepNanos);
+    }
+}
@@ -0,0 +1,160 @@
+package org.hsbc.homework.service;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * generates random 128 bit tokens as prefix + 22 url safe base64 chars
+ * <p>
+ * every thread has its own CSPRNG,so unlike {@link java.util.UUID#randomUUID()} the threads don't serialize on one
+ * shared SecureRandom.the prefix,e.g. a shard or key id,is kept as is.the bits are decoded back without allocating,
+ * only the canonical spelling of the bits is accepted
+ *
+ * @author BruceSu
+ */
+public final class TokenGenerator {
+
+    /**
+     * the chars of the random part
+     */
+    public static final int RANDOM_LENGTH = 22;
+
+    private static final char[] ALPHABET =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+    /**
+     * index=char,value=its 6 bits or -1
+     */
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        Arrays.fill(DECODE, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = (byte) i;
+        }
+    }
+
+    /**
+     * seeds the per-thread generators,only used once per thread
+     */
+    private static final SecureRandom SEEDER = new SecureRandom();
+
+    private final String prefix;
+    private final ThreadLocal<State> states;
+
+    /**
+     * @param prefix put before the random part,may be empty
+     */
+    public TokenGenerator(String prefix) {
+        this.prefix = prefix;
+        this.states = ThreadLocal.withInitial(() -> new State(prefix));
+    }
+
+    /**
+     * @return a new token
+     */
+    public String next() {
+        State state = this.states.get();
+        state.random.nextBytes(state.bytes);
+        long msb = 0;
+        long lsb = 0;
+        for (int i = 0; i < 8; i++) {
+            msb = msb << 8 | (state.bytes[i] & 0xff);
+            lsb = lsb << 8 | (state.bytes[i + 8] & 0xff);
+        }
+        char[] chars = state.chars;
+        int p = this.prefix.length();
+        for (int i = 0; i < 10; i++) {
+            chars[p + i] = ALPHABET[(int) (msb >>> (58 - i * 6)) & 0x3f];
+        }
+        chars[p + 10] = ALPHABET[(int) ((msb & 0xf) << 2 | lsb >>> 62)];
+        for (int i = 0; i < 10; i++) {
+            chars[p + 11 + i] = ALPHABET[(int) (lsb >>> (56 - i * 6)) & 0x3f];
+        }
+        chars[p + 21] = ALPHABET[(int) (lsb & 0x3) << 4];
+        return new String(chars);
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @param token
+     * @return true if it's the prefix and the canonical encoding of 128 bits
+     */
+    boolean isValid(String token) {
+        int p = this.prefix.length();
+        if (token.length() != p + RANDOM_LENGTH || !token.startsWith(this.prefix)) {
+            return false;
+        }
+        for (int i = p; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c >= DECODE.length || DECODE[c] < 0) {
+                return false;
+            }
+        }
+        //the last char only carries 2 bits
+        return (DECODE[token.charAt(p + 21)] & 0xf) == 0;
+    }
+
+    /**
+     * @param token a valid token
+     * @return the high 64 bits
+     */
+    long msb(String token) {
+        int p = this.prefix.length();
+        long value = 0;
+        for (int i = 0; i < 10; i++) {
+            value = value << 6 | DECODE[token.charAt(p + i)];
+        }
+        return value << 4 | DECODE[token.charAt(p + 10)] >>> 2;
+    }
+
+    /**
+     * @param token a valid token
+     * @return the low 64 bits
+     */
+    long lsb(String token) {
+        int p = this.prefix.length();
+        long value = DECODE[token.charAt(p + 10)] & 0x3;
+        for (int i = 0; i < 10; i++) {
+            value = value << 6 | DECODE[token.charAt(p + 11 + i)];
+        }
+        return value << 2 | DECODE[token.charAt(p + 21)] >>> 4;
+    }
+
+    /**
+     * the buffers and the CSPRNG of a thread
+     */
+    private static final class State {
+
+        final SecureRandom random = newRandom();
+        final byte[] bytes = new byte[16];
+        final char[] chars;
+
+        State(String prefix) {
+            this.chars = new char[prefix.length() + RANDOM_LENGTH];
+            prefix.getChars(0, prefix.length(), this.chars, 0);
+        }
+
+        /**
+         * a generator with its own state,the default one may read a shared source under a global lock
+         */
+        private static SecureRandom newRandom() {
+            for (String algorithm : new String[] {"DRBG", "SHA1PRNG"}) {
+                try {
+                    SecureRandom random = SecureRandom.getInstance(algorithm);
+                    //an explicit seed,the self seeding may block on the system entropy
+                    byte[] seed = new byte[32];
+                    SEEDER.nextBytes(seed);
+                    random.setSeed(seed);
+                    return random;
+                } catch (NoSuchAlgorithmException e) {
+                    //try the next one
+                }
+            }
+            return new SecureRandom();
+        }
+    }
+}
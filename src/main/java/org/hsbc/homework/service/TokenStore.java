@@ -0,0 +1,83 @@
+package org.hsbc.homework.service;
+
+import org.hsbc.homework.entity.Token;
+
+/**
+ * issues,resolves and revokes the tokens of the authenticated users
+ *
+ * @author BruceSu
+ */
+interface TokenStore {
+
+    /**
+     * issue a new token
+     *
+     * @param userName
+     * @param now current time millis
+     * @return the token string handed to the client
+     */
+    String issue(String userName, long now);
+
+    /**
+     * @param token
+     * @return the token or null if it's unknown or revoked,an expired token may still be returned
+     */
+    Token resolve(String token);
+
+    /**
+     * resolve into a reused token,the stores that can look up without allocating override it
+     *
+     * @param token
+     * @param into receives the token,the user name and the times
+     * @return false if it's unknown or revoked,an expired token may still be resolved
+     */
+    default boolean resolve(String token, Token into) {
+        Token obj = this.resolve(token);
+        if (obj == null) {
+            return false;
+        }
+        into.setToken(obj.getToken());
+        into.setUserName(obj.getUserName());
+        into.setCreateTime(obj.getCreateTime());
+        into.setExpireTime(obj.getExpireTime());
+        return true;
+    }
+
+    /**
+     * @param token
+     * @param now current time millis
+     * @return true if the token is kept and not expired,unlike a resolve it never moves a sliding expiry
+     */
+    default boolean isLive(String token, long now) {
+        Token obj = this.resolve(token);
+        return obj != null && now <= obj.getExpireTime();
+    }
+
+    /**
+     * keep a token issued by another node,so it resolves here too
+     *
+     * @param token the token string issued by the other node
+     * @param userName
+     * @param createTime
+     */
+    void adopt(String token, String userName, long createTime);
+
+    /**
+     * revoke the token,nothing happens if it's unknown
+     *
+     * @param token
+     */
+    void revoke(String token);
+
+    /**
+     * @return the count of the tokens kept in memory
+     */
+    int size();
+
+    TokenExpiryStats getExpiryStats();
+
+    /**
+     * stop the background work
+     */
+    void shutdown();
+}
@@ -0,0 +1,105 @@
+package org.hsbc.homework;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.service.AsyncAuthService;
+import org.hsbc.homework.service.AuthService;
+import org.hsbc.homework.service.Result;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author BruceSu
+ */
+public class AsyncAuthServiceTest {
+
+    @Test
+    public void asyncCalls() throws Exception {
+        Properties overrides = new Properties();
+        overrides.setProperty("async_executor", AuthProperties.ASYNC_EXECUTOR_POOL);
+        AuthProperties properties = AuthProperties.withOverrides(overrides);
+        AuthService service = new AuthService(properties);
+        AsyncAuthService async = new AsyncAuthService(service, properties);
+        try {
+            Assert.assertEquals(AuthService.SUCCESS, async.createUser("testUserName", "testPwd").get().intValue());
+            Assert.assertEquals(AuthService.SUCCESS, async.createRole("testRole").get().intValue());
+            Assert.assertEquals(AuthService.SUCCESS, async.addRoleToUser("testUserName", "testRole").get().intValue());
+            String token = async.authenticate("testUserName", "testPwd").get().getRetObj();
+            Assert.assertTrue(async.checkRole(token, "testRole")
+                .thenCompose(ret -> async.getAllRoles(token)).get().getRetObj().contains("testRole"));
+            async.invalidate(token).get();
+            Assert.assertEquals(AuthService.INVALID_TOKEN, async.checkRole(token, "testRole").get().getStatus());
+        } finally {
+            async.shutdown();
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void hashingIsolated() throws Exception {
+        AuthService service = new AuthService(AuthProperties.getInstance());
+        ExecutorService calls = Executors.newFixedThreadPool(2);
+        //one hash thread and no queue,a second login is rejected while the first one runs
+        ThreadPoolExecutor hashes = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new SynchronousQueue<>());
+        AsyncAuthService async = new AsyncAuthService(service, calls, hashes);
+        try {
+            service.createUser("testUserName", "testPwd");
+            service.createRole("testRole");
+            service.addRoleToUser("testUserName", "testRole");
+            String token = service.authenticate("testUserName", "testPwd").getRetObj();
+
+            CountDownLatch release = new CountDownLatch(1);
+            hashes.execute(() -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            Assert.assertEquals(AuthService.INNER_ERROR,
+                async.authenticate("testUserName", "testPwd").get().getStatus());
+            Map<String, String> users = new LinkedHashMap<>();
+            users.put("user1", "testPwd");
+            users.put("user2", "testPwd");
+            Map<String, Integer> codes = async.createUsers(users).get();
+            Assert.assertEquals(AuthService.INNER_ERROR, (int) codes.get("user1"));
+            Assert.assertEquals(AuthService.INNER_ERROR, (int) codes.get("user2"));
+            //counted,not logged
+            Assert.assertEquals(2, async.getRejectedCount());
+            Assert.assertEquals(2L, (long) service.getMetrics().snapshot().getGauges().get("asyncRejections"));
+            //the checks don't wait for the busy hash pool
+            List<CompletableFuture<Result<Boolean>>> checks = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                checks.add(async.checkRole(token, "testRole"));
+            }
+            for (CompletableFuture<Result<Boolean>> check : checks) {
+                Assert.assertTrue(check.get(5, TimeUnit.SECONDS).getRetObj());
+            }
+            release.countDown();
+            //the hash thread takes the next call once it's back on the queue
+            long deadline = System.currentTimeMillis() + 5000;
+            Result<String> ret = async.authenticate("testUserName", "testPwd").get();
+            while (ret.isFail() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+                ret = async.authenticate("testUserName", "testPwd").get();
+            }
+            Assert.assertTrue(ret.isOk());
+        } finally {
+            async.shutdown();
+            calls.shutdown();
+            hashes.shutdown();
+            service.shutdown();
+        }
+    }
+}
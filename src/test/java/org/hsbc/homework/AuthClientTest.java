@@ -0,0 +1,78 @@
+package org.hsbc.homework;
+
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.service.AuthClient;
+import org.hsbc.homework.service.AuthService;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author BruceSu
+ */
+public class AuthClientTest {
+
+    @Test
+    public void nearCache() {
+        AuthService service = new AuthService(AuthProperties.getInstance());
+        AuthClient client = new AuthClient(service, 2);
+        try {
+            service.createUser("testUserName", "testPwd");
+            service.createRole("testRole");
+            service.createRole("otherRole");
+            service.addRoleToUser("testUserName", "testRole");
+            String token = service.authenticate("testUserName", "testPwd").getRetObj();
+
+            Assert.assertTrue(client.checkRole(token, "testRole").getRetObj());
+            Assert.assertFalse(client.checkRole(token, "otherRole").getRetObj());
+            Assert.assertTrue(client.checkRole(token, "testRole").getRetObj());
+            Assert.assertFalse(client.checkRole(token, "otherRole").getRetObj());
+            Assert.assertEquals(2, client.getHits());
+            Assert.assertEquals(2, client.getMisses());
+            Assert.assertEquals(0.5, client.getHitRate(), 0);
+
+            //a grant makes the cached answers stale
+            service.addRoleToUser("testUserName", "otherRole");
+            Assert.assertTrue(client.checkRole(token, "otherRole").getRetObj());
+            Assert.assertEquals(3, client.getMisses());
+            Assert.assertTrue(client.checkRole(token, "otherRole").getRetObj());
+            Assert.assertEquals(3, client.getHits());
+
+            //the creations and the revokes of unknown tokens keep them
+            service.createUser("otherUserName", "otherPwd");
+            service.createRole("thirdRole");
+            service.invalidate("not a token");
+            Assert.assertTrue(client.checkRole(token, "otherRole").getRetObj());
+            Assert.assertEquals(4, client.getHits());
+
+            service.deleteRole("otherRole");
+            Assert.assertFalse(client.checkRole(token, "otherRole").getRetObj());
+
+            //the errors aren't cached
+            Assert.assertEquals(AuthService.INVALID_TOKEN, client.checkRole("not a token", "testRole").getStatus());
+            Assert.assertEquals(AuthService.INVALID_TOKEN, client.checkRole("not a token", "testRole").getStatus());
+
+            //no more tokens than the size
+            for (int i = 0; i < 5; i++) {
+                String other = service.authenticate("testUserName", "testPwd").getRetObj();
+                Assert.assertTrue(client.checkRole(other, "testRole").getRetObj());
+            }
+            Assert.assertEquals(2, client.size());
+
+            client.invalidate(token);
+            Assert.assertEquals(AuthService.INVALID_TOKEN, client.checkRole(token, "testRole").getStatus());
+            String last = service.authenticate("testUserName", "testPwd").getRetObj();
+            Assert.assertTrue(client.checkRole(last, "testRole").getRetObj());
+            //an invalidate through the client drops the token's answers
+            int cached = client.size();
+            client.invalidate(last);
+            Assert.assertEquals(cached - 1, client.size());
+            Assert.assertEquals(AuthService.INVALID_TOKEN, client.checkRole(last, "testRole").getStatus());
+            last = service.authenticate("testUserName", "testPwd").getRetObj();
+            Assert.assertTrue(client.checkRole(last, "testRole").getRetObj());
+            service.deleteUser("testUserName");
+            Assert.assertEquals(AuthService.INVALID_TOKEN, client.checkRole(last, "testRole").getStatus());
+        } finally {
+            service.shutdown();
+        }
+    }
+}
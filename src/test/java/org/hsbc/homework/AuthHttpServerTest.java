@@ -0,0 +1,97 @@
+package org.hsbc.homework;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.http.AuthHttpServer;
+import org.hsbc.homework.service.AuthService;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author BruceSu
+ */
+public class AuthHttpServerTest {
+
+    private static final String ADMIN = "test-admin-token";
+
+    @Test
+    public void httpApi() throws IOException {
+        AuthService service = new AuthService(AuthProperties.getInstance());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AuthHttpServer server = new AuthHttpServer(service, new InetSocketAddress("127.0.0.1", 0), executor,
+            ADMIN);
+        server.start();
+        String url = "http://127.0.0.1:" + server.getPort() + "/";
+        try {
+            //the admin calls need the admin token
+            Assert.assertEquals("{\"status\":10002}",
+                post(url + "createUser", "{\"userName\":\"testUserName\",\"pwd\":\"pwd\"}", null, 403));
+            Assert.assertEquals("{\"status\":10002}",
+                post(url + "createUser", "{\"userName\":\"testUserName\",\"pwd\":\"pwd\"}", "wrong", 403));
+            Assert.assertEquals("{\"status\":0}",
+                post(url + "createUser", "{\"userName\":\"testUserName\",\"pwd\":\"test\\\"Pwd\"}", 200));
+            Assert.assertEquals("{\"status\":0}", post(url + "createRole", "{\"roleName\":\"testRole\"}", 200));
+            Assert.assertEquals("{\"status\":0}",
+                post(url + "addRoleToUser", "{\"userName\":\"testUserName\",\"roleName\":\"testRole\"}", 200));
+            Assert.assertEquals("{\"status\":10006}",
+                post(url + "authenticate", "{\"userName\":\"testUserName\",\"pwd\":\"testPwd\"}", 200));
+
+            String ret = post(url + "authenticate", "{\"userName\":\"testUserName\",\"pwd\":\"test\\\"Pwd\"}", 200);
+            Assert.assertTrue(ret.startsWith("{\"status\":0,\"retObj\":\""));
+            String token = ret.substring("{\"status\":0,\"retObj\":\"".length(), ret.length() - 2);
+            Assert.assertEquals("{\"status\":0,\"retObj\":true}",
+                post(url + "checkRole", "{\"token\":\"" + token + "\",\"roleName\":\"testRole\"}", 200));
+            Assert.assertEquals("{\"status\":0,\"retObj\":[\"testRole\"]}",
+                post(url + "getAllRoles", "{\"token\":\"" + token + "\"}", 200));
+            Assert.assertEquals("{\"status\":0}", post(url + "invalidate", "{\"token\":\"" + token + "\"}", 200));
+            Assert.assertEquals("{\"status\":10007}",
+                post(url + "checkRole", "{\"token\":\"" + token + "\",\"roleName\":\"testRole\"}", 200));
+
+            //missing parameters reach the service as null
+            Assert.assertEquals("{\"status\":10002}", post(url + "createRole", "{}", 200));
+            Assert.assertEquals("{\"status\":10002}", post(url + "createRole", "{\"roleName\":", 400));
+            Assert.assertEquals("{\"status\":10002}", post(url + "noSuchOperation", "{}", 404));
+            //the routes match the full path
+            Assert.assertEquals("{\"status\":10002}", post(url + "any/createRole", "{\"roleName\":\"r\"}", 404));
+        } finally {
+            server.stop(0);
+            executor.shutdown();
+            service.shutdown();
+        }
+    }
+
+    private static String post(String url, String json, int httpStatus) throws IOException {
+        return post(url, json, ADMIN, httpStatus);
+    }
+
+    private static String post(String url, String json, String adminToken, int httpStatus) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        if (adminToken != null) {
+            conn.setRequestProperty("X-Admin-Token", adminToken);
+        }
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(httpStatus, conn.getResponseCode());
+        ByteArrayOutputStream ret = new ByteArrayOutputStream();
+        try (InputStream in = httpStatus < 400 ? conn.getInputStream() : conn.getErrorStream()) {
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                ret.write(buffer, 0, n);
+            }
+        }
+        return new String(ret.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
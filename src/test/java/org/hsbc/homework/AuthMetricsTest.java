@@ -0,0 +1,80 @@
+package org.hsbc.homework;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.Properties;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.metrics.AuthMetrics;
+import org.hsbc.homework.metrics.MeteredLock;
+import org.hsbc.homework.metrics.MetricsSnapshot;
+import org.hsbc.homework.metrics.Operation;
+import org.hsbc.homework.service.AuthService;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author BruceSu
+ */
+public class AuthMetricsTest {
+
+    @Test
+    public void snapshot() throws Exception {
+        Properties overrides = new Properties();
+        overrides.setProperty("metrics_enabled", "true");
+        overrides.setProperty("metrics_jmx_name", "metricsTest");
+        overrides.setProperty("metrics_latency_sampling", "1");
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            service.createUser("testUserName", "testPwd");
+            service.createUser("testUserName", "testPwd");
+            service.createRole("testRole");
+            service.addRoleToUser("testUserName", "testRole");
+            String token = service.authenticate("testUserName", "testPwd").getRetObj();
+            service.checkRole(token, "testRole");
+            service.checkRole("invalid token", "testRole");
+
+            MetricsSnapshot snapshot = service.getMetrics().snapshot();
+            Assert.assertEquals(2, snapshot.getOperations().get(Operation.CREATE_USER).getCount());
+            Assert.assertEquals(2, snapshot.getOperations().get(Operation.CHECK_ROLE).getCount());
+            Assert.assertTrue(snapshot.getOperations().get(Operation.AUTHENTICATE).getP99Nanos() > 0);
+            Assert.assertEquals(1L, (long) snapshot.getResultCodes().get(AuthService.USER_EXISTS));
+            Assert.assertEquals(1L, (long) snapshot.getResultCodes().get(AuthService.INVALID_TOKEN));
+            Assert.assertTrue(snapshot.getLockAcquisitions().get(MeteredLock.USER_LOCK) > 0);
+            Assert.assertEquals(1L, (long) snapshot.getGauges().get("users"));
+            Assert.assertEquals(1L, (long) snapshot.getGauges().get("tokens"));
+            AuthMetrics metrics = service.getMetrics();
+            Assert.assertEquals(snapshot.getOperations().get(Operation.AUTHENTICATE).getP99Nanos(),
+                (long) metrics.getLatencyP99Nanos().get(Operation.AUTHENTICATE.name()));
+            Assert.assertEquals(2L, (long) metrics.getOperationCounts().get(Operation.CHECK_ROLE.name()));
+            Assert.assertEquals(1L, (long) metrics.getResultCodes().get(String.valueOf(AuthService.USER_EXISTS)));
+            Assert.assertEquals(snapshot.getLockAcquisitions().get(MeteredLock.USER_LOCK),
+                metrics.getLockAcquisitions().get(MeteredLock.USER_LOCK.name()));
+
+            ObjectName name = new ObjectName("org.hsbc.homework:type=AuthMetrics,name=\"metricsTest\"");
+            TabularData counts = (TabularData) ManagementFactory.getPlatformMBeanServer()
+                .getAttribute(name, "OperationCounts");
+            Assert.assertEquals(Operation.values().length, counts.size());
+        } finally {
+            service.shutdown();
+        }
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer()
+            .isRegistered(new ObjectName("org.hsbc.homework:type=AuthMetrics,name=\"metricsTest\"")));
+    }
+
+    @Test
+    public void disabled() {
+        AuthService service = new AuthService(AuthProperties.withOverrides(new Properties()));
+        try {
+            service.createUser("testUserName", "testPwd");
+            Map<Operation, ?> operations = service.getMetrics().snapshot().getOperations();
+            Assert.assertFalse(service.getMetrics().isEnabled());
+            Assert.assertEquals(0, service.getMetrics().snapshot().getOperations().get(Operation.CREATE_USER)
+                .getCount());
+            Assert.assertEquals(Operation.values().length, operations.size());
+        } finally {
+            service.shutdown();
+        }
+    }
+}
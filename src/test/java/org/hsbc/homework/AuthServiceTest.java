@@ -1,10 +1,27 @@
 package org.hsbc.homework;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
-import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.entity.Grant;
+import org.hsbc.homework.entity.TokenPair;
+import org.hsbc.homework.events.ChangeBatch;
+import org.hsbc.homework.events.ChangeEvent;
+import org.hsbc.homework.events.ChangeStream;
+import org.hsbc.homework.events.ChangeType;
+import org.hsbc.homework.metrics.Operation;
 import org.hsbc.homework.service.AuthService;
 import org.hsbc.homework.service.Result;
+import org.hsbc.homework.service.TokenGenerator;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -75,7 +92,8 @@ public class AuthServiceTest {
         //correct password
         Result<String> ret = AuthService.getInstance().authenticate("testUserName", "testPwd");
         Assert.assertEquals(AuthService.SUCCESS, ret.getStatus());
-        Assert.assertNotNull(UUID.fromString(ret.getRetObj()));
+        //128 random bits in url safe base64
+        Assert.assertTrue(ret.getRetObj().matches("[A-Za-z0-9_-]{22}"));
 
         //checkRole
         AuthService.getInstance().createRole("testRole");
@@ -106,6 +124,213 @@ public class AuthServiceTest {
         AuthService.getInstance().deleteRole("role2");
     }
 
+    @Test
+    public void getAllRolesSnapshot() {
+        AuthService.getInstance().createUser("testUserName", "testPwd");
+        AuthService.getInstance().createRole("testRole");
+        AuthService.getInstance().createRole("role2");
+        AuthService.getInstance().addRoleToUser("testUserName", "testRole");
+        Result<String> ret = AuthService.getInstance().authenticate("testUserName", "testPwd");
+
+        Set<String> snapshot = AuthService.getInstance().getAllRoles(ret.getRetObj()).getRetObj();
+        try {
+            snapshot.add("role2");
+            Assert.fail("the snapshot should be immutable");
+        } catch (UnsupportedOperationException e) {
+            //expected
+        }
+        //later changes are published as new snapshots
+        AuthService.getInstance().addRoleToUser("testUserName", "role2");
+        Assert.assertEquals(1, snapshot.size());
+        Assert.assertEquals(2, AuthService.getInstance().getAllRoles(ret.getRetObj()).getRetObj().size());
+        AuthService.getInstance().deleteRole("role2");
+        Assert.assertFalse(AuthService.getInstance().checkRole(ret.getRetObj(), "role2").getRetObj());
+        Assert.assertTrue(AuthService.getInstance().checkRole(ret.getRetObj(), "testRole").getRetObj());
+
+        //clear data
+        AuthService.getInstance().invalidate(ret.getRetObj());
+        AuthService.getInstance().deleteUser("testUserName");
+        AuthService.getInstance().deleteRole("testRole");
+    }
+
+    @Test
+    public void deleteRoleRecyclesId() {
+        AuthService.getInstance().createUser("testUserName", "testPwd");
+        AuthService.getInstance().createRole("testRole");
+        AuthService.getInstance().addRoleToUser("testUserName", "testRole");
+        Result<String> ret = AuthService.getInstance().authenticate("testUserName", "testPwd");
+
+        //role2 takes the recycled id of testRole,but must not inherit its grants
+        AuthService.getInstance().deleteRole("testRole");
+        AuthService.getInstance().createRole("role2");
+        Assert.assertFalse(AuthService.getInstance().checkRole(ret.getRetObj(), "role2").getRetObj());
+        Assert.assertFalse(AuthService.getInstance().checkRole(ret.getRetObj(), "testRole").getRetObj());
+        Assert.assertTrue(AuthService.getInstance().getAllRoles(ret.getRetObj()).getRetObj().isEmpty());
+
+        //clear data
+        AuthService.getInstance().invalidate(ret.getRetObj());
+        AuthService.getInstance().deleteUser("testUserName");
+        AuthService.getInstance().deleteRole("role2");
+    }
+
+    @Test
+    public void usersInRole() {
+        AuthService service = new AuthService(AuthProperties.getInstance());
+        try {
+            Assert.assertEquals(AuthService.ROLE_NOT_EXIST, service.getUsersInRole("testRole").getStatus());
+            service.createRole("testRole");
+            service.createRole("otherRole");
+            for (int i = 0; i < 10; i++) {
+                service.createUser("user" + i, "testPwd");
+                service.addRoleToUser("user" + i, "testRole");
+            }
+            service.addRoleToUser("user0", "otherRole");
+            service.addRoleToUser("user0", "testRole");
+            Assert.assertEquals(10, service.countUsersInRole("testRole").getRetObj().intValue());
+            Assert.assertEquals(1, service.countUsersInRole("otherRole").getRetObj().intValue());
+
+            service.deleteUser("user9");
+            Set<String> users = service.getUsersInRole("testRole").getRetObj();
+            Assert.assertEquals(9, users.size());
+            Assert.assertFalse(users.contains("user9"));
+            Assert.assertEquals(Arrays.asList("user0"),
+                Arrays.asList(service.getUsersInRole("otherRole").getRetObj().toArray()));
+
+            //only the members lose the role,the recycled id starts empty
+            String token = service.authenticate("user0", "testPwd").getRetObj();
+            service.deleteRole("testRole");
+            Assert.assertEquals(AuthService.ROLE_NOT_EXIST, service.countUsersInRole("testRole").getStatus());
+            Assert.assertEquals(Collections.singleton("otherRole"), service.getAllRoles(token).getRetObj());
+            service.createRole("role2");
+            Assert.assertEquals(0, service.countUsersInRole("role2").getRetObj().intValue());
+            Assert.assertFalse(service.checkRole(token, "role2").getRetObj());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void roleHierarchy() {
+        AuthService service = new AuthService(AuthProperties.getInstance());
+        try {
+            service.createRole("viewer");
+            service.createRole("operator");
+            service.createRole("admin");
+            service.createUser("testUserName", "testPwd");
+            service.addRoleToUser("testUserName", "admin");
+            String token = service.authenticate("testUserName", "testPwd").getRetObj();
+            Assert.assertFalse(service.checkRole(token, "viewer").getRetObj());
+
+            //the existing grants are updated
+            Assert.assertEquals(AuthService.SUCCESS, service.addRoleParent("viewer", "operator"));
+            Assert.assertEquals(AuthService.SUCCESS, service.addRoleParent("operator", "admin"));
+            Assert.assertEquals(AuthService.SUCCESS, service.addRoleParent("operator", "admin"));
+            Assert.assertTrue(service.checkRole(token, "viewer").getRetObj());
+            Assert.assertTrue(service.checkRole(token, "operator").getRetObj());
+            Assert.assertEquals(3, service.getAllRoles(token).getRetObj().size());
+
+            Assert.assertEquals(AuthService.ROLE_CYCLE, service.addRoleParent("admin", "viewer"));
+            Assert.assertEquals(AuthService.ROLE_CYCLE, service.addRoleParent("admin", "admin"));
+            Assert.assertEquals(AuthService.ROLE_NOT_EXIST, service.addRoleParent("admin", "other"));
+            Assert.assertEquals(AuthService.PARAMS_ERROR, service.addRoleParent(null, "admin"));
+
+            //a new grant implies the included roles
+            service.createUser("user2", "testPwd");
+            service.addRoleToUser("user2", "operator");
+            String token2 = service.authenticate("user2", "testPwd").getRetObj();
+            Assert.assertTrue(service.checkRole(token2, "viewer").getRetObj());
+            Assert.assertFalse(service.checkRole(token2, "admin").getRetObj());
+
+            //the chain is cut,the recycled id implies nothing
+            service.deleteRole("operator");
+            Assert.assertFalse(service.checkRole(token, "viewer").getRetObj());
+            Assert.assertEquals(Collections.singleton("admin"), service.getAllRoles(token).getRetObj());
+            Assert.assertTrue(service.getAllRoles(token2).getRetObj().isEmpty());
+            service.createRole("role2");
+            Assert.assertFalse(service.checkRole(token, "role2").getRetObj());
+            Assert.assertFalse(service.checkRole(token2, "role2").getRetObj());
+            Assert.assertEquals(AuthService.SUCCESS, service.addRoleParent("viewer", "admin"));
+            Assert.assertTrue(service.checkRole(token, "viewer").getRetObj());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void checkPermission() {
+        AuthService service = new AuthService(AuthProperties.getInstance());
+        try {
+            service.createRole("viewer");
+            service.createRole("teller");
+            service.addRoleParent("viewer", "teller");
+            service.createUser("testUserName", "testPwd");
+            service.addRoleToUser("testUserName", "teller");
+            String token = service.authenticate("testUserName", "testPwd").getRetObj();
+
+            Assert.assertEquals(AuthService.SUCCESS, service.addPermissionToRole("viewer", "read", "account:*"));
+            Assert.assertEquals(AuthService.SUCCESS,
+                service.addPermissionToRole("teller", "write", "account:*:balance"));
+            Assert.assertEquals(AuthService.SUCCESS, service.addPermissionToRole("teller", "*", "branch:hk"));
+            Assert.assertEquals(AuthService.PARAMS_ERROR, service.addPermissionToRole("teller", "write", "account::x"));
+            Assert.assertEquals(AuthService.PARAMS_ERROR, service.addPermissionToRole("teller", "wr ite", "account"));
+            Assert.assertEquals(AuthService.ROLE_NOT_EXIST, service.addPermissionToRole("other", "read", "account"));
+
+            Assert.assertTrue(service.checkPermission(token, "read", "account:42").getRetObj());
+            Assert.assertTrue(service.checkPermission(token, "read", "account:42:history").getRetObj());
+            Assert.assertFalse(service.checkPermission(token, "read", "account").getRetObj());
+            Assert.assertTrue(service.checkPermission(token, "write", "account:42:balance").getRetObj());
+            //served by the cache
+            Assert.assertTrue(service.checkPermission(token, "write", "account:42:balance").getRetObj());
+            Assert.assertFalse(service.checkPermission(token, "write", "account:42").getRetObj());
+            Assert.assertFalse(service.checkPermission(token, "write", "account:42:balance:x").getRetObj());
+            Assert.assertTrue(service.checkPermission(token, "delete", "branch:hk").getRetObj());
+            Assert.assertFalse(service.checkPermission(token, "delete", "branch:sg").getRetObj());
+            Assert.assertEquals(AuthService.PARAMS_ERROR, service.checkPermission(token, null, "x").getStatus());
+
+            //the cached decisions follow the permission,grant and role changes
+            Assert.assertFalse(service.checkPermission(token, "write", "account:42").getRetObj());
+            service.addPermissionToRole("viewer", "write", "account:42");
+            Assert.assertTrue(service.checkPermission(token, "write", "account:42").getRetObj());
+            service.createRole("auditor");
+            service.addPermissionToRole("auditor", "audit", "*");
+            Assert.assertFalse(service.checkPermission(token, "audit", "ledger").getRetObj());
+            service.addRoleToUser("testUserName", "auditor");
+            Assert.assertTrue(service.checkPermission(token, "audit", "ledger").getRetObj());
+            service.deleteRole("viewer");
+            Assert.assertFalse(service.checkPermission(token, "read", "account:42").getRetObj());
+            //the recycled id has none of the permissions
+            service.createRole("role2");
+            service.addRoleToUser("testUserName", "role2");
+            Assert.assertFalse(service.checkPermission(token, "read", "account:42").getRetObj());
+            Assert.assertTrue(service.getMetrics().snapshot().getGauges().get("decisionCacheHits") > 0);
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void decisionCacheUsers() {
+        Properties overrides = new Properties();
+        overrides.setProperty("decision_cache_users", "2");
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            service.createRole("viewer");
+            service.addPermissionToRole("viewer", "read", "account:*");
+            for (int i = 0; i < 10; i++) {
+                service.createUser("user" + i, "testPwd");
+                service.addRoleToUser("user" + i, "viewer");
+                String token = service.authenticate("user" + i, "testPwd").getRetObj();
+                Assert.assertTrue(service.checkPermission(token, "read", "account:1").getRetObj());
+                Assert.assertTrue(service.checkPermission(token, "read", "account:1").getRetObj());
+            }
+            Map<String, Long> gauges = service.getMetrics().snapshot().getGauges();
+            Assert.assertTrue(gauges.get("decisionCacheUsers") <= 2);
+            Assert.assertEquals(10L, (long) gauges.get("decisionCacheHits"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
     @Test
     public void tokenExpired() throws InterruptedException {
         AuthService.getInstance().createUser("testUserName", "testPwd");
@@ -114,7 +339,7 @@ public class AuthServiceTest {
         Result<String> ret = AuthService.getInstance().authenticate("testUserName", "testPwd");
         Assert.assertTrue(AuthService.getInstance().checkRole(ret.getRetObj(), "testRole").getRetObj());
         //wait for expired
-        Thread.sleep(AuthProperties.getInstance().getTokenExpireSeconds() * 1000);
+        Thread.sleep(AuthProperties.getInstance().getTokenExpireSeconds() * 1000 + 100);
         Assert.assertEquals(AuthService.TOKEN_EXPIRED,
             AuthService.getInstance().checkRole(ret.getRetObj(), "testRole").getStatus());
 
@@ -122,4 +347,543 @@ public class AuthServiceTest {
         AuthService.getInstance().deleteUser("testUserName");
         AuthService.getInstance().deleteRole("testRole");
     }
+
+    @Test
+    public void tokenEvicted() throws InterruptedException {
+        AuthService.getInstance().createUser("evictedUserName", "testPwd");
+        Result<String> ret = AuthService.getInstance().authenticate("evictedUserName", "testPwd");
+        long evicted = AuthService.getInstance().getTokenExpiryStats().getEvictedCount();
+
+        //expired tokens are evicted in the background within two sweep intervals
+        long deadline = System.currentTimeMillis() + AuthProperties.getInstance().getTokenExpireSeconds() * 1000
+            + AuthProperties.getInstance().getTokenSweepIntervalMillis() * 3;
+        while (AuthService.getInstance().checkRole(ret.getRetObj(), "testRole").getStatus() != AuthService.INVALID_TOKEN
+            && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(AuthService.INVALID_TOKEN,
+            AuthService.getInstance().checkRole(ret.getRetObj(), "testRole").getStatus());
+        Assert.assertTrue(AuthService.getInstance().getTokenExpiryStats().getEvictedCount() > evicted);
+
+        //clear data
+        AuthService.getInstance().deleteUser("evictedUserName");
+    }
+
+    @Test
+    public void signedToken() {
+        Properties overrides = new Properties();
+        overrides.setProperty("token_mode", AuthProperties.TOKEN_MODE_SIGNED);
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            service.createUser("testUserName", "testPwd");
+            service.createRole("testRole");
+            service.addRoleToUser("testUserName", "testRole");
+            Result<String> ret = service.authenticate("testUserName", "testPwd");
+            Assert.assertEquals(AuthService.SUCCESS, ret.getStatus());
+            Assert.assertTrue(service.checkRole(ret.getRetObj(), "testRole").getRetObj());
+            Assert.assertTrue(service.getAllRoles(ret.getRetObj()).getRetObj().contains("testRole"));
+
+            //tampered tokens are rejected
+            String token = ret.getRetObj();
+            String forged = token.substring(0, token.lastIndexOf('.') + 1) + "AAAA";
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.checkRole(forged, "testRole").getStatus());
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.checkRole("a.b.c.d", "testRole").getStatus());
+
+            //the token of another service with a different key is rejected
+            Assert.assertEquals(AuthService.INVALID_TOKEN,
+                AuthService.getInstance().checkRole(token, "testRole").getStatus());
+
+            //the logins of the same millisecond get their own tokens
+            String other = service.authenticate("testUserName", "testPwd").getRetObj();
+            String another = service.authenticate("testUserName", "testPwd").getRetObj();
+            Assert.assertNotEquals(other, another);
+
+            //revocation
+            service.invalidate(token);
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.checkRole(token, "testRole").getStatus());
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.getAllRoles(token).getStatus());
+            service.invalidate(other);
+            Assert.assertTrue(service.checkRole(another, "testRole").getRetObj());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void offHeapToken() {
+        Properties overrides = new Properties();
+        overrides.setProperty("token_mode", AuthProperties.TOKEN_MODE_OFFHEAP);
+        overrides.setProperty("token_prefix", "s7_");
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            service.createUser("testUserName", "testPwd");
+            service.createUser("otherUserName", "testPwd");
+            service.createRole("testRole");
+            service.addRoleToUser("testUserName", "testRole");
+            //enough tokens to grow every segment
+            String[] tokens = new String[40000];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = service.authenticate(i % 2 == 0 ? "testUserName" : "otherUserName", "testPwd").getRetObj();
+            }
+            Assert.assertEquals(tokens.length, service.getMetrics().snapshot().getGauges().get("tokens").intValue());
+            for (int i = 0; i < tokens.length; i++) {
+                Assert.assertEquals(i % 2 == 0, service.checkRole(tokens[i], "testRole").getRetObj());
+            }
+            Assert.assertTrue(service.getAllRoles(tokens[0]).getRetObj().contains("testRole"));
+
+            //only the issued spelling resolves
+            Assert.assertTrue(tokens[0].startsWith("s7_"));
+            Assert.assertEquals(AuthService.INVALID_TOKEN,
+                service.checkRole(tokens[0].substring(3), "testRole").getStatus());
+            //the last char only carries 2 bits,B sets one of its zero bits
+            String noncanonical = tokens[0].substring(0, tokens[0].length() - 1) + "B";
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.checkRole(noncanonical, "testRole").getStatus());
+            Assert.assertEquals(AuthService.INVALID_TOKEN,
+                service.checkRole(new TokenGenerator("s7_").next(), "testRole").getStatus());
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.checkRole("not a token", "testRole").getStatus());
+
+            service.invalidate(tokens[0]);
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.checkRole(tokens[0], "testRole").getStatus());
+            Assert.assertTrue(service.checkRole(tokens[2], "testRole").getRetObj());
+
+            //a token adopted twice is kept once,one revoke ends it
+            service.adoptToken(tokens[4], "testUserName", System.currentTimeMillis());
+            Assert.assertEquals(tokens.length - 1,
+                service.getMetrics().snapshot().getGauges().get("tokens").intValue());
+            service.invalidate(tokens[4]);
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.checkRole(tokens[4], "testRole").getStatus());
+
+            //the id of a user without tokens is recycled,the old tokens don't resolve to its next user
+            service.deleteUser("otherUserName");
+            service.createUser("thirdUserName", "testPwd");
+            service.addRoleToUser("thirdUserName", "testRole");
+            String third = service.authenticate("thirdUserName", "testPwd").getRetObj();
+            Assert.assertTrue(service.checkRole(third, "testRole").getRetObj());
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.checkRole(tokens[1], "testRole").getStatus());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void offHeapTokenEvicted() throws InterruptedException {
+        Properties overrides = new Properties();
+        overrides.setProperty("token_mode", AuthProperties.TOKEN_MODE_OFFHEAP);
+        overrides.setProperty("token_expire_seconds", "1");
+        overrides.setProperty("token_sweep_interval_millis", "200");
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            service.createUser("testUserName", "testPwd");
+            String token = service.authenticate("testUserName", "testPwd").getRetObj();
+            long deadline = System.currentTimeMillis() + 3000;
+            while (service.checkRole(token, "testRole").getStatus() != AuthService.INVALID_TOKEN
+                && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.checkRole(token, "testRole").getStatus());
+            Assert.assertEquals(1, service.getTokenExpiryStats().getEvictedCount());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void slidingExpiry() throws InterruptedException {
+        for (String mode : new String[]{AuthProperties.TOKEN_MODE_UUID, AuthProperties.TOKEN_MODE_OFFHEAP}) {
+            Properties overrides = new Properties();
+            overrides.setProperty("token_mode", mode);
+            overrides.setProperty("token_expire_seconds", "1");
+            overrides.setProperty("token_sweep_interval_millis", "200");
+            overrides.setProperty("token_sliding_expiry", "true");
+            AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+            try {
+                service.createUser("testUserName", "testPwd");
+                String token = service.authenticate("testUserName", "testPwd").getRetObj();
+                //kept alive well past the ttl by the checks
+                long until = System.currentTimeMillis() + 2500;
+                while (System.currentTimeMillis() < until) {
+                    Assert.assertEquals(mode, AuthService.SUCCESS, service.checkRole(token, "testRole").getStatus());
+                    Thread.sleep(100);
+                }
+                long deadline = System.currentTimeMillis() + 3000;
+                Thread.sleep(1200);
+                while (service.checkRole(token, "testRole").getStatus() != AuthService.INVALID_TOKEN
+                    && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(200);
+                }
+                Assert.assertEquals(mode, AuthService.INVALID_TOKEN, service.checkRole(token, "testRole").getStatus());
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void refreshToken() {
+        AuthService service = new AuthService(AuthProperties.getInstance());
+        try {
+            //off by default
+            service.createUser("testUserName", "testPwd");
+            Assert.assertEquals(AuthService.PARAMS_ERROR,
+                service.authenticateWithRefresh("testUserName", "testPwd").getStatus());
+        } finally {
+            service.shutdown();
+        }
+
+        Properties overrides = new Properties();
+        overrides.setProperty("refresh_token_expire_seconds", "604800");
+        overrides.setProperty("metrics_enabled", "true");
+        service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            service.createUser("testUserName", "testPwd");
+            service.createRole("testRole");
+            service.addRoleToUser("testUserName", "testRole");
+            Assert.assertEquals(AuthService.WRONG_PASSWORD,
+                service.authenticateWithRefresh("testUserName", "wrongPwd").getStatus());
+            TokenPair pair = service.authenticateWithRefresh("testUserName", "testPwd").getRetObj();
+            Assert.assertTrue(service.checkRole(pair.getAccessToken(), "testRole").getRetObj());
+            Assert.assertEquals(2, service.getMetrics().snapshot().getOperations()
+                .get(Operation.AUTHENTICATE_WITH_REFRESH).getCount());
+            //a refresh token isn't an access token
+            Assert.assertEquals(AuthService.INVALID_TOKEN,
+                service.checkRole(pair.getRefreshToken(), "testRole").getStatus());
+
+            TokenPair refreshed = service.refresh(pair.getRefreshToken()).getRetObj();
+            Assert.assertTrue(service.checkRole(refreshed.getAccessToken(), "testRole").getRetObj());
+            //rotated,the old one is spent
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.refresh(pair.getRefreshToken()).getStatus());
+            Assert.assertEquals(AuthService.PARAMS_ERROR, service.refresh(null).getStatus());
+
+            service.invalidate(refreshed.getRefreshToken());
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.refresh(refreshed.getRefreshToken()).getStatus());
+
+            pair = service.authenticateWithRefresh("testUserName", "testPwd").getRetObj();
+            service.deleteUser("testUserName");
+            //the sessions end with the user
+            Assert.assertEquals(AuthService.INVALID_TOKEN, service.refresh(pair.getRefreshToken()).getStatus());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void sessions() {
+        for (String mode : new String[]{AuthProperties.TOKEN_MODE_UUID, AuthProperties.TOKEN_MODE_SIGNED,
+            AuthProperties.TOKEN_MODE_OFFHEAP}) {
+            Properties overrides = new Properties();
+            overrides.setProperty("token_mode", mode);
+            overrides.setProperty("max_sessions_per_user", "2");
+            AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+            try {
+                service.createUser("testUserName", "testPwd");
+                service.createUser("otherUserName", "testPwd");
+                service.createRole("testRole");
+                service.addRoleToUser("testUserName", "testRole");
+                service.addRoleToUser("otherUserName", "testRole");
+                String first = service.authenticate("testUserName", "testPwd").getRetObj();
+                String second = service.authenticate("testUserName", "testPwd").getRetObj();
+                String other = service.authenticate("otherUserName", "testPwd").getRetObj();
+                Assert.assertEquals(mode, 2, service.countSessions("testUserName"));
+
+                //the oldest session is evicted over the limit
+                String third = service.authenticate("testUserName", "testPwd").getRetObj();
+                Assert.assertEquals(mode, AuthService.INVALID_TOKEN, service.checkRole(first, "testRole").getStatus());
+                Assert.assertTrue(mode, service.checkRole(second, "testRole").getRetObj());
+                Assert.assertEquals(mode, 2, service.countSessions("testUserName"));
+
+                //an invalidated session doesn't count,no live one is evicted for it
+                service.invalidate(second);
+                String fourth = service.authenticate("testUserName", "testPwd").getRetObj();
+                Assert.assertTrue(mode, service.checkRole(third, "testRole").getRetObj());
+                Assert.assertEquals(mode, 2, service.countSessions("testUserName"));
+
+                Assert.assertEquals(AuthService.PARAMS_ERROR, service.invalidateAllForUser(null));
+                Assert.assertEquals(AuthService.SUCCESS, service.invalidateAllForUser("testUserName"));
+                Assert.assertEquals(mode, AuthService.INVALID_TOKEN, service.checkRole(third, "testRole").getStatus());
+                Assert.assertEquals(mode, AuthService.INVALID_TOKEN, service.checkRole(fourth, "testRole").getStatus());
+                Assert.assertEquals(mode, 0, service.countSessions("testUserName"));
+                Assert.assertTrue(mode, service.checkRole(other, "testRole").getRetObj());
+
+                //a user recreated with the name doesn't get the old sessions
+                service.deleteUser("otherUserName");
+                service.createUser("otherUserName", "testPwd");
+                service.addRoleToUser("otherUserName", "testRole");
+                Assert.assertEquals(mode, AuthService.INVALID_TOKEN, service.checkRole(other, "testRole").getStatus());
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void sessionsWithoutIndex() {
+        for (String mode : new String[]{AuthProperties.TOKEN_MODE_UUID, AuthProperties.TOKEN_MODE_SIGNED,
+            AuthProperties.TOKEN_MODE_OFFHEAP}) {
+            Properties overrides = new Properties();
+            overrides.setProperty("token_mode", mode);
+            AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+            try {
+                service.createUser("testUserName", "testPwd");
+                service.createUser("otherUserName", "testPwd");
+                service.createRole("testRole");
+                service.addRoleToUser("testUserName", "testRole");
+                service.addRoleToUser("otherUserName", "testRole");
+                String first = service.authenticate("testUserName", "testPwd").getRetObj();
+                String second = service.authenticate("testUserName", "testPwd").getRetObj();
+                String other = service.authenticate("otherUserName", "testPwd").getRetObj();
+                //no token is indexed on the heap
+                Map<String, Long> gauges = service.getMetrics().snapshot().getGauges();
+                Assert.assertNull(mode, gauges.get("sessionUsers"));
+                Assert.assertEquals(mode, 0, service.countSessions("testUserName"));
+
+                Assert.assertEquals(AuthService.SUCCESS, service.invalidateAllForUser("testUserName"));
+                Assert.assertEquals(mode, AuthService.INVALID_TOKEN, service.checkRole(first, "testRole").getStatus());
+                Assert.assertEquals(mode, AuthService.INVALID_TOKEN, service.checkRole(second, "testRole").getStatus());
+                Assert.assertTrue(mode, service.checkRole(other, "testRole").getRetObj());
+                //a login right after the cutoff is valid
+                String third = service.authenticate("testUserName", "testPwd").getRetObj();
+                Assert.assertTrue(mode, service.checkRole(third, "testRole").getRetObj());
+
+                service.deleteUser("otherUserName");
+                service.createUser("otherUserName", "testPwd");
+                service.addRoleToUser("otherUserName", "testRole");
+                Assert.assertEquals(mode, AuthService.INVALID_TOKEN, service.checkRole(other, "testRole").getStatus());
+                String recreated = service.authenticate("otherUserName", "testPwd").getRetObj();
+                Assert.assertTrue(mode, service.checkRole(recreated, "testRole").getRetObj());
+                Assert.assertEquals(2L, (long) service.getMetrics().snapshot().getGauges().get("sessionCutoffs"));
+            } finally {
+                service.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void loginThrottle() throws InterruptedException {
+        Properties overrides = new Properties();
+        overrides.setProperty("login_user_rate_per_minute", "1");
+        overrides.setProperty("login_user_burst", "2");
+        overrides.setProperty("login_global_rate_per_second", "1");
+        overrides.setProperty("login_global_burst", "3");
+        overrides.setProperty("refresh_token_expire_seconds", "604800");
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            service.createUser("testUserName", "testPwd");
+            service.createUser("otherUserName", "testPwd");
+            //a wrong password takes a token too
+            Assert.assertEquals(AuthService.WRONG_PASSWORD,
+                service.authenticate("testUserName", "wrongPwd").getStatus());
+            Assert.assertEquals(AuthService.SUCCESS, service.authenticate("testUserName", "testPwd").getStatus());
+            Assert.assertEquals(AuthService.LOGIN_THROTTLED,
+                service.authenticate("testUserName", "testPwd").getStatus());
+            Assert.assertEquals(AuthService.LOGIN_THROTTLED,
+                service.authenticateWithRefresh("testUserName", "testPwd").getStatus());
+
+            //an unknown user takes no token
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals(AuthService.USER_NOT_EXIST, service.authenticate("noUser", "testPwd").getStatus());
+            }
+            //the other user has its own bucket,but the global one is empty after its first login
+            Assert.assertEquals(AuthService.SUCCESS, service.authenticate("otherUserName", "testPwd").getStatus());
+            Assert.assertEquals(AuthService.LOGIN_THROTTLED,
+                service.authenticate("otherUserName", "testPwd").getStatus());
+            //the attempt refused by the global bucket gave the user token back
+            Thread.sleep(1100);
+            Assert.assertEquals(AuthService.SUCCESS, service.authenticate("otherUserName", "testPwd").getStatus());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void sessionSweep() throws InterruptedException {
+        Properties overrides = new Properties();
+        overrides.setProperty("token_expire_seconds", "1");
+        overrides.setProperty("session_sweep_interval_millis", "20");
+        overrides.setProperty("max_sessions_per_user", "10");
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            service.createUser("testUserName", "testPwd");
+            service.createUser("otherUserName", "testPwd");
+            String token = service.authenticate("testUserName", "testPwd").getRetObj();
+            service.authenticate("otherUserName", "testPwd");
+            Assert.assertEquals(2L, (long) service.getMetrics().snapshot().getGauges().get("sessionUsers"));
+
+            //an invalidated token leaves the index at once
+            service.invalidate(token);
+            Assert.assertEquals(1L, (long) service.getMetrics().snapshot().getGauges().get("sessionUsers"));
+
+            //the user idle since the token expired is swept
+            long deadline = System.currentTimeMillis() + 5000;
+            while (service.getMetrics().snapshot().getGauges().get("sessionUsers") > 0
+                && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals(0L, (long) service.getMetrics().snapshot().getGauges().get("sessionUsers"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void changeStream() {
+        Properties overrides = new Properties();
+        overrides.setProperty("change_stream_size", "8");
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            ChangeStream stream = service.getChangeStream();
+            long from = stream.getHeadSequence();
+            service.createUser("testUserName", "testPwd");
+            service.createRole("testRole");
+            service.addRoleToUser("testUserName", "testRole");
+            String token = service.authenticate("testUserName", "testPwd").getRetObj();
+            service.invalidate(token);
+            service.deleteRole("testRole");
+            //failed changes aren't published
+            Assert.assertEquals(AuthService.ROLE_NOT_EXIST, service.deleteRole("testRole"));
+
+            ChangeBatch batch = stream.read(from, 3);
+            Assert.assertFalse(batch.isResyncNeeded());
+            Assert.assertEquals(3, batch.getEvents().size());
+            Assert.assertEquals(ChangeType.CREATE_USER, batch.getEvents().get(0).getType());
+            Assert.assertEquals("testRole", batch.getEvents().get(2).getRoleName());
+            //resume where the last batch ended
+            batch = stream.read(batch.getNextSequence(), 100);
+            Assert.assertEquals(2, batch.getEvents().size());
+            Assert.assertEquals(ChangeType.REVOKE_TOKEN, batch.getEvents().get(0).getType());
+            //the token itself isn't published
+            Assert.assertEquals(ChangeEvent.hashToken(token), batch.getEvents().get(0).getTokenHash());
+            Assert.assertNotEquals(token, batch.getEvents().get(0).getTokenHash());
+            Assert.assertEquals(ChangeType.DELETE_ROLE, batch.getEvents().get(1).getType());
+            Assert.assertEquals(from + 5, batch.getNextSequence());
+            Assert.assertTrue(stream.read(batch.getNextSequence(), 100).getEvents().isEmpty());
+
+            //a reader a whole ring behind is told to resync from the head
+            for (int i = 0; i < 8; i++) {
+                service.createRole("role" + i);
+            }
+            batch = stream.read(from, 100);
+            Assert.assertTrue(batch.isResyncNeeded());
+            Assert.assertTrue(batch.getEvents().isEmpty());
+            Assert.assertEquals(stream.getHeadSequence(), batch.getNextSequence());
+            Assert.assertTrue(stream.read(from + 100, 100).isResyncNeeded());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void concurrentGrants() throws Exception {
+        AuthService service = new AuthService(AuthProperties.withOverrides(new Properties()));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            service.createRole("testRole");
+            service.createRole("role2");
+            Future<?>[] futures = new Future<?>[8];
+            for (int t = 0; t < futures.length; t++) {
+                int base = t * 100;
+                futures[t] = executor.submit(() -> {
+                    for (int i = base; i < base + 100; i++) {
+                        Assert.assertEquals(AuthService.SUCCESS, service.createUser("user" + i, "testPwd"));
+                        Assert.assertEquals(AuthService.SUCCESS, service.addRoleToUser("user" + i, "testRole"));
+                        //role2 is deleted concurrently
+                        int code = service.addRoleToUser("user" + i, "role2");
+                        Assert.assertTrue(code == AuthService.SUCCESS || code == AuthService.ROLE_NOT_EXIST);
+                    }
+                });
+            }
+            Thread.sleep(1);
+            Assert.assertEquals(AuthService.SUCCESS, service.deleteRole("role2"));
+            for (Future<?> future : futures) {
+                future.get();
+            }
+
+            for (int i = 0; i < 800; i++) {
+                String token = service.authenticate("user" + i, "testPwd").getRetObj();
+                Set<String> roles = service.getAllRoles(token).getRetObj();
+                Assert.assertEquals(1, roles.size());
+                Assert.assertTrue(roles.contains("testRole"));
+            }
+        } finally {
+            executor.shutdownNow();
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void authenticateConcurrently() throws Exception {
+        AuthService service = new AuthService(AuthProperties.withOverrides(new Properties()));
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            for (int i = 0; i < threads; i++) {
+                Assert.assertEquals(AuthService.SUCCESS, service.createUser("user" + i, "testPwd"));
+            }
+            //the hashing is outside of the locks,the logins interleave with the writes on the same stripes
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    String roleName = "role" + i;
+                    Assert.assertEquals(AuthService.SUCCESS, service.createRole(roleName));
+                    for (int t = 0; t < threads; t++) {
+                        Assert.assertEquals(AuthService.SUCCESS, service.addRoleToUser("user" + t, roleName));
+                    }
+                }
+            }));
+            for (int t = 0; t < threads; t++) {
+                String userName = "user" + t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        Result<String> ret = service.authenticate(userName, "testPwd");
+                        Assert.assertEquals(AuthService.SUCCESS, ret.getStatus());
+                        Assert.assertEquals(AuthService.SUCCESS, service.getAllRoles(ret.getRetObj()).getStatus());
+                        service.invalidate(ret.getRetObj());
+                    }
+                    Assert.assertEquals(AuthService.WRONG_PASSWORD, service.authenticate(userName, "x").getStatus());
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            String token = service.authenticate("user0", "testPwd").getRetObj();
+            Assert.assertEquals(200, service.getAllRoles(token).getRetObj().size());
+        } finally {
+            executor.shutdownNow();
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void batch() {
+        AuthService service = new AuthService(AuthProperties.withOverrides(new Properties()));
+        try {
+            service.createUser("user0", "testPwd");
+            Map<String, String> users = new LinkedHashMap<>();
+            users.put("user0", "testPwd");
+            users.put("user1", "testPwd");
+            users.put("user2", null);
+            Map<String, Integer> created = service.createUsers(users);
+            Assert.assertEquals(AuthService.USER_EXISTS, (int) created.get("user0"));
+            Assert.assertEquals(AuthService.SUCCESS, (int) created.get("user1"));
+            Assert.assertEquals(AuthService.PARAMS_ERROR, (int) created.get("user2"));
+
+            service.createRole("testRole");
+            service.createRole("role2");
+            List<Integer> granted = service.addRolesToUsers(Arrays.asList(new Grant("user0", "testRole"),
+                new Grant("user1", "role2"), new Grant("user3", "testRole"), new Grant("user1", "role3")));
+            Assert.assertEquals(Arrays.asList(AuthService.SUCCESS, AuthService.SUCCESS, AuthService.USER_NOT_EXIST,
+                AuthService.ROLE_NOT_EXIST), granted);
+            Assert.assertEquals(Collections.singletonList(AuthService.PARAMS_ERROR), service.addRolesToUsers(null));
+            Assert.assertEquals(AuthService.PARAMS_ERROR, (int) service.createUsers(null).get(null));
+
+            String token = service.authenticate("user1", "testPwd").getRetObj();
+            Result<Map<String, Boolean>> checks = service.checkRoles(token, Arrays.asList("testRole", "role2"));
+            Assert.assertEquals(AuthService.SUCCESS, checks.getStatus());
+            Assert.assertFalse(checks.getRetObj().get("testRole"));
+            Assert.assertTrue(checks.getRetObj().get("role2"));
+            Assert.assertEquals(AuthService.INVALID_TOKEN,
+                service.checkRoles("invalid token", Arrays.asList("testRole")).getStatus());
+        } finally {
+            service.shutdown();
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package org.hsbc.homework;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.hsbc.homework.cluster.ClusterAuthService;
+import org.hsbc.homework.cluster.LoopbackTransport;
+import org.hsbc.homework.cluster.ReplicationStats;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.service.AuthService;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author BruceSu
+ */
+public class ClusterTest {
+
+    private static final int NODES = 3;
+
+    private ClusterAuthService[] start(LoopbackTransport transport, String tokenMode) {
+        Properties overrides = new Properties();
+        overrides.setProperty("token_mode", tokenMode);
+        ClusterAuthService[] nodes = new ClusterAuthService[NODES];
+        for (int i = 0; i < NODES; i++) {
+            nodes[i] = new ClusterAuthService(i, NODES, AuthProperties.withOverrides(overrides), transport);
+        }
+        return nodes;
+    }
+
+    private void replicate(String tokenMode) throws Exception {
+        LoopbackTransport transport = new LoopbackTransport();
+        ClusterAuthService[] nodes = this.start(transport, tokenMode);
+        try {
+            //every call goes to a node that may not own the name
+            for (int i = 0; i < 30; i++) {
+                ClusterAuthService node = nodes[i % NODES];
+                Assert.assertEquals(AuthService.SUCCESS, node.createUser("user" + i, "testPwd"));
+                Assert.assertEquals(AuthService.USER_EXISTS, nodes[(i + 1) % NODES].createUser("user" + i, "x"));
+                Assert.assertEquals(AuthService.SUCCESS, node.createRole("role" + i));
+            }
+            Assert.assertTrue(transport.awaitQuiescence(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 30; i++) {
+                Assert.assertEquals(AuthService.SUCCESS, nodes[(i + 2) % NODES].addRoleToUser("user" + i, "role" + i));
+            }
+
+            String[] tokens = new String[30];
+            for (int i = 0; i < 30; i++) {
+                tokens[i] = nodes[i % NODES].authenticate("user" + i, "testPwd").getRetObj();
+                Assert.assertNotNull(tokens[i]);
+            }
+            Assert.assertEquals(AuthService.WRONG_PASSWORD, nodes[0].authenticate("user1", "x").getStatus());
+            Assert.assertTrue(transport.awaitQuiescence(10, TimeUnit.SECONDS));
+            for (ClusterAuthService node : nodes) {
+                for (int i = 0; i < 30; i++) {
+                    Assert.assertTrue(node.checkRole(tokens[i], "role" + i).getRetObj());
+                    Assert.assertFalse(node.checkRole(tokens[i], "role" + ((i + 1) % 30)).getRetObj());
+                    Assert.assertEquals(1, node.getAllRoles(tokens[i]).getRetObj().size());
+                }
+            }
+
+            //role0 is included by role3,the edge is made on node 0
+            Assert.assertEquals(AuthService.SUCCESS, nodes[2].addRoleParent("role0", "role3"));
+            Assert.assertEquals(AuthService.ROLE_CYCLE, nodes[1].addRoleParent("role3", "role0"));
+            Assert.assertEquals(AuthService.SUCCESS, nodes[1].addPermissionToRole("role0", "read", "account:*"));
+            Assert.assertTrue(transport.awaitQuiescence(10, TimeUnit.SECONDS));
+            for (ClusterAuthService node : nodes) {
+                Assert.assertTrue(node.checkRole(tokens[3], "role0").getRetObj());
+                Assert.assertTrue(node.checkPermission(tokens[3], "read", "account:1").getRetObj());
+                Assert.assertFalse(node.checkPermission(tokens[4], "read", "account:1").getRetObj());
+            }
+
+            //an invalidate on any node reaches the others
+            nodes[1].invalidate(tokens[0]);
+            Assert.assertEquals(AuthService.SUCCESS, nodes[2].deleteRole("role1"));
+            Assert.assertEquals(AuthService.SUCCESS, nodes[0].deleteUser("user2"));
+            Assert.assertTrue(transport.awaitQuiescence(10, TimeUnit.SECONDS));
+            for (ClusterAuthService node : nodes) {
+                Assert.assertEquals(AuthService.INVALID_TOKEN, node.checkRole(tokens[0], "role0").getStatus());
+                Assert.assertFalse(node.checkRole(tokens[1], "role1").getRetObj());
+                Assert.assertEquals(0, node.getAllRoles(tokens[1]).getRetObj().size());
+                Assert.assertEquals(AuthService.USER_NOT_EXIST, node.getLocal().authenticate("user2", "testPwd")
+                    .getStatus());
+                Assert.assertEquals(AuthService.ROLE_NOT_EXIST, node.getLocal().addRoleToUser("user3", "role1"));
+            }
+
+            //the sessions are cut off on every node,a user recreated with the name doesn't get them
+            Assert.assertEquals(AuthService.SUCCESS, nodes[1].createUser("user2", "testPwd"));
+            Assert.assertEquals(AuthService.SUCCESS, nodes[2].addRoleToUser("user2", "role2"));
+            Assert.assertEquals(AuthService.SUCCESS, nodes[2].invalidateAllForUser("user5"));
+            Assert.assertTrue(transport.awaitQuiescence(10, TimeUnit.SECONDS));
+            String recreated = nodes[0].authenticate("user2", "testPwd").getRetObj();
+            Assert.assertTrue(transport.awaitQuiescence(10, TimeUnit.SECONDS));
+            for (ClusterAuthService node : nodes) {
+                Assert.assertEquals(AuthService.INVALID_TOKEN, node.checkRole(tokens[2], "role2").getStatus());
+                Assert.assertEquals(AuthService.INVALID_TOKEN, node.checkRole(tokens[5], "role5").getStatus());
+                Assert.assertTrue(node.checkRole(recreated, "role2").getRetObj());
+                Assert.assertTrue(node.checkRole(tokens[6], "role6").getRetObj());
+            }
+
+            for (ClusterAuthService node : nodes) {
+                ReplicationStats stats = node.getReplicationStats();
+                Assert.assertTrue(stats.toString(), stats.getSent() > 0);
+                Assert.assertTrue(stats.toString(), stats.getApplied() > 0);
+                Assert.assertEquals(stats.toString(), 0, stats.getBuffered());
+                Assert.assertEquals(Long.valueOf(stats.getApplied()),
+                    node.getLocal().getMetrics().snapshot().getGauges().get("replicationApplied"));
+            }
+        } finally {
+            for (ClusterAuthService node : nodes) {
+                node.shutdown();
+            }
+            transport.close();
+        }
+    }
+
+    @Test
+    public void replicate() throws Exception {
+        this.replicate(AuthProperties.TOKEN_MODE_UUID);
+    }
+
+    @Test
+    public void replicateOffHeap() throws Exception {
+        this.replicate(AuthProperties.TOKEN_MODE_OFFHEAP);
+    }
+}
@@ -0,0 +1,252 @@
+package org.hsbc.homework;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.journal.Durability;
+import org.hsbc.homework.journal.Journal;
+import org.hsbc.homework.journal.JournalRecord;
+import org.hsbc.homework.journal.RecordType;
+import org.hsbc.homework.service.AuthService;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author BruceSu
+ */
+public class JournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private AuthService open(File journal, String durability) {
+        Properties overrides = new Properties();
+        overrides.setProperty("journal_path", journal.getPath());
+        overrides.setProperty("journal_durability", durability);
+        return new AuthService(AuthProperties.withOverrides(overrides));
+    }
+
+    @Test
+    public void replay() throws Exception {
+        File journal = new File(this.folder.getRoot(), "auth.journal");
+        AuthService service = this.open(journal, "per_op");
+        Assert.assertEquals(AuthService.SUCCESS, service.createUser("testUserName", "testPwd"));
+        Assert.assertEquals(AuthService.SUCCESS, service.createUser("deletedUser", "testPwd"));
+        Assert.assertEquals(AuthService.SUCCESS, service.createRole("deletedRole"));
+        Assert.assertEquals(AuthService.SUCCESS, service.createRole("testRole"));
+        Assert.assertEquals(AuthService.SUCCESS, service.addRoleToUser("testUserName", "deletedRole"));
+        Assert.assertEquals(AuthService.SUCCESS, service.deleteRole("deletedRole"));
+        Assert.assertEquals(AuthService.SUCCESS, service.deleteUser("deletedUser"));
+        //reuses the id of deletedRole
+        Assert.assertEquals(AuthService.SUCCESS, service.createRole("recycledRole"));
+        Assert.assertEquals(AuthService.SUCCESS, service.addRoleToUser("testUserName", "testRole"));
+        service.shutdown();
+
+        service = this.open(journal, "per_op");
+        try {
+            Assert.assertEquals(AuthService.USER_NOT_EXIST, service.authenticate("deletedUser", "testPwd").getStatus());
+            Assert.assertEquals(AuthService.WRONG_PASSWORD, service.authenticate("testUserName", "x").getStatus());
+            String token = service.authenticate("testUserName", "testPwd").getRetObj();
+            Assert.assertTrue(service.checkRole(token, "testRole").getRetObj());
+            Assert.assertFalse(service.checkRole(token, "recycledRole").getRetObj());
+            Assert.assertEquals(1, service.getAllRoles(token).getRetObj().size());
+            Assert.assertEquals(AuthService.ROLE_EXISTS, service.createRole("recycledRole"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void tornTail() throws Exception {
+        File journal = new File(this.folder.getRoot(), "auth.journal");
+        AuthService service = this.open(journal, "per_op");
+        service.createUser("testUserName", "testPwd");
+        service.createRole("testRole");
+        service.shutdown();
+
+        //a crash in the middle of the last record
+        long length = journal.length();
+        try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(length - 3);
+        }
+        service = this.open(journal, "per_op");
+        try {
+            Assert.assertEquals(AuthService.USER_EXISTS, service.createUser("testUserName", "testPwd"));
+            Assert.assertEquals(AuthService.ROLE_NOT_EXIST, service.addRoleToUser("testUserName", "testRole"));
+            Assert.assertEquals(AuthService.SUCCESS, service.createRole("testRole"));
+        } finally {
+            service.shutdown();
+        }
+        service = this.open(journal, "per_op");
+        try {
+            Assert.assertEquals(AuthService.SUCCESS, service.addRoleToUser("testUserName", "testRole"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void snapshot() throws Exception {
+        File journal = new File(this.folder.getRoot(), "auth.journal");
+        File snapshot = new File(this.folder.getRoot(), "auth.snapshot");
+        Properties overrides = new Properties();
+        overrides.setProperty("journal_path", journal.getPath());
+        overrides.setProperty("snapshot_path", snapshot.getPath());
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        service.createRole("deletedRole");
+        service.createRole("testRole");
+        for (int i = 0; i < 100; i++) {
+            service.createUser("user" + i, "testPwd");
+            service.addRoleToUser("user" + i, "testRole");
+        }
+        service.createRole("viewer");
+        service.addRoleParent("viewer", "testRole");
+        service.addPermissionToRole("viewer", "read", "account:*");
+        service.deleteRole("deletedRole");
+        long journalLength = journal.length();
+        Assert.assertEquals(AuthService.SUCCESS, service.writeSnapshot());
+        //the journal only keeps its header
+        Assert.assertTrue(journal.length() < journalLength);
+        //after the snapshot,only in the journal
+        service.createRole("laterRole");
+        service.addRoleToUser("user0", "laterRole");
+        service.createRole("reader");
+        service.addRoleParent("reader", "viewer");
+        service.addPermissionToRole("reader", "read", "report:*");
+        service.deleteUser("user1");
+        service.shutdown();
+
+        service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            String token = service.authenticate("user0", "testPwd").getRetObj();
+            Assert.assertTrue(service.checkRole(token, "testRole").getRetObj());
+            Assert.assertTrue(service.checkRole(token, "laterRole").getRetObj());
+            Assert.assertTrue(service.checkRole(token, "reader").getRetObj());
+            Assert.assertTrue(service.checkPermission(token, "read", "report:1").getRetObj());
+            Assert.assertEquals(4, service.getAllRoles(token).getRetObj().size());
+            Assert.assertEquals(AuthService.ROLE_CYCLE, service.addRoleParent("testRole", "reader"));
+            Assert.assertEquals(AuthService.USER_NOT_EXIST, service.authenticate("user1", "testPwd").getStatus());
+            token = service.authenticate("user99", "testPwd").getRetObj();
+            Assert.assertFalse(service.checkRole(token, "laterRole").getRetObj());
+            Assert.assertEquals(AuthService.ROLE_NOT_EXIST, service.addRoleToUser("user99", "deletedRole"));
+            Assert.assertEquals(99, service.countUsersInRole("testRole").getRetObj().intValue());
+            Assert.assertEquals(1, service.countUsersInRole("laterRole").getRetObj().intValue());
+            Assert.assertEquals(AuthService.SUCCESS, service.writeSnapshot());
+        } finally {
+            service.shutdown();
+        }
+
+        //the snapshot alone
+        Assert.assertTrue(journal.delete());
+        service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            String token = service.authenticate("user0", "testPwd").getRetObj();
+            Assert.assertTrue(service.checkRole(token, "laterRole").getRetObj());
+            Assert.assertTrue(service.checkRole(token, "reader").getRetObj());
+            Assert.assertTrue(service.checkPermission(token, "read", "account:1").getRetObj());
+            Assert.assertTrue(service.checkPermission(token, "read", "report:1").getRetObj());
+            Assert.assertEquals(99, service.getUsersInRole("testRole").getRetObj().size());
+            Assert.assertEquals(AuthService.USER_NOT_EXIST, service.authenticate("user1", "testPwd").getStatus());
+            Assert.assertEquals(AuthService.SUCCESS, service.createUser("user1", "testPwd"));
+        } finally {
+            service.shutdown();
+        }
+        service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            Assert.assertEquals(AuthService.USER_EXISTS, service.createUser("user1", "testPwd"));
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void durability() throws Exception {
+        for (String durability : new String[] {"per_op", "batched", "async"}) {
+            File journal = new File(this.folder.getRoot(), durability + ".journal");
+            AuthService service = this.open(journal, durability);
+            service.createRole("testRole");
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String userName = "user" + i;
+                futures.add(executor.submit(() -> {
+                    int code = service.createUser(userName, "testPwd");
+                    return code == AuthService.SUCCESS ? service.addRoleToUser(userName, "testRole") : code;
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                Assert.assertEquals(AuthService.SUCCESS, (int) future.get());
+            }
+            executor.shutdown();
+            service.shutdown();
+
+            AuthService reopened = this.open(journal, durability);
+            try {
+                for (int i = 0; i < 200; i++) {
+                    String token = reopened.authenticate("user" + i, "testPwd").getRetObj();
+                    Assert.assertTrue(durability, reopened.checkRole(token, "testRole").getRetObj());
+                }
+            } finally {
+                reopened.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void recordWithoutValue() throws Exception {
+        //a record ending after the pwdHash is corrupt,it's cut off with everything after it
+        File journal = new File(this.folder.getRoot(), "short.journal");
+        try (Journal written = Journal.open(journal.toPath(), Durability.PER_OP, 0, 0, r -> { })) {
+            written.append(JournalRecord.user(RecordType.CREATE_USER, "testUserName", new byte[] {1}));
+        }
+        long valid = journal.length();
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        putShort(buffer, RecordType.ADD_ROLE_PARENT, "parentRole", "testRole");
+        putShort(buffer, RecordType.CREATE_USER, "otherUserName", null);
+        Files.write(journal.toPath(), Arrays.copyOf(buffer.array(), buffer.position()), StandardOpenOption.APPEND);
+
+        List<JournalRecord> records = new ArrayList<>();
+        Journal.open(journal.toPath(), Durability.PER_OP, 0, 0, records::add).close();
+        Assert.assertEquals(1, records.size());
+        Assert.assertEquals("testUserName", records.get(0).getUserName());
+        Assert.assertEquals(valid, journal.length());
+
+        records.clear();
+        try (Journal appended = Journal.open(journal.toPath(), Durability.PER_OP, 0, 0, r -> { })) {
+            appended.append(JournalRecord.roleParent("childRole", "testRole"));
+        }
+        Journal.open(journal.toPath(), Durability.PER_OP, 0, 0, records::add).close();
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals("testRole", records.get(1).getParentName());
+    }
+
+    private static void putShort(ByteBuffer buffer, RecordType type, String userName, String roleName) {
+        byte[] user = userName.getBytes(StandardCharsets.UTF_8);
+        byte[] role = roleName == null ? null : roleName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 4 + user.length + 4 + (role == null ? 0 : role.length) + 4);
+        body.put((byte) type.ordinal()).putInt(user.length).put(user);
+        if (role == null) {
+            body.putInt(-1);
+        } else {
+            body.putInt(role.length).put(role);
+        }
+        body.putInt(-1);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        buffer.putInt(body.capacity()).put(body.array()).putInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,118 @@
+package org.hsbc.homework;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import org.hsbc.homework.config.AuthProperties;
+import org.hsbc.homework.journal.Durability;
+import org.hsbc.homework.journal.Journal;
+import org.hsbc.homework.journal.JournalRecord;
+import org.hsbc.homework.journal.RecordType;
+import org.hsbc.homework.service.AuthService;
+import org.hsbc.homework.service.LegacyPasswordHasher;
+import org.hsbc.homework.service.PasswordHasher;
+import org.hsbc.homework.service.Pbkdf2PasswordHasher;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author BruceSu
+ */
+public class PasswordHasherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void legacy() {
+        PasswordHasher hasher = new LegacyPasswordHasher();
+        byte[] stored = hasher.hash("testPwd");
+        Assert.assertEquals(LegacyPasswordHasher.VERSION, stored[0]);
+        Assert.assertEquals(17, stored.length);
+        Assert.assertTrue(hasher.matches("testPwd", stored));
+        Assert.assertFalse(hasher.matches("errorPwd", stored));
+        Assert.assertFalse(hasher.needsRehash(stored));
+    }
+
+    @Test
+    public void pbkdf2() {
+        PasswordHasher hasher = new Pbkdf2PasswordHasher(1000);
+        byte[] stored = hasher.hash("testPwd");
+        Assert.assertEquals(Pbkdf2PasswordHasher.VERSION, stored[0]);
+        Assert.assertTrue(hasher.matches("testPwd", stored));
+        Assert.assertFalse(hasher.matches("errorPwd", stored));
+        //salted
+        Assert.assertFalse(Arrays.equals(stored, hasher.hash("testPwd")));
+
+        //older schemes and costs are upgraded
+        Assert.assertFalse(hasher.needsRehash(stored));
+        Assert.assertTrue(hasher.needsRehash(new LegacyPasswordHasher().hash("testPwd")));
+        Assert.assertTrue(new Pbkdf2PasswordHasher(2000).needsRehash(stored));
+        Assert.assertTrue(new Pbkdf2PasswordHasher(2000).matches("testPwd", stored));
+    }
+
+    @Test
+    public void pbkdf2Service() {
+        Properties overrides = new Properties();
+        overrides.setProperty("password_hasher", "pbkdf2");
+        overrides.setProperty("pbkdf2_iterations", "1000");
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            Assert.assertEquals(AuthService.SUCCESS, service.createUser("testUserName", "testPwd"));
+            Assert.assertEquals(AuthService.WRONG_PASSWORD,
+                service.authenticate("testUserName", "errorPwd").getStatus());
+            Assert.assertEquals(AuthService.SUCCESS, service.authenticate("testUserName", "testPwd").getStatus());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    public void upgradeOnLogin() throws Exception {
+        File journal = new File(this.folder.getRoot(), "auth.journal");
+        Properties overrides = new Properties();
+        overrides.setProperty("journal_path", journal.getPath());
+        overrides.setProperty("password_hasher", "legacy");
+        AuthService service = new AuthService(AuthProperties.withOverrides(overrides));
+        Assert.assertEquals(AuthService.SUCCESS, service.createUser("testUserName", "testPwd"));
+        service.shutdown();
+
+        overrides.setProperty("password_hasher", "pbkdf2");
+        overrides.setProperty("pbkdf2_iterations", "1000");
+        service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            Assert.assertEquals(AuthService.WRONG_PASSWORD,
+                service.authenticate("testUserName", "errorPwd").getStatus());
+            Assert.assertEquals(AuthService.SUCCESS, service.authenticate("testUserName", "testPwd").getStatus());
+            Assert.assertEquals(AuthService.SUCCESS, service.authenticate("testUserName", "testPwd").getStatus());
+        } finally {
+            service.shutdown();
+        }
+
+        //the legacy hash,then a single pbkdf2 one journaled by the first login
+        List<JournalRecord> records = new ArrayList<>();
+        Journal.open(journal.toPath(), Durability.PER_OP, 0, 0, records::add).close();
+        Assert.assertEquals(2, records.size());
+        Assert.assertEquals(LegacyPasswordHasher.VERSION, records.get(0).getPwdHash()[0]);
+        Assert.assertEquals(RecordType.UPDATE_PASSWORD, records.get(1).getType());
+        Assert.assertEquals("testUserName", records.get(1).getUserName());
+        PasswordHasher pbkdf2 = new Pbkdf2PasswordHasher(1000);
+        Assert.assertFalse(pbkdf2.needsRehash(records.get(1).getPwdHash()));
+        Assert.assertTrue(pbkdf2.matches("testPwd", records.get(1).getPwdHash()));
+
+        //the upgraded hash is replayed
+        service = new AuthService(AuthProperties.withOverrides(overrides));
+        try {
+            Assert.assertEquals(AuthService.SUCCESS, service.authenticate("testUserName", "testPwd").getStatus());
+        } finally {
+            service.shutdown();
+        }
+        records.clear();
+        Journal.open(journal.toPath(), Durability.PER_OP, 0, 0, records::add).close();
+        Assert.assertEquals(2, records.size());
+    }
+}